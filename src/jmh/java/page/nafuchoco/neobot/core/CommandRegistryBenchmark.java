@@ -0,0 +1,167 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core;
+
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.interactions.commands.OptionType;
+import net.dv8tion.jda.api.interactions.commands.build.Commands;
+import net.dv8tion.jda.api.interactions.commands.build.SlashCommandData;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+import page.nafuchoco.neobot.api.Launcher;
+import page.nafuchoco.neobot.api.command.CommandContext;
+import page.nafuchoco.neobot.api.command.CommandExecutor;
+import page.nafuchoco.neobot.api.command.CommandValueOption;
+import page.nafuchoco.neobot.api.command.SubCommandOption;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the lookup of the executor of a slash command and the conversion of its options to the JDA command data.
+ * The launcher and the guilds are stubbed, so no request is sent to Discord.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandRegistryBenchmark {
+    private static final int GROUPS = 4;
+    private static final int GUILDS = 10;
+
+    @Param({"10", "100"})
+    private int commandCount;
+
+    private DefaultCommandRegistry registry;
+    private Guild[] guilds;
+    private Guild unknownGuild;
+    private String lastGlobalCommand;
+    private String lastGuildCommand;
+    private Guild lastGuild;
+    private CommandExecutor valueOptionCommand;
+    private CommandExecutor subCommandCommand;
+
+    @Setup
+    public void setup() {
+        var launcher = DiscordStubs.stub(Launcher.class, Map.of());
+        registry = new DefaultCommandRegistry(launcher);
+        guilds = new Guild[GUILDS];
+        for (int i = 0; i < GUILDS; i++)
+            guilds[i] = guild(1000L + i);
+        unknownGuild = guild(999L);
+
+        // half of the commands are global and the other half belong to one of the guilds.
+        for (int i = 0; i < commandCount; i++) {
+            var name = "command" + i;
+            var guild = i % 2 == 0 ? null : guilds[i % GUILDS];
+            registry.registerCommand(new BenchmarkCommand(name, false), null, "group" + (i % GROUPS), guild);
+            if (guild == null) {
+                lastGlobalCommand = name;
+            } else {
+                lastGuildCommand = name;
+                lastGuild = guild;
+            }
+        }
+        valueOptionCommand = new BenchmarkCommand("options", false);
+        subCommandCommand = new BenchmarkCommand("subcommands", true);
+    }
+
+    @Benchmark
+    public CommandExecutor getGlobalExecutor() {
+        return registry.getExecutor(null, lastGlobalCommand);
+    }
+
+    @Benchmark
+    public CommandExecutor getGlobalExecutorFromGuild() {
+        return registry.getExecutor(unknownGuild, lastGlobalCommand);
+    }
+
+    @Benchmark
+    public CommandExecutor getGuildExecutor() {
+        return registry.getExecutor(lastGuild, lastGuildCommand);
+    }
+
+    @Benchmark
+    public CommandExecutor getMissingExecutor() {
+        return registry.getExecutor(lastGuild, "missing");
+    }
+
+    @Benchmark
+    public SlashCommandData addValueOptions() {
+        var command = Commands.slash(valueOptionCommand.getName(), valueOptionCommand.getDescription());
+        registry.addCommandOptions(command, valueOptionCommand);
+        return command;
+    }
+
+    @Benchmark
+    public SlashCommandData addSubCommands() {
+        var command = Commands.slash(subCommandCommand.getName(), subCommandCommand.getDescription());
+        registry.addCommandOptions(command, subCommandCommand);
+        return command;
+    }
+
+    private static Guild guild(long id) {
+        return DiscordStubs.stub(Guild.class, Map.of("getIdLong", id, "getId", Long.toString(id), "getName", "guild" + id));
+    }
+
+    private static class BenchmarkCommand extends CommandExecutor {
+
+        BenchmarkCommand(String name, boolean subCommands) {
+            super(name);
+
+            // Discord does not accept value options next to sub commands.
+            if (subCommands) {
+                getOptions().add(new BenchmarkSubCommand("get"));
+                getOptions().add(new BenchmarkSubCommand("set"));
+                getOptions().add(new BenchmarkSubCommand("reset"));
+            } else {
+                getOptions().add(new CommandValueOption(OptionType.STRING, "text", "Text to send", false, false));
+                getOptions().add(new CommandValueOption(OptionType.INTEGER, "count", "Number of times", true, false));
+                getOptions().add(new CommandValueOption(OptionType.USER, "user", "User to mention", false, false));
+            }
+        }
+
+        @Override
+        public void onInvoke(@NotNull CommandContext commandContext) {
+        }
+
+        @Override
+        public @NotNull String getDescription() {
+            return "Benchmark command";
+        }
+    }
+
+    private static class BenchmarkSubCommand extends SubCommandOption {
+
+        BenchmarkSubCommand(String name) {
+            super(name);
+
+            getOptions().add(new CommandValueOption(OptionType.STRING, "value", "Value to set", true, false));
+        }
+
+        @Override
+        public void onInvoke(@NotNull CommandContext commandContext) {
+        }
+
+        @Override
+        public @NotNull String getDescription() {
+            return "Benchmark sub command";
+        }
+    }
+}
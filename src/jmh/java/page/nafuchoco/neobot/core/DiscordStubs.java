@@ -0,0 +1,58 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+/**
+ * Creates stand-ins for the JDA interfaces, so that the command registry can be benchmarked without a connection to Discord.
+ * A method returns the answer registered for its name, the stub itself for fluent calls,
+ * a new stub for other interface types and a zero value otherwise.
+ */
+final class DiscordStubs {
+
+    private DiscordStubs() {
+    }
+
+    static <T> T stub(Class<T> type, Map<String, Object> answers) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return type.getSimpleName() + "Stub";
+                default:
+                    break;
+            }
+            if (answers.containsKey(method.getName()))
+                return answers.get(method.getName());
+
+            Class<?> returnType = method.getReturnType();
+            if (returnType.isInstance(proxy))
+                return proxy;
+            if (returnType.isInterface())
+                return stub(returnType, Map.of());
+            if (returnType.isPrimitive() && returnType != void.class)
+                return Array.get(Array.newInstance(returnType, 1), 0);
+            return null;
+        }));
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.console;
+
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing a console input line and dispatching it to the registered executor.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConsoleCommandParserBenchmark {
+
+    @Param({"10", "100"})
+    private int commandCount;
+
+    private ConsoleCommandParser parser;
+    private String lastCommandInput;
+    private NoOpCommand lastCommand;
+
+    @Setup
+    public void setup() {
+        var registry = new ConsoleCommandRegistry();
+        for (int i = 0; i < commandCount; i++) {
+            lastCommand = new NoOpCommand("command" + i);
+            registry.registerCommand(lastCommand, null);
+        }
+        parser = new ConsoleCommandParser(registry);
+        lastCommandInput = "Command" + (commandCount - 1) + " stats  guild_settings";
+    }
+
+    @Benchmark
+    public int fireCommand() {
+        parser.fireCommand(lastCommandInput);
+        return lastCommand.invocations;
+    }
+
+    @Benchmark
+    public int fireMissingCommand() {
+        parser.fireCommand("missing stats guild_settings");
+        return lastCommand.invocations;
+    }
+
+    private static class NoOpCommand extends ConsoleCommandExecutor {
+        private int invocations;
+
+        NoOpCommand(String name) {
+            super(name);
+        }
+
+        @Override
+        public void onInvoke(@NotNull ConsoleCommandContext context) {
+            invocations += context.args().length;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore;
+
+import org.openjdk.jmh.annotations.*;
+import page.nafuchoco.neobot.api.DatabaseConnector;
+import page.nafuchoco.neobot.core.DatabaseType;
+import page.nafuchoco.neobot.core.NeoBotConfig;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the reads and writes of a data store backed by an embedded SQLite database in a temporary directory,
+ * with and without the cache. Write-behind is disabled, so every write reaches the database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DataStoreImplBenchmark {
+    private static final int ROWS = 1000;
+
+    @Param({"false", "true"})
+    private boolean cacheEnabled;
+
+    private Path directory;
+    private DatabaseConnector connector;
+    private DefaultDataStoreManager manager;
+    private DataStoreImpl dataStore;
+    private long next;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("neobot-benchmark");
+        connector = new DatabaseConnector(DatabaseType.SQLITE, directory.toString(),
+                DatabaseType.SQLITE.appendConnectionOptions("benchmark.db"), "", "");
+        connector.setPrefix("bench_");
+        manager = new DefaultDataStoreManager(connector, DatabaseType.SQLITE, new NeoBotConfig.DataStoreSection());
+
+        var builder = (DefaultDataStoreBuilder) manager.createDataStoreBuilder();
+        builder.storeName("guildSettings")
+                .addIndex(String.class, "prefix")
+                .addIndex(Long.class, "log_channel")
+                .addIndex(Integer.class, "volume");
+        dataStore = (DataStoreImpl) builder.cacheEnabled(cacheEnabled)
+                .writeBehindEnabled(false)
+                .inMemory(false)
+                .build();
+
+        for (long id = 0; id < ROWS; id++)
+            dataStore.registerStoreData(id, "!", id * 10, 50);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        manager.close();
+        connector.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Object get() {
+        return dataStore.getStoreData(nextId(), "log_channel");
+    }
+
+    @Benchmark
+    public DataStoreRow getRow() {
+        return dataStore.getStoreRow(nextId());
+    }
+
+    @Benchmark
+    public void save() {
+        long id = nextId();
+        dataStore.saveStoreData(id, "volume", (int) id);
+    }
+
+    @Benchmark
+    public void register() {
+        long id = nextId();
+        dataStore.registerStoreData(id, "?", id, (int) id);
+    }
+
+    /**
+     * Cycles through the registered rows, so that the reads of the cache are hits once every row has been read.
+     */
+    private long nextId() {
+        next = (next + 1) % ROWS;
+        return next;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore;
+
+import org.openjdk.jmh.annotations.*;
+import page.nafuchoco.neobot.core.datastore.dialect.SqliteDialect;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares generating the SQL of a data store and binding its parameters on every call
+ * with looking up the statements generated at build time and binding them by column position.
+ * The table and column names are read from fields so that the per-call statements are not folded into constants,
+ * and the parameters are bound to statements prepared once on an in-memory SQLite database,
+ * as a pooled connection with the statement cache reuses them.
+ * Run with the gc profiler (enabled in build.gradle) to see the allocation per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DataStoreStatementsBenchmark {
+    private String table;
+    private Map<String, Class> indexes;
+    private String column;
+    private int columnPosition;
+    private long id;
+    private Object[] values;
+    private Object value;
+
+    private Connection connection;
+    private DataStoreStatements statements;
+    private PreparedStatement upsertStatement;
+    private PreparedStatement selectStatement;
+    private PreparedStatement updateStatement;
+
+    @Setup
+    public void setup() throws SQLException {
+        table = "nb_guild_settings";
+        indexes = new LinkedHashMap<>();
+        indexes.put("prefix", String.class);
+        indexes.put("language", String.class);
+        indexes.put("log_channel", Long.class);
+        indexes.put("volume", Integer.class);
+        indexes.put("enabled", Boolean.class);
+        column = "log_channel";
+        columnPosition = 2;
+        id = 123456789012345678L;
+        values = new Object[]{"!", "ja", 234567890123456789L, 50, true};
+        value = 345678901234567890L;
+
+        var dialect = new SqliteDialect();
+        var columns = new LinkedHashMap<String, Class>();
+        columns.put("id", Long.class);
+        columns.putAll(indexes);
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (var statement = connection.createStatement()) {
+            statement.execute(dialect.createTable(table, columns));
+            statement.execute(dialect.createUniqueIndex(table + "_id", table, "id"));
+        }
+        statements = new DataStoreStatements(dialect, table, indexes.keySet().toArray(new String[0]), false);
+        upsertStatement = connection.prepareStatement(statements.upsert());
+        selectStatement = connection.prepareStatement(statements.select(columnPosition));
+        updateStatement = connection.prepareStatement(statements.update(columnPosition));
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        upsertStatement.close();
+        selectStatement.close();
+        updateStatement.close();
+        connection.close();
+    }
+
+    @Benchmark
+    public String upsertPerCall() throws SQLException {
+        StringBuilder statement = new StringBuilder("INSERT INTO " + table + " (id, ");
+        indexes.keySet().forEach(key -> statement.append(key).append(", "));
+        statement.delete(statement.length() - 2, statement.length());
+        statement.append(") VALUES (?, ");
+        indexes.keySet().forEach(key -> statement.append("?, "));
+        statement.delete(statement.length() - 2, statement.length());
+        statement.append(") ON CONFLICT(id) DO UPDATE SET ");
+        indexes.keySet().forEach(key -> statement.append(key).append(" = excluded.").append(key).append(", "));
+        statement.delete(statement.length() - 2, statement.length());
+
+        upsertStatement.setLong(1, id);
+        for (int i = 0; i < values.length; i++)
+            upsertStatement.setObject(i + 2, values[i]);
+        return statement.toString();
+    }
+
+    @Benchmark
+    public String upsertTemplate() throws SQLException {
+        String statement = statements.upsert();
+        upsertStatement.setLong(1, id);
+        for (int i = 0; i < values.length; i++)
+            upsertStatement.setObject(i + 2, values[i]);
+        return statement;
+    }
+
+    @Benchmark
+    public String selectPerCall() throws SQLException {
+        String statement = "SELECT " + column + " FROM " + table + " WHERE id = ?";
+        selectStatement.setLong(1, id);
+        return statement;
+    }
+
+    @Benchmark
+    public String selectTemplate() throws SQLException {
+        String statement = statements.select(columnPosition);
+        selectStatement.setLong(1, id);
+        return statement;
+    }
+
+    @Benchmark
+    public String updatePerCall() throws SQLException {
+        String statement = "UPDATE " + table + " SET " + column + " = ? WHERE id = ?";
+        updateStatement.setObject(1, value);
+        updateStatement.setLong(2, id);
+        return statement;
+    }
+
+    @Benchmark
+    public String updateTemplate() throws SQLException {
+        String statement = statements.update(columnPosition);
+        updateStatement.setObject(1, value);
+        updateStatement.setLong(2, id);
+        return statement;
+    }
+}
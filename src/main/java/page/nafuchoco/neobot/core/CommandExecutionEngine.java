@@ -0,0 +1,462 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core;
+
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.events.http.HttpRequestEvent;
+import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
+import net.dv8tion.jda.api.hooks.EventListener;
+import net.dv8tion.jda.api.requests.Route;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import page.nafuchoco.neobot.core.metrics.CommandMetrics;
+import page.nafuchoco.neobot.core.metrics.LatencyHistogram;
+import page.nafuchoco.neobot.core.util.LongObjectHashMap;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the slash commands on a dedicated thread pool instead of the threads that receive the Discord events,
+ * so that a slow command does not delay the other interactions of its shard.
+ * <p>
+ * Each guild may run only a limited number of commands at once. The commands of a guild beyond the limit wait
+ * in the queue of the guild, so that a busy guild cannot take all threads from the others.
+ * The commands configured to be deferred are deferred once the defer time after their receipt has passed without a reply,
+ * whether they are still waiting or already running, so that Discord does not expire the interaction.
+ * Only the commands whose executors reply through the hook once the interaction is acknowledged may be configured,
+ * as the others would fail to reply. Commands that run longer than their timeout are interrupted.
+ * <p>
+ * At most the configured number of commands wait at once, counting both the ones waiting for their guild
+ * and the ones waiting for a thread. Commands beyond it are refused.
+ * <p>
+ * The events other than slash commands are passed to the handler on the thread that received them.
+ * <p>
+ * The invocations are counted and timed per command and per module from the creation of the interaction,
+ * so that the delivery by Discord and JDA is included, and the ones slower than the threshold
+ * are logged and kept in a short list of recent slow commands. The time until Discord accepted the first reply
+ * or defer is taken from the request that sent it, as the executors reply on their own.
+ */
+@Slf4j
+public class CommandExecutionEngine implements EventListener {
+    /**
+     * The name under which the commands registered by the core itself are counted.
+     */
+    public static final String CORE_MODULE = "core";
+    private static final int MAX_SLOW_COMMANDS = 50;
+    // Discord expires an interaction that is not acknowledged within 3 seconds, the rest covers a late response.
+    private static final long RESPONSE_WINDOW = 10000;
+
+    private final EventListener handler;
+    private final DefaultCommandRegistry commandRegistry;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService timer;
+    private final int maxConcurrentPerGuild;
+    private final int maxQueued;
+    private final long deferAfter;
+    private final Set<String> deferCommands;
+    private final long timeout;
+    private final Map<String, Long> commandTimeouts;
+    private final long slowThreshold;
+
+    private final LongObjectHashMap<Lane> lanes = new LongObjectHashMap<>();
+    private int queued;
+    private int peakQueued;
+    private boolean shutdown;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder deferred = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final Map<String, CommandMetrics> commandMetrics = new ConcurrentHashMap<>();
+    private final Map<String, CommandMetrics> moduleMetrics = new ConcurrentHashMap<>();
+    private final ArrayDeque<SlowCommand> slowCommands = new ArrayDeque<>();
+    private final Map<Long, Invocation> awaitingResponse = new ConcurrentHashMap<>();
+
+    /**
+     * @param handler         the handler that looks up the executor of a command and invokes it
+     * @param commandRegistry the registry the handler looks the executors up from
+     * @param config          the execution settings
+     */
+    public CommandExecutionEngine(EventListener handler, DefaultCommandRegistry commandRegistry, NeoBotConfig.ExecutionSection config) {
+        if (config.getThreads() <= 0 || config.getMaxConcurrentPerGuild() <= 0)
+            throw new IllegalArgumentException("threads and maxConcurrentPerGuild must be greater than 0.");
+
+        this.handler = handler;
+        this.commandRegistry = commandRegistry;
+        maxConcurrentPerGuild = config.getMaxConcurrentPerGuild();
+        maxQueued = config.getMaxQueued();
+        deferAfter = config.getDeferAfter();
+        deferCommands = Set.copyOf(config.getDeferCommands());
+        timeout = config.getTimeout();
+        commandTimeouts = Map.copyOf(config.getCommandTimeouts());
+        slowThreshold = TimeUnit.MILLISECONDS.toNanos(config.getSlowThreshold());
+
+        var threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(config.getThreads(), config.getThreads(), 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            var thread = new Thread(runnable, "Command-Executor-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "Command-Timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void onEvent(@NotNull GenericEvent event) {
+        if (event instanceof SlashCommandInteractionEvent slashCommandEvent) {
+            submit(slashCommandEvent);
+            return;
+        }
+        if (event instanceof HttpRequestEvent requestEvent)
+            recordResponse(requestEvent);
+        handler.onEvent(event);
+    }
+
+    private void submit(SlashCommandInteractionEvent event) {
+        long createdAt = System.nanoTime()
+                - TimeUnit.MILLISECONDS.toNanos(Math.max(0, System.currentTimeMillis() - event.getTimeCreated().toInstant().toEpochMilli()));
+        var executor = commandRegistry.getExecutor(event.getGuild(), event.getName());
+        if (executor == null) { // nothing to run, let the handler answer it as before.
+            handler.onEvent(event);
+            return;
+        }
+
+        long laneKey = event.getGuild() != null ? event.getGuild().getIdLong() : event.getUser().getIdLong();
+        var module = commandRegistry.getModule(executor);
+        var invocation = new Invocation(event, laneKey, executor.isEphemeral(), commandTimeouts.getOrDefault(event.getName(), timeout), createdAt,
+                commandMetrics.computeIfAbsent(event.getName(), key -> new CommandMetrics()),
+                moduleMetrics.computeIfAbsent(module != null ? module.getDescription().getName() : CORE_MODULE, key -> new CommandMetrics()));
+        if (deferAfter > 0 && deferCommands.contains(event.getName()))
+            invocation.deferTask = schedule(invocation::defer, deferAfter);
+        boolean start;
+        synchronized (this) {
+            var lane = lanes.get(laneKey);
+            if (lane == null) {
+                lane = new Lane();
+                lanes.put(laneKey, lane);
+            }
+            start = lane.running < maxConcurrentPerGuild;
+            // the commands waiting for a thread count as well, so that many quiet guilds cannot grow the backlog without limit.
+            if (shutdown || queued + this.executor.getQueue().size() >= maxQueued) {
+                if (lane.running == 0)
+                    lanes.remove(laneKey);
+                start = false;
+                invocation.cancelTimers();
+                invocation = null;
+            } else if (start) {
+                lane.running++;
+            } else {
+                lane.waiting.add(invocation);
+                peakQueued = Math.max(peakQueued, ++queued);
+            }
+        }
+
+        if (invocation == null) {
+            reject(event);
+            return;
+        }
+        var awaiting = invocation;
+        awaitingResponse.put(event.getIdLong(), awaiting);
+        schedule(() -> awaitingResponse.remove(event.getIdLong(), awaiting), RESPONSE_WINDOW);
+        if (start)
+            dispatch(invocation);
+    }
+
+    private void reject(SlashCommandInteractionEvent event) {
+        rejected.increment();
+        log.debug("Rejected the command {} because too many commands are waiting.", event.getName());
+        try {
+            event.reply("The bot is busy right now. Please try again later.").setEphemeral(true)
+                    .queue(null, throwable -> log.debug("Failed to reply to the rejected command {}.", event.getName(), throwable));
+        } catch (IllegalStateException e) {
+            // acknowledged already.
+        }
+    }
+
+    /**
+     * Hands the invocation to the thread pool. If the pool has been shut down,
+     * the invocation and the ones waiting behind it in the same guild are dropped.
+     */
+    private void dispatch(Invocation invocation) {
+        while (invocation != null) {
+            try {
+                executor.execute(invocation);
+                return;
+            } catch (RejectedExecutionException e) {
+                log.debug("Dropped the command {} because the engine has been shut down.", invocation.event.getName());
+                invocation.cancelTimers();
+                invocation = next(invocation.laneKey);
+            }
+        }
+    }
+
+    /**
+     * Records the first response to an invocation once Discord has accepted it.
+     */
+    private void recordResponse(HttpRequestEvent event) {
+        var route = event.getRoute();
+        if (!route.getBaseRoute().equals(Route.Interactions.CALLBACK) || !event.getResponse().isOk())
+            return;
+        // interactions/{interaction_id}/{interaction_token}/callback
+        var path = route.getCompiledRoute();
+        int start = path.indexOf('/') + 1;
+        int end = path.indexOf('/', start);
+        if (start == 0 || end < 0)
+            return;
+        Invocation invocation;
+        try {
+            invocation = awaitingResponse.remove(Long.parseLong(path, start, end, 10));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (invocation != null) {
+            long respondedAt = System.nanoTime();
+            invocation.metrics.recordFirstResponse(invocation.createdAt, respondedAt);
+            invocation.moduleMetrics.recordFirstResponse(invocation.createdAt, respondedAt);
+        }
+    }
+
+    private Future<?> schedule(Runnable task, long delay) {
+        try {
+            return timer.schedule(task, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) { // shutting down.
+            return null;
+        }
+    }
+
+    /**
+     * Releases the slot of a finished invocation, and returns the next invocation of the same guild
+     * that takes over the slot, if any.
+     */
+    private synchronized Invocation next(long laneKey) {
+        var lane = lanes.get(laneKey);
+        var next = lane.waiting.poll();
+        if (next != null)
+            queued--;
+        else if (--lane.running == 0)
+            lanes.remove(laneKey);
+        return next;
+    }
+
+    private void recordSlow(SlashCommandInteractionEvent event, long queueWait, long execution) {
+        var guild = event.getGuild();
+        var slowCommand = new SlowCommand(Instant.now(), event.getCommandString(),
+                guild != null ? guild.getName() : null, guild != null ? guild.getIdLong() : 0, queueWait, execution);
+        log.warn("Slow command {} in {}: waited {} and ran {}.", slowCommand.command(),
+                guild != null ? guild.getName() + " (" + guild.getId() + ")" : "a direct message",
+                LatencyHistogram.Snapshot.format(queueWait), LatencyHistogram.Snapshot.format(execution));
+        synchronized (slowCommands) {
+            if (slowCommands.size() == MAX_SLOW_COMMANDS)
+                slowCommands.removeLast();
+            slowCommands.addFirst(slowCommand);
+        }
+    }
+
+    /**
+     * @return the metrics of the commands keyed by command name
+     */
+    public Map<String, CommandMetrics> getCommandMetrics() {
+        return Collections.unmodifiableMap(commandMetrics);
+    }
+
+    /**
+     * @return the metrics of the commands keyed by the name of the module that registered them
+     * @see #CORE_MODULE
+     */
+    public Map<String, CommandMetrics> getModuleMetrics() {
+        return Collections.unmodifiableMap(moduleMetrics);
+    }
+
+    /**
+     * @return the recent invocations that took longer than the slow threshold, newest first
+     */
+    public List<SlowCommand> getSlowCommands() {
+        synchronized (slowCommands) {
+            return new ArrayList<>(slowCommands);
+        }
+    }
+
+    /**
+     * @return the statistics of the commands run by this engine
+     */
+    public Stats getStats() {
+        int waiting;
+        int peak;
+        synchronized (this) {
+            waiting = queued;
+            peak = peakQueued;
+        }
+        return new Stats(waiting + executor.getQueue().size(), executor.getActiveCount(), peak,
+                completed.sum(), failed.sum(), rejected.sum(), deferred.sum(), timedOut.sum());
+    }
+
+    /**
+     * Stops accepting commands and waits for the running ones to finish.
+     * Commands still waiting for their guild are dropped.
+     *
+     * @param timeout the maximum time to wait in milliseconds
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void shutdown(long timeout) throws InterruptedException {
+        synchronized (this) {
+            shutdown = true;
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS))
+            executor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    /**
+     * The statistics of the command execution.
+     *
+     * @param queued     the number of commands waiting for their guild or for a thread
+     * @param running    the number of commands running now
+     * @param peakQueued the largest number of commands that waited for their guild at once
+     * @param completed  the number of commands that finished
+     * @param failed     the number of commands that threw an exception
+     * @param rejected   the number of commands refused because the queue was full
+     * @param deferred   the number of commands deferred by the engine because they had not replied in time
+     * @param timedOut   the number of commands interrupted because they exceeded their timeout
+     */
+    public record Stats(int queued, int running, int peakQueued, long completed, long failed, long rejected, long deferred,
+                        long timedOut) {
+    }
+
+    /**
+     * An invocation that took longer than the slow threshold from the creation of the interaction until it finished.
+     *
+     * @param time      the time the invocation finished
+     * @param command   the command as the user typed it, with its subcommand and options
+     * @param guildName the name of the guild, or null if the command was used in a direct message
+     * @param guildId   the id of the guild, or 0 if the command was used in a direct message
+     * @param queueWait the time in nanoseconds from the creation of the interaction until the execution started,
+     *                  including the delivery and the wait for its guild and a thread
+     * @param execution the time in nanoseconds the execution took
+     */
+    public record SlowCommand(Instant time, String command, @Nullable String guildName, long guildId, long queueWait, long execution) {
+    }
+
+    private static class Lane {
+        private final ArrayDeque<Invocation> waiting = new ArrayDeque<>();
+        private int running;
+    }
+
+    private class Invocation implements Runnable {
+        private final SlashCommandInteractionEvent event;
+        private final long laneKey;
+        private final boolean ephemeral;
+        private final long timeout;
+        private final long createdAt;
+        private final CommandMetrics metrics;
+        private final CommandMetrics moduleMetrics;
+        private Future<?> deferTask;
+        private Future<?> timeoutTask;
+        private Thread thread;
+
+        private Invocation(SlashCommandInteractionEvent event, long laneKey, boolean ephemeral, long timeout, long createdAt,
+                           CommandMetrics metrics, CommandMetrics moduleMetrics) {
+            this.event = event;
+            this.laneKey = laneKey;
+            this.ephemeral = ephemeral;
+            this.timeout = timeout;
+            this.createdAt = createdAt;
+            this.metrics = metrics;
+            this.moduleMetrics = moduleMetrics;
+        }
+
+        @Override
+        public void run() {
+            long startedAt = System.nanoTime();
+            boolean error = false;
+            synchronized (this) {
+                thread = Thread.currentThread();
+                if (timeout > 0)
+                    timeoutTask = schedule(this::interrupt, timeout);
+            }
+            try {
+                handler.onEvent(event);
+            } catch (RuntimeException e) {
+                error = true;
+                failed.increment();
+                log.error("An error occurred while executing the command {}.", event.getName(), e);
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                }
+                Thread.interrupted(); // do not pass an interrupt for this command on to the next one.
+                cancelTimers();
+                completed.increment();
+                long finishedAt = System.nanoTime();
+                metrics.record(createdAt, startedAt, finishedAt, error);
+                moduleMetrics.record(createdAt, startedAt, finishedAt, error);
+                if (slowThreshold > 0 && finishedAt - createdAt >= slowThreshold)
+                    recordSlow(event, startedAt - createdAt, finishedAt - startedAt);
+                dispatch(next(laneKey));
+            }
+        }
+
+        /**
+         * Defers the reply of an invocation that has not replied yet.
+         */
+        private void defer() {
+            if (event.isAcknowledged())
+                return;
+            try {
+                event.deferReply(ephemeral).queue(null, throwable -> log.debug("Failed to defer the command {}.", event.getName(), throwable));
+                deferred.increment();
+                metrics.recordDeferred();
+                moduleMetrics.recordDeferred();
+            } catch (IllegalStateException e) {
+                // acknowledged in the meantime.
+            }
+        }
+
+        private synchronized void interrupt() {
+            if (thread == null)
+                return;
+            timedOut.increment();
+            log.warn("The command {} did not finish within {}ms and is interrupted.", event.getName(), timeout);
+            thread.interrupt();
+        }
+
+        private void cancelTimers() {
+            var task = deferTask;
+            if (task != null)
+                task.cancel(false);
+            synchronized (this) {
+                if (timeoutTask != null)
+                    timeoutTask.cancel(false);
+            }
+        }
+    }
+}
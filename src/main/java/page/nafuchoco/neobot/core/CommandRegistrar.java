@@ -18,6 +18,7 @@ package page.nafuchoco.neobot.core;
 
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.interactions.commands.Command;
 import net.dv8tion.jda.api.interactions.commands.build.*;
@@ -28,73 +29,182 @@ import page.nafuchoco.neobot.api.Launcher;
 import page.nafuchoco.neobot.api.command.CommandExecutor;
 import page.nafuchoco.neobot.api.command.CommandValueOption;
 
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 public abstract class CommandRegistrar {
+    /**
+     * The key of the global commands, in place of a guild id. Discord never assigns 0 as an id.
+     */
+    static final long GLOBAL = 0L;
+
     private final Launcher launcher;
+    private final ScheduledExecutorService scheduler;
+
+    // The fields below are guarded by the lock of this registrar.
+    // The registered commands keyed by scope and name.
+    private final Map<Long, Map<String, CommandData>> scopeCommands = new HashMap<>();
+    // The scopes changed since the last update, with the future completed once the change has reached Discord.
+    private final Map<Long, CompletableFuture<Void>> changedScopes = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledUpdate;
+    private long firstChange;
+    private long debounce = 1000;
+    private long maxDebounce = 10000;
 
-    private CommandListUpdateAction globalUpdateAction;
-    private final Map<Long, CommandListUpdateAction> guildUpdateActions = new HashMap<>();
-    private final Map<Long, List<Command>> registeredCommands = new HashMap<>();
-    private boolean commandListUpdated = false;
+    private volatile CommandSyncState syncState = new CommandSyncState(null);
+    private volatile CommandUpdateScheduler updateScheduler;
+    private volatile boolean commandListUpdated = false;
 
     protected CommandRegistrar(Launcher launcher) {
         this.launcher = launcher;
-        registeredCommands.put(null, new ArrayList<>());
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "Command-Sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        updateScheduler = new CommandUpdateScheduler(scheduler, 250, 2, 5, 1000);
+    }
+
+    /**
+     * Loads the state of the last synchronization from the file and saves the state to it from now on.
+     * Without it, every start overwrites all commands.
+     *
+     * @param stateFile the file the state is saved to
+     */
+    protected synchronized void loadSyncState(@NotNull Path stateFile) {
+        syncState = CommandSyncState.load(stateFile);
+    }
+
+    /**
+     * Sets how long the changes of the commands after the first synchronization are collected before they are sent.
+     * Every change restarts the wait, up to the maximum counted from the first change.
+     *
+     * @param debounce    the time in milliseconds to wait for further changes
+     * @param maxDebounce the maximum time in milliseconds a change waits
+     */
+    protected synchronized void setDebounce(long debounce, long maxDebounce) {
+        this.debounce = Math.max(0, debounce);
+        this.maxDebounce = Math.max(this.debounce, maxDebounce);
+    }
+
+    /**
+     * Sets the pace of the command updates sent to Discord and how failed updates are retried.
+     * Must be called before the first synchronization.
+     *
+     * @param interval     the minimum time in milliseconds between the starts of two updates
+     * @param maxInFlight  the maximum number of updates sent at the same time
+     * @param maxRetries   the number of times a failed update is retried
+     * @param retryBackoff the wait in milliseconds before the first retry, doubled on each retry
+     */
+    protected synchronized void setUpdatePace(long interval, int maxInFlight, int maxRetries, long retryBackoff) {
+        updateScheduler = new CommandUpdateScheduler(scheduler, interval, maxInFlight, maxRetries, retryBackoff);
+    }
+
+    /**
+     * @return the number of command updates queued, being sent, sent and failed since the start
+     */
+    public CommandUpdateScheduler.Progress getCommandUpdateProgress() {
+        return updateScheduler.getProgress();
+    }
+
+    /**
+     * Tells the scheduler of the command updates that a command has been used in the guild,
+     * so that the pending update of the guild is sent first.
+     *
+     * @param guildId the id of the guild
+     */
+    protected void markGuildActive(long guildId) {
+        updateScheduler.markActive(guildId);
     }
 
-    protected void registerCommandToDiscord(CommandExecutor executor, Guild guild) {
+    protected CompletableFuture<Void> registerCommandToDiscord(CommandExecutor executor, Guild guild) {
         val command = Commands.slash(executor.getName(), executor.getDescription());
         addCommandOptions(command, executor);
-        addCommands(guild, command);
+        return addCommands(guild, command);
     }
 
-    protected void unregisterCommandFromDiscord(@NotNull CommandExecutor executor, @Nullable Guild guild) {
+    protected synchronized CompletableFuture<Void> unregisterCommandFromDiscord(@NotNull CommandExecutor executor, @Nullable Guild guild) {
         if (executor == null)
-            return;
+            return CompletableFuture.completedFuture(null);
 
-        if (commandListUpdated) {
-            if (guild == null) {
-                registeredCommands.get(null).stream().filter(command -> executor.getName().equals(command.getName())).findFirst().ifPresent(command -> {
-                    launcher.getDiscordApi().getShardById(0).deleteCommandById(command.getId()).queue();
-                    registeredCommands.get(null).remove(command);
-                });
-            } else {
-                registeredCommands.get(guild.getIdLong()).stream().filter(command -> executor.getName().equals(command.getName())).findFirst().ifPresent(command -> {
-                    guild.deleteCommandById(command.getId()).queue();
-                    registeredCommands.get(guild.getIdLong()).remove(command);
-                });
-            }
-        } else {
-            throw new IllegalStateException("Global command list has not been updated yet.");
-        }
+        long scope = guild != null ? guild.getIdLong() : GLOBAL;
+        var commands = scopeCommands.get(scope);
+        if (commands == null || commands.remove(executor.getName()) == null)
+            return CompletableFuture.completedFuture(null);
+        return markChanged(scope);
     }
 
-    private void addCommands(Guild guild, CommandData... commands) {
-        if (commandListUpdated) {
-            if (guild == null) {
-                Arrays.stream(commands).forEach(command -> {
-                    launcher.getDiscordApi().getShardById(0).upsertCommand(command).queue(reg -> registeredCommands.get(null).add(reg));
-                });
-            } else {
-                Arrays.stream(commands).forEach(command -> {
-                    guild.upsertCommand(command).queue(reg -> registeredCommands.computeIfAbsent(guild.getIdLong(), key -> new ArrayList<>()).add(reg));
-                });
-            }
-        } else {
-            if (guild == null) {
-                if (globalUpdateAction == null)
-                    globalUpdateAction = launcher.getDiscordApi().getShardById(0).updateCommands();
-                globalUpdateAction.addCommands(commands);
+    private synchronized CompletableFuture<Void> addCommands(Guild guild, CommandData... commands) {
+        long scope = guild != null ? guild.getIdLong() : GLOBAL;
+        var scopeCommandMap = scopeCommands.computeIfAbsent(scope, key -> new LinkedHashMap<>());
+        for (CommandData command : commands)
+            scopeCommandMap.put(command.getName(), command);
+        return markChanged(scope);
+    }
+
+    /**
+     * Marks the scope as changed. After the first synchronization, the update of the changed scopes is scheduled
+     * after the debounce time; before it, the change is sent by the first synchronization.
+     */
+    private CompletableFuture<Void> markChanged(long scope) {
+        var future = changedScopes.computeIfAbsent(scope, key -> new CompletableFuture<>());
+        if (!commandListUpdated)
+            return future;
 
-            } else {
-                guildUpdateActions.computeIfAbsent(guild.getIdLong(), key -> guild.updateCommands()).addCommands(commands);
+        long now = System.currentTimeMillis();
+        if (scheduledUpdate == null)
+            firstChange = now;
+        else
+            scheduledUpdate.cancel(false);
+        long delay = Math.min(debounce, Math.max(0, firstChange + maxDebounce - now));
+        scheduledUpdate = scheduler.schedule(this::flushCommandUpdates, delay, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    /**
+     * Sends the changes of the commands collected so far without waiting for the debounce time.
+     * Each changed scope is sent as a single bulk update.
+     *
+     * @return the future completed once all changes have reached Discord
+     */
+    public CompletableFuture<Void> flushCommandUpdates() {
+        Map<Long, CompletableFuture<Void>> scopes;
+        Map<Long, Map<String, CommandData>> commands = new HashMap<>();
+        synchronized (this) {
+            if (!commandListUpdated)
+                return awaitCommandUpdates();
+            if (scheduledUpdate != null) {
+                scheduledUpdate.cancel(false);
+                scheduledUpdate = null;
             }
+            scopes = new LinkedHashMap<>(changedScopes);
+            changedScopes.clear();
+            scopes.keySet().forEach(scope -> commands.put(scope, new LinkedHashMap<>(scopeCommands.getOrDefault(scope, Map.of()))));
         }
+        if (scopes.isEmpty())
+            return CompletableFuture.completedFuture(null);
+
+        scopes.forEach((scope, future) -> complete(updateScope(scope, commands.get(scope)), future));
+        return CompletableFuture.allOf(scopes.values().toArray(new CompletableFuture[0]))
+                .whenComplete((result, throwable) -> syncState.save());
     }
 
-    private void addCommandOptions(SlashCommandData command, CommandExecutor executor) {
+    /**
+     * Returns a future that is completed once the changes of the commands made so far have reached Discord.
+     *
+     * @return the future, already completed if there is no pending change
+     */
+    public synchronized CompletableFuture<Void> awaitCommandUpdates() {
+        return CompletableFuture.allOf(changedScopes.values().toArray(new CompletableFuture[0]));
+    }
+
+    void addCommandOptions(SlashCommandData command, CommandExecutor executor) {
         executor.getValueOptions().stream()
                 .sorted(Comparator.comparing(CommandValueOption::required).reversed())
                 .map(option -> {
@@ -119,15 +229,144 @@ public abstract class CommandRegistrar {
         });
     }
 
-    protected void queue() {
-        globalUpdateAction.queue(commands -> registeredCommands.put(null, new ArrayList<>(commands)));
-        guildUpdateActions.forEach((guildId, action) -> action.queue(commands -> registeredCommands.computeIfAbsent(guildId, key -> new ArrayList<>(commands))));
-        globalUpdateAction = null;
-        guildUpdateActions.clear();
+    /**
+     * Synchronizes the registered commands with Discord. Only the commands that were added, changed or deleted
+     * since the last synchronization are sent; a scope that has never been synchronized is overwritten as a whole.
+     * Later changes are collected and sent per scope in bulk, see {@link #setDebounce(long, long)}.
+     */
+    protected synchronized void queue() {
+        long applicationId = getGlobalShard().getSelfUser().getApplicationIdLong();
+        if (syncState.getApplicationId() != applicationId) {
+            if (syncState.getApplicationId() != 0)
+                log.info("The commands were synchronized for another application, so all commands are sent again.");
+            syncState.reset(applicationId);
+        }
+
+        Set<Long> scopes = new LinkedHashSet<>();
+        scopes.add(GLOBAL);
+        scopes.addAll(scopeCommands.keySet());
+        scopes.addAll(syncState.getScopes());
+
+        List<CompletableFuture<?>> requests = new ArrayList<>();
+        for (long scope : scopes) {
+            var scopeRequests = new ArrayList<CompletableFuture<?>>();
+            syncScope(scope, new LinkedHashMap<>(scopeCommands.getOrDefault(scope, Map.of())), scopeRequests);
+            requests.addAll(scopeRequests);
+            var future = changedScopes.remove(scope);
+            if (future != null)
+                complete(CompletableFuture.allOf(scopeRequests.toArray(new CompletableFuture[0])), future);
+        }
         commandListUpdated = true;
+
+        if (requests.isEmpty()) {
+            log.info("The slash commands are up to date.");
+        } else {
+            log.info("Sending {} slash command changes to Discord.", requests.size());
+            long start = System.currentTimeMillis();
+            CompletableFuture.allOf(requests.toArray(new CompletableFuture[0])).whenComplete((result, throwable) -> {
+                var progress = updateScheduler.getProgress();
+                if (throwable != null)
+                    log.warn("{} slash command changes could not be synchronized. They are sent again on the next start.", progress.failed(), throwable);
+                log.info("Synchronized the slash commands in {}ms. ({} sent, {} retries)",
+                        System.currentTimeMillis() - start, progress.done(), progress.retried());
+                syncState.save();
+            });
+        }
+    }
+
+    private void syncScope(long scope, Map<String, CommandData> commands, List<CompletableFuture<?>> requests) {
+        Guild guild = null;
+        if (scope != GLOBAL) {
+            guild = launcher.getDiscordApi().getGuildById(scope);
+            if (guild == null) { // the bot has left the guild, and its commands with it.
+                syncState.removeScope(scope);
+                return;
+            }
+        }
+
+        Map<String, String> fingerprints = new HashMap<>();
+        commands.forEach((name, command) -> fingerprints.put(name, CommandSyncState.fingerprint(command)));
+
+        var synced = syncState.getScope(scope);
+        if (synced == null || (commands.isEmpty() && !synced.isEmpty())) {
+            // overwrite the scope, which also deletes the commands this process does not know about.
+            requests.add(overwriteScope(scope, guild, commands, fingerprints));
+            return;
+        }
+
+        for (Map.Entry<String, CommandData> command : commands.entrySet()) {
+            var last = synced.get(command.getKey());
+            var fingerprint = fingerprints.get(command.getKey());
+            if (last != null && fingerprint.equals(last.fingerprint()))
+                continue;
+            var target = guild;
+            requests.add(updateScheduler.<Command>submit(List.of(scope, command.getKey()), scope, priorityOf(guild),
+                    () -> target != null ? target.upsertCommand(command.getValue()) : getGlobalShard().upsertCommand(command.getValue())
+            ).thenAccept(registered ->
+                    syncState.put(scope, registered.getName(), new CommandSyncState.SyncedCommand(registered.getId(), fingerprint))));
+        }
+        for (Map.Entry<String, CommandSyncState.SyncedCommand> command : synced.entrySet()) {
+            if (commands.containsKey(command.getKey()))
+                continue;
+            var target = guild;
+            var id = command.getValue().id();
+            requests.add(updateScheduler.<Void>submit(List.of(scope, command.getKey()), scope, priorityOf(guild),
+                    () -> target != null ? target.deleteCommandById(id) : getGlobalShard().deleteCommandById(id)
+            ).thenRun(() -> syncState.remove(scope, command.getKey())));
+        }
+    }
+
+    /**
+     * Sends all commands of a changed scope in a single bulk update, unless they are the same as the last synchronized ones.
+     */
+    private CompletableFuture<Void> updateScope(long scope, Map<String, CommandData> commands) {
+        Guild guild = null;
+        if (scope != GLOBAL) {
+            guild = launcher.getDiscordApi().getGuildById(scope);
+            if (guild == null) {
+                syncState.removeScope(scope);
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+
+        Map<String, String> fingerprints = new HashMap<>();
+        commands.forEach((name, command) -> fingerprints.put(name, CommandSyncState.fingerprint(command)));
+        var synced = syncState.getScope(scope);
+        if (synced != null && synced.size() == fingerprints.size() && fingerprints.entrySet().stream()
+                .allMatch(entry -> synced.containsKey(entry.getKey()) && entry.getValue().equals(synced.get(entry.getKey()).fingerprint())))
+            return CompletableFuture.completedFuture(null);
+        return overwriteScope(scope, guild, commands, fingerprints);
+    }
+
+    private CompletableFuture<Void> overwriteScope(long scope, @Nullable Guild guild, Map<String, CommandData> commands, Map<String, String> fingerprints) {
+        return updateScheduler.<List<Command>>submit(scope, scope, priorityOf(guild), () -> {
+            CommandListUpdateAction action = guild != null ? guild.updateCommands() : getGlobalShard().updateCommands();
+            return action.addCommands(commands.values());
+        }).thenAccept(registered -> {
+            Map<String, CommandSyncState.SyncedCommand> state = new HashMap<>();
+            for (Command command : registered)
+                state.put(command.getName(), new CommandSyncState.SyncedCommand(command.getId(), fingerprints.get(command.getName())));
+            syncState.replaceScope(scope, state);
+        });
+    }
+
+    /**
+     * The global commands are sent first, then the commands of the larger guilds.
+     */
+    private static int priorityOf(@Nullable Guild guild) {
+        return guild != null ? guild.getMemberCount() : CommandUpdateScheduler.HIGHEST_PRIORITY;
+    }
+
+    private static void complete(CompletableFuture<?> source, CompletableFuture<Void> target) {
+        source.whenComplete((result, throwable) -> {
+            if (throwable != null)
+                target.completeExceptionally(throwable);
+            else
+                target.complete(null);
+        });
     }
 
-    protected List<Command> getRegisteredCommands() {
-        return registeredCommands.values().stream().flatMap(Collection::stream).toList();
+    private JDA getGlobalShard() {
+        return launcher.getDiscordApi().getShardById(0);
     }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.api.interactions.commands.build.CommandData;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The slash commands last synchronized with Discord, with their ids and fingerprints, per scope.
+ * The scope is the guild id, or {@link CommandRegistrar#GLOBAL} for the global commands.
+ * <p>
+ * The state is saved to a file, so that the commands that have not changed since the last start are not sent again.
+ * Deleting the file makes the next start overwrite all commands.
+ */
+@Slf4j
+class CommandSyncState {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectMapper CANONICAL_MAPPER = new ObjectMapper().enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+
+    private final Path file;
+    private final Map<Long, Map<String, SyncedCommand>> scopes = new ConcurrentHashMap<>();
+    private volatile long applicationId;
+
+    /**
+     * @param file the file to save the state to, or null to keep it only in memory
+     */
+    CommandSyncState(@Nullable Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the state saved in the file. A missing or unreadable file gives an empty state.
+     *
+     * @param file the file the state was saved to
+     * @return the state
+     */
+    static CommandSyncState load(Path file) {
+        var state = new CommandSyncState(file);
+        if (!Files.exists(file))
+            return state;
+
+        try {
+            var stateFile = MAPPER.readValue(file.toFile(), StateFile.class);
+            state.applicationId = stateFile.applicationId;
+            stateFile.scopes.forEach((scope, commands) -> state.scopes.put(scope, new ConcurrentHashMap<>(commands)));
+        } catch (IOException e) {
+            log.warn("Failed to read the command sync state. All commands are sent again.", e);
+        }
+        return state;
+    }
+
+    /**
+     * Computes the fingerprint of a command from its JSON with the keys in a fixed order,
+     * so that it only changes when the definition of the command changes.
+     *
+     * @param command the command
+     * @return the SHA-256 of the canonical JSON in hex
+     */
+    static String fingerprint(CommandData command) {
+        try {
+            Object json = CANONICAL_MAPPER.readValue(command.toData().toJson(), Object.class);
+            return DigestUtils.sha256Hex(CANONICAL_MAPPER.writeValueAsBytes(json));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    long getApplicationId() {
+        return applicationId;
+    }
+
+    /**
+     * Forgets all scopes. Used when the commands were synchronized for another application.
+     */
+    void reset(long applicationId) {
+        this.applicationId = applicationId;
+        scopes.clear();
+    }
+
+    Set<Long> getScopes() {
+        return scopes.keySet();
+    }
+
+    /**
+     * @return the synchronized commands of the scope keyed by name, or null if the scope has never been synchronized
+     */
+    @Nullable Map<String, SyncedCommand> getScope(long scope) {
+        return scopes.get(scope);
+    }
+
+    void replaceScope(long scope, Map<String, SyncedCommand> commands) {
+        scopes.put(scope, new ConcurrentHashMap<>(commands));
+    }
+
+    void removeScope(long scope) {
+        scopes.remove(scope);
+    }
+
+    void put(long scope, String name, SyncedCommand command) {
+        scopes.computeIfAbsent(scope, key -> new ConcurrentHashMap<>()).put(name, command);
+    }
+
+    void remove(long scope, String name) {
+        var commands = scopes.get(scope);
+        if (commands != null)
+            commands.remove(name);
+    }
+
+    /**
+     * Writes the state to the file, replacing it atomically.
+     */
+    synchronized void save() {
+        if (file == null)
+            return;
+
+        var stateFile = new StateFile();
+        stateFile.applicationId = applicationId;
+        stateFile.scopes = Map.copyOf(scopes);
+        try {
+            var temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            MAPPER.writerWithDefaultPrettyPrinter().writeValue(temporary.toFile(), stateFile);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to save the command sync state.", e);
+        }
+    }
+
+    /**
+     * A command as it was last sent to Discord.
+     *
+     * @param id          the id Discord assigned to the command
+     * @param fingerprint the fingerprint of the definition that was sent
+     */
+    record SyncedCommand(@JsonProperty("id") String id, @JsonProperty("fingerprint") String fingerprint) {
+    }
+
+    private static class StateFile {
+        @JsonProperty("applicationId")
+        private long applicationId;
+        @JsonProperty("scopes")
+        private Map<Long, Map<String, SyncedCommand>> scopes = Map.of();
+    }
+}
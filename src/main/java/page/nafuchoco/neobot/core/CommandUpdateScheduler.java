@@ -0,0 +1,292 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core;
+
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.api.exceptions.ErrorResponseException;
+import net.dv8tion.jda.api.requests.RestAction;
+import page.nafuchoco.neobot.core.util.LongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Sends the command updates to Discord at a steady pace instead of all at once, so that thousands of guild updates
+ * do not take the rate limits the interaction replies need.
+ * <p>
+ * The queued updates are sent in order of priority: the global commands first, then the guilds where a command
+ * has just been used, then the larger guilds. A queued update of a key is replaced by a newer update of the same key.
+ * Failed updates are retried with exponential backoff if the error is temporary.
+ */
+@Slf4j
+public class CommandUpdateScheduler {
+    /**
+     * The priority of the global commands.
+     */
+    static final int HIGHEST_PRIORITY = Integer.MAX_VALUE;
+    private static final int ACTIVE_PRIORITY = Integer.MAX_VALUE - 1;
+    private static final long MAX_BACKOFF = 60000;
+
+    private final ScheduledExecutorService scheduler;
+    private final long interval;
+    private final int maxInFlight;
+    private final int maxRetries;
+    private final long retryBackoff;
+
+    // guarded by the lock of this scheduler.
+    // a sorted set rather than a heap, so that markActive reorders an update without scanning the queue.
+    private final TreeSet<Task<?>> queue = new TreeSet<>();
+    private final Map<Object, Task<?>> queuedByKey = new HashMap<>();
+    private final LongObjectHashMap<List<Task<?>>> queuedByScope = new LongObjectHashMap<>();
+    private int inFlight;
+    private long nextStart;
+    private boolean pumpScheduled;
+    private long sequence;
+
+    private volatile int pending;
+    private final AtomicLong done = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+
+    /**
+     * @param scheduler    the executor that runs the scheduler
+     * @param interval     the minimum time in milliseconds between the starts of two updates
+     * @param maxInFlight  the maximum number of updates sent at the same time
+     * @param maxRetries   the number of times a failed update is retried
+     * @param retryBackoff the wait in milliseconds before the first retry, doubled on each retry
+     */
+    CommandUpdateScheduler(ScheduledExecutorService scheduler, long interval, int maxInFlight, int maxRetries, long retryBackoff) {
+        this.scheduler = scheduler;
+        this.interval = Math.max(0, interval);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.retryBackoff = Math.max(1, retryBackoff);
+    }
+
+    /**
+     * Queues an update.
+     *
+     * @param key      the key of the update. A queued update of the same key is replaced and shares its future.
+     * @param scope    the guild id of the update, or {@link CommandRegistrar#GLOBAL}
+     * @param priority the priority of the update; higher is sent first
+     * @param request  creates the request, called each time the update is sent
+     * @param <T>      the result of the request
+     * @return the future completed with the result once the update has been sent, or exceptionally once it has failed for good
+     */
+    synchronized <T> CompletableFuture<T> submit(Object key, long scope, int priority, Supplier<RestAction<T>> request) {
+        @SuppressWarnings("unchecked")
+        var queued = (Task<T>) queuedByKey.get(key);
+        if (queued != null) {
+            queued.request = request;
+            return queued.future;
+        }
+
+        var task = new Task<>(key, scope, priority, sequence++, request);
+        enqueue(task);
+        pending++;
+        pump();
+        return task.future;
+    }
+
+    /**
+     * Moves the queued updates of the guild to the front, because its members are using commands right now.
+     * Returns immediately if nothing is queued.
+     *
+     * @param scope the guild id
+     */
+    void markActive(long scope) {
+        if (pending == 0)
+            return;
+        synchronized (this) {
+            var tasks = queuedByScope.get(scope);
+            if (tasks == null)
+                return;
+            for (Task<?> task : tasks) {
+                if (task.priority < ACTIVE_PRIORITY) {
+                    queue.remove(task);
+                    task.priority = ACTIVE_PRIORITY;
+                    queue.add(task);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of updates that are queued, being sent, sent and failed, and the number of retries
+     */
+    synchronized Progress getProgress() {
+        return new Progress(pending - inFlight, inFlight, done.get(), failed.get(), retried.get());
+    }
+
+    private void enqueue(Task<?> task) {
+        queue.add(task);
+        queuedByKey.put(task.key, task);
+        var tasks = queuedByScope.get(task.scope);
+        if (tasks == null) {
+            tasks = new ArrayList<>(1);
+            queuedByScope.put(task.scope, tasks);
+        }
+        tasks.add(task);
+    }
+
+    private Task<?> dequeue() {
+        var task = queue.pollFirst();
+        queuedByKey.remove(task.key);
+        var tasks = queuedByScope.get(task.scope);
+        tasks.remove(task);
+        if (tasks.isEmpty())
+            queuedByScope.remove(task.scope);
+        return task;
+    }
+
+    /**
+     * Starts as many queued updates as the pace allows, and schedules itself again if it has to wait.
+     * Must be called while holding the lock of this scheduler.
+     */
+    private void pump() {
+        while (inFlight < maxInFlight && !queue.isEmpty()) {
+            long now = System.currentTimeMillis();
+            if (now < nextStart) {
+                if (!pumpScheduled) {
+                    pumpScheduled = true;
+                    scheduler.schedule(this::scheduledPump, nextStart - now, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+
+            var task = dequeue();
+            inFlight++;
+            nextStart = now + interval;
+            send(task);
+        }
+    }
+
+    private synchronized void scheduledPump() {
+        pumpScheduled = false;
+        pump();
+    }
+
+    private <T> void send(Task<T> task) {
+        CompletableFuture<T> request;
+        try {
+            request = task.request.get().submit();
+        } catch (RuntimeException e) {
+            request = CompletableFuture.failedFuture(e);
+        }
+        request.whenComplete((result, throwable) -> onComplete(task, result, throwable));
+    }
+
+    private synchronized <T> void onComplete(Task<T> task, T result, Throwable throwable) {
+        inFlight--;
+        if (throwable == null) {
+            pending--;
+            done.incrementAndGet();
+            task.future.complete(result);
+        } else if (task.attempts < maxRetries && isTemporary(throwable)) {
+            long backoff = Math.min(MAX_BACKOFF, retryBackoff << Math.min(task.attempts, 16));
+            backoff += ThreadLocalRandom.current().nextLong(backoff / 4 + 1);
+            task.attempts++;
+            retried.incrementAndGet();
+            log.debug("Retrying the command update of {} in {}ms.", task.scope, backoff, throwable);
+            scheduler.schedule(() -> retry(task), backoff, TimeUnit.MILLISECONDS);
+        } else {
+            pending--;
+            failed.incrementAndGet();
+            task.future.completeExceptionally(throwable);
+        }
+        pump();
+    }
+
+    private synchronized void retry(Task<?> task) {
+        var queued = queuedByKey.get(task.key);
+        if (queued != null) { // a newer update of the key is queued, which replaces the retry.
+            pending--;
+            complete(queued, task);
+        } else {
+            enqueue(task);
+        }
+        pump();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void complete(Task<?> newer, Task<T> older) {
+        ((Task<T>) newer).future.whenComplete((result, throwable) -> {
+            if (throwable != null)
+                older.future.completeExceptionally(throwable);
+            else
+                older.future.complete(result);
+        });
+    }
+
+    /**
+     * Returns whether a failed update may succeed if it is sent again: server errors and errors of the connection are
+     * temporary, while the other errors returned by Discord, such as a guild that removed the application, are not.
+     */
+    private static boolean isTemporary(Throwable throwable) {
+        var cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+        if (cause instanceof ErrorResponseException e)
+            return e.isServerError();
+        return true;
+    }
+
+    /**
+     * The progress of the command updates since the start.
+     *
+     * @param queued  the number of updates waiting to be sent, including the ones waiting for a retry
+     * @param running the number of updates being sent
+     * @param done    the number of updates sent
+     * @param failed  the number of updates that failed for good
+     * @param retried the number of retries
+     */
+    public record Progress(int queued, int running, long done, long failed, long retried) {
+    }
+
+    private static final class Task<T> implements Comparable<Task<?>> {
+        private final Object key;
+        private final long scope;
+        private final long sequence;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private Supplier<RestAction<T>> request;
+        private int priority;
+        private int attempts;
+
+        private Task(Object key, long scope, int priority, long sequence, Supplier<RestAction<T>> request) {
+            this.key = key;
+            this.scope = scope;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.request = request;
+        }
+
+        @Override
+        public int compareTo(Task<?> other) {
+            if (priority != other.priority)
+                return Integer.compare(other.priority, priority);
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -19,15 +19,21 @@ package page.nafuchoco.neobot.core;
 import page.nafuchoco.neobot.api.IDatabaseType;
 
 public enum DatabaseType implements IDatabaseType {
-    MARIADB("org.mariadb.jdbc.Driver", "jdbc:mariadb://"),
-    MYSQL("com.mysql.cj.jdbc.Driver", "jdbc:mysql://");
+    MARIADB("org.mariadb.jdbc.Driver", "jdbc:mariadb://",
+            "useServerPrepStmts=true&cachePrepStmts=true&prepStmtCacheSize=250"),
+    MYSQL("com.mysql.cj.jdbc.Driver", "jdbc:mysql://",
+            "useServerPrepStmts=true&cachePrepStmts=true&prepStmtCacheSize=250&prepStmtCacheSqlLimit=4096&rewriteBatchedStatements=true"),
+    SQLITE("org.sqlite.JDBC", "jdbc:sqlite:",
+            "journal_mode=WAL&synchronous=NORMAL&busy_timeout=5000&cache_size=-16000&temp_store=MEMORY&mmap_size=268435456");
 
     private final String jdbcClass;
     private final String addressPrefix;
+    private final String connectionOptions;
 
-    DatabaseType(String jdbcClass, String addressPrefix) {
+    DatabaseType(String jdbcClass, String addressPrefix, String connectionOptions) {
         this.jdbcClass = jdbcClass;
         this.addressPrefix = addressPrefix;
+        this.connectionOptions = connectionOptions;
     }
 
     @Override
@@ -39,4 +45,28 @@ public enum DatabaseType implements IDatabaseType {
     public String getAddressPrefix() {
         return addressPrefix;
     }
+
+    /**
+     * Returns the driver options that are added to the connection URL.
+     * For MariaDB and MySQL they enable the server-side prepared statement cache of the driver,
+     * so that the statements of the data stores are parsed only once per connection.
+     * For SQLite they enable WAL journaling and set the pragmas of every connection.
+     *
+     * @return the driver options in URL query format
+     */
+    public String getConnectionOptions() {
+        return connectionOptions;
+    }
+
+    /**
+     * Appends the driver options to the database name used in the connection URL.
+     *
+     * @param database the database name
+     * @return the database name followed by the driver options
+     */
+    public String appendConnectionOptions(String database) {
+        if (connectionOptions.isEmpty())
+            return database;
+        return database + (database.contains("?") ? "&" : "?") + connectionOptions;
+    }
 }
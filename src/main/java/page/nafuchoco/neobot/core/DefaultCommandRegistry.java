@@ -25,16 +25,26 @@ import page.nafuchoco.neobot.api.command.CommandExecutor;
 import page.nafuchoco.neobot.api.command.CommandGroup;
 import page.nafuchoco.neobot.api.command.ICommandRegistry;
 import page.nafuchoco.neobot.api.module.NeoModule;
+import page.nafuchoco.neobot.core.util.LongObjectHashMap;
 
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 @Slf4j
 public class DefaultCommandRegistry extends CommandRegistrar implements ICommandRegistry {
     private final Launcher launcher;
-    private final Map<String, CommandGroup> groups = new LinkedHashMap<>();
+    // replaced as a whole under the lock of this registry, so that it can be read without the lock.
+    private volatile Map<String, CommandGroup> groups = Collections.emptyMap();
+    private final List<Registration> registrations = new ArrayList<>();
+    /**
+     * The routes of the commands keyed by command name, in the order of the groups.
+     * The index is rebuilt on every change of the registered commands and replaced as a whole,
+     * so that the lookups neither lock nor copy anything.
+     */
+    private volatile Map<String, CommandRoute[]> dispatchIndex = Map.of();
+    /**
+     * The modules of the registered executors, rebuilt and replaced together with the dispatch index.
+     */
+    private volatile Map<CommandExecutor, NeoModule> executorModules = Map.of();
 
     public DefaultCommandRegistry(Launcher launcher) {
         super(launcher);
@@ -42,29 +52,43 @@ public class DefaultCommandRegistry extends CommandRegistrar implements ICommand
     }
 
     @Override
-    public void registerCommand(@NotNull CommandExecutor executor, @Nullable NeoModule module, @Nullable String groupName, @Nullable Guild guild) {
+    public synchronized void registerCommand(@NotNull CommandExecutor executor, @Nullable NeoModule module, @Nullable String groupName, @Nullable Guild guild) {
         log.debug("Register command: {} ({})", executor.getName(), guild != null ? guild.getName() : "Global");
         for (CommandGroup g : groups.values()) {
             if (g.getCommands().contains(executor))
                 throw new IllegalArgumentException("Cannot register a command executor that has already been registered in another command group.");
         }
 
-        CommandGroup group = groups.computeIfAbsent(groupName, key -> new CommandGroup(groupName));
+        CommandGroup group = groups.get(groupName);
+        if (group == null) {
+            group = new CommandGroup(groupName);
+            var newGroups = new LinkedHashMap<>(groups);
+            newGroups.put(groupName, group);
+            groups = Collections.unmodifiableMap(newGroups);
+        }
         group.registerCommand(executor, module, guild);
+        registrations.add(new Registration(groupName, executor.getName(), executor, module, guild != null ? guild.getIdLong() : GLOBAL));
+        rebuildDispatchIndex();
 
         registerCommandToDiscord(executor, guild);
     }
 
     @Override
-    public void removeCommand(@NotNull String name, @Nullable NeoModule module, @Nullable Guild guild) {
+    public synchronized void removeCommand(@NotNull String name, @Nullable NeoModule module, @Nullable Guild guild) {
         for (CommandGroup g : groups.values())
             unregisterCommandFromDiscord(g.removeCommand(name, module, guild), guild);
+        long guildId = guild != null ? guild.getIdLong() : GLOBAL;
+        registrations.removeIf(r -> r.name().equals(name) && Objects.equals(r.module(), module) && r.guildId() == guildId);
+        rebuildDispatchIndex();
     }
 
     @Override
-    public void removeCommand(@NotNull CommandExecutor executor, @Nullable NeoModule module, @Nullable Guild guild) {
+    public synchronized void removeCommand(@NotNull CommandExecutor executor, @Nullable NeoModule module, @Nullable Guild guild) {
         for (CommandGroup g : groups.values())
             g.removeCommand(executor, module, guild);
+        long guildId = guild != null ? guild.getIdLong() : GLOBAL;
+        registrations.removeIf(r -> r.executor() == executor && Objects.equals(r.module(), module) && r.guildId() == guildId);
+        rebuildDispatchIndex();
         unregisterCommandFromDiscord(executor, guild);
     }
 
@@ -74,25 +98,32 @@ public class DefaultCommandRegistry extends CommandRegistrar implements ICommand
     }
 
     @Override
-    public void removeCommands(NeoModule module) {
+    public synchronized void removeCommands(NeoModule module) {
         for (CommandGroup g : groups.values())
             g.removeCommands(module).forEach((guild, executors) -> {
                 var guildObj = guild != null ? launcher.getDiscordApi().getGuildById(guild) : null;
                 executors.forEach(executor -> unregisterCommandFromDiscord(executor, guildObj));
             });
+        registrations.removeIf(r -> Objects.equals(r.module(), module));
+        rebuildDispatchIndex();
     }
 
     @Override
-    public void deleteCommandGroup(String groupName) {
-        CommandGroup group = groups.remove(groupName);
+    public synchronized void deleteCommandGroup(String groupName) {
+        CommandGroup group = removeGroup(groupName);
+        registrations.removeIf(r -> Objects.equals(r.groupName(), groupName));
+        rebuildDispatchIndex();
         if (group != null)
             group.getCommands().forEach(executor -> unregisterCommandFromDiscord(executor, null));
 
     }
 
     @Override
-    public void deleteCommandGroup(CommandGroup commandGroup) {
-        groups.remove(commandGroup.getGroupName()).getCommands().forEach(executor -> unregisterCommandFromDiscord(executor, null));
+    public synchronized void deleteCommandGroup(CommandGroup commandGroup) {
+        CommandGroup group = removeGroup(commandGroup.getGroupName());
+        registrations.removeIf(r -> Objects.equals(r.groupName(), commandGroup.getGroupName()));
+        rebuildDispatchIndex();
+        group.getCommands().forEach(executor -> unregisterCommandFromDiscord(executor, null));
     }
 
     @NotNull
@@ -128,8 +159,51 @@ public class DefaultCommandRegistry extends CommandRegistrar implements ICommand
         return groups.values().stream().flatMap(v -> v.getCommands(guild).stream()).distinct().toList();
     }
 
+    /**
+     * Returns the executor of the command from the dispatch index.
+     * A command registered for the guild takes precedence over a global command of the same group,
+     * and the groups are searched in the order they were created, skipping the disabled ones.
+     * This method is safe to call from any thread.
+     *
+     * @param guild the guild where the command was invoked, or null
+     * @param name  the name of the command
+     * @return the executor, or null if there is none
+     */
     @Override
     public @Nullable CommandExecutor getExecutor(@Nullable Guild guild, String name) {
+        if (guild != null)
+            markGuildActive(guild.getIdLong());
+        CommandRoute[] routes = dispatchIndex.get(name);
+        if (routes == null) // commands registered to a command group directly are not indexed.
+            return findExecutor(guild, name);
+
+        for (CommandRoute route : routes) {
+            if (!route.group.isEnabled())
+                continue;
+            CommandExecutor executor = guild != null ? route.guildExecutors.get(guild.getIdLong()) : null;
+            if (executor == null)
+                executor = route.globalExecutor;
+            if (executor != null)
+                return executor;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the module that registered the executor.
+     * This method is safe to call from any thread.
+     *
+     * @param executor the executor
+     * @return the module, or null if the executor was registered by the core or is not registered
+     */
+    public @Nullable NeoModule getModule(CommandExecutor executor) {
+        return executorModules.get(executor);
+    }
+
+    /**
+     * Asks every command group for the executor of the command.
+     */
+    private @Nullable CommandExecutor findExecutor(@Nullable Guild guild, String name) {
         CommandExecutor executor = null;
         List<CommandGroup> groupList = new ArrayList<>(groups.values());
         for (int i = 0; i < groupList.size(); i++) {
@@ -142,4 +216,58 @@ public class DefaultCommandRegistry extends CommandRegistrar implements ICommand
         }
         return executor;
     }
+
+    private CommandGroup removeGroup(String groupName) {
+        var newGroups = new LinkedHashMap<>(groups);
+        CommandGroup group = newGroups.remove(groupName);
+        groups = Collections.unmodifiableMap(newGroups);
+        return group;
+    }
+
+    /**
+     * Rebuilds the dispatch index from the registrations and publishes it.
+     * Must be called while holding the lock of this registry.
+     */
+    private void rebuildDispatchIndex() {
+        Map<String, Map<String, CommandRoute>> routes = new HashMap<>();
+        for (Map.Entry<String, CommandGroup> group : groups.entrySet()) {
+            for (Registration registration : registrations) {
+                if (!Objects.equals(registration.groupName(), group.getKey()))
+                    continue;
+                var route = routes.computeIfAbsent(registration.name(), key -> new LinkedHashMap<>())
+                        .computeIfAbsent(group.getKey(), key -> new CommandRoute(group.getValue()));
+                if (registration.guildId() == GLOBAL)
+                    route.globalExecutor = registration.executor();
+                else
+                    route.guildExecutors.put(registration.guildId(), registration.executor());
+            }
+        }
+
+        Map<String, CommandRoute[]> index = new HashMap<>();
+        routes.forEach((name, groupRoutes) -> index.put(name, groupRoutes.values().toArray(new CommandRoute[0])));
+        Map<CommandExecutor, NeoModule> modules = new IdentityHashMap<>();
+        for (Registration registration : registrations) {
+            if (registration.module() != null)
+                modules.put(registration.executor(), registration.module());
+        }
+        dispatchIndex = index;
+        executorModules = modules;
+    }
+
+    private record Registration(@Nullable String groupName, String name, CommandExecutor executor, @Nullable NeoModule module,
+                                long guildId) {
+    }
+
+    /**
+     * The executors of a command name in a command group. It is not modified once the index has been published.
+     */
+    private static final class CommandRoute {
+        private final CommandGroup group;
+        private final LongObjectHashMap<CommandExecutor> guildExecutors = new LongObjectHashMap<>(4);
+        private CommandExecutor globalExecutor;
+
+        private CommandRoute(CommandGroup group) {
+            this.group = group;
+        }
+    }
 }
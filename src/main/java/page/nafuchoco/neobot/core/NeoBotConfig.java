@@ -19,12 +19,20 @@ package page.nafuchoco.neobot.core;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Getter;
 import lombok.ToString;
+import page.nafuchoco.neobot.core.datastore.invalidation.InvalidationType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 @Getter
 @ToString
 public class NeoBotConfig {
     @JsonProperty("basic")
     private BasicConfigSection basicConfig;
+    @JsonProperty("advanced")
+    private AdvancedConfigSection advancedConfig = new AdvancedConfigSection();
 
     @Getter
     @ToString
@@ -35,7 +43,6 @@ public class NeoBotConfig {
         private DatabaseSection database;
     }
 
-
     @Getter
     @ToString
     public static class DatabaseSection {
@@ -51,5 +58,201 @@ public class NeoBotConfig {
         private String username;
         @JsonProperty("password")
         private String password;
+        @JsonProperty("replicas")
+        private List<ReplicaSection> replicas = new ArrayList<>();
+    }
+
+    @Getter
+    @ToString
+    public static class ReplicaSection {
+        @JsonProperty("address")
+        private String address;
+        @JsonProperty("database")
+        private String database;
+        @JsonProperty("username")
+        private String username;
+        @JsonProperty("password")
+        private String password;
+    }
+
+    @Getter
+    @ToString
+    public static class AdvancedConfigSection {
+        @JsonProperty("modules")
+        private ModuleSection modules = new ModuleSection();
+        @JsonProperty("commands")
+        private CommandSection commands = new CommandSection();
+        @JsonProperty("execution")
+        private ExecutionSection execution = new ExecutionSection();
+        @JsonProperty("datastore")
+        private DataStoreSection dataStore = new DataStoreSection();
+    }
+
+    @Getter
+    @ToString
+    public static class CommandSection {
+        @JsonProperty("syncStateFile")
+        private String syncStateFile = "command_sync.json";
+        @JsonProperty("debounce")
+        private long debounce = 1000;
+        @JsonProperty("maxDebounce")
+        private long maxDebounce = 10000;
+        @JsonProperty("updateInterval")
+        private long updateInterval = 250;
+        @JsonProperty("maxConcurrentUpdates")
+        private int maxConcurrentUpdates = 2;
+        @JsonProperty("maxRetries")
+        private int maxRetries = 5;
+        @JsonProperty("retryBackoff")
+        private long retryBackoff = 1000;
+    }
+
+    @Getter
+    @ToString
+    public static class ExecutionSection {
+        @JsonProperty("threads")
+        private int threads = 16;
+        @JsonProperty("maxConcurrentPerGuild")
+        private int maxConcurrentPerGuild = 4;
+        @JsonProperty("maxQueued")
+        private int maxQueued = 1000;
+        @JsonProperty("deferAfter")
+        private long deferAfter = 2000;
+        @JsonProperty("deferCommands")
+        private List<String> deferCommands = new ArrayList<>();
+        @JsonProperty("timeout")
+        private long timeout = 60000;
+        @JsonProperty("commandTimeouts")
+        private Map<String, Long> commandTimeouts = new HashMap<>();
+        @JsonProperty("slowThreshold")
+        private long slowThreshold = 3000;
+    }
+
+    @Getter
+    @ToString
+    public static class ModuleSection {
+        @JsonProperty("parallelEnable")
+        private boolean parallelEnable = false;
+        @JsonProperty("parallelism")
+        private int parallelism = 0;
+    }
+
+    @Getter
+    @ToString
+    public static class DataStoreSection {
+        @JsonProperty("cache")
+        private CacheSection cache = new CacheSection();
+        @JsonProperty("writeBehind")
+        private WriteBehindSection writeBehind = new WriteBehindSection();
+        @JsonProperty("async")
+        private AsyncSection async = new AsyncSection();
+        @JsonProperty("schemaParallelism")
+        private int schemaParallelism = 4;
+        @JsonProperty("memory")
+        private MemorySection memory = new MemorySection();
+        @JsonProperty("transfer")
+        private TransferSection transfer = new TransferSection();
+        @JsonProperty("invalidation")
+        private InvalidationSection invalidation = new InvalidationSection();
+        @JsonProperty("replication")
+        private ReplicationSection replication = new ReplicationSection();
+        @JsonProperty("expiry")
+        private ExpirySection expiry = new ExpirySection();
+    }
+
+    @Getter
+    @ToString
+    public static class CacheSection {
+        @JsonProperty("enabled")
+        private boolean enabled = false;
+        @JsonProperty("maximumSize")
+        private int maximumSize = 10000;
+        @JsonProperty("expireAfterWrite")
+        private long expireAfterWrite = 300;
+    }
+
+    @Getter
+    @ToString
+    public static class WriteBehindSection {
+        @JsonProperty("enabled")
+        private boolean enabled = false;
+        @JsonProperty("batchSize")
+        private int batchSize = 500;
+        @JsonProperty("maxPending")
+        private int maxPending = 10000;
+        @JsonProperty("maxPendingWait")
+        private long maxPendingWait = 10000;
+        @JsonProperty("maxRetries")
+        private int maxRetries = 3;
+        @JsonProperty("flushInterval")
+        private long flushInterval = 1000;
+    }
+
+    @Getter
+    @ToString
+    public static class AsyncSection {
+        @JsonProperty("concurrency")
+        private int concurrency = 10;
+        @JsonProperty("timeout")
+        private long timeout = 10000;
+    }
+
+    @Getter
+    @ToString
+    public static class MemorySection {
+        @JsonProperty("directory")
+        private String directory = "datastore";
+        @JsonProperty("stores")
+        private List<String> stores = new ArrayList<>();
+        @JsonProperty("flushInterval")
+        private long flushInterval = 1000;
+        @JsonProperty("compactThreshold")
+        private long compactThreshold = 16777216;
+    }
+
+    @Getter
+    @ToString
+    public static class TransferSection {
+        @JsonProperty("fetchSize")
+        private int fetchSize = 1000;
+        @JsonProperty("batchSize")
+        private int batchSize = 1000;
+    }
+
+    @Getter
+    @ToString
+    public static class InvalidationSection {
+        @JsonProperty("type")
+        private InvalidationType type = InvalidationType.NONE;
+        @JsonProperty("pollInterval")
+        private long pollInterval = 1000;
+        @JsonProperty("batchSize")
+        private int batchSize = 1000;
+        @JsonProperty("retention")
+        private long retention = 600;
+    }
+
+    @Getter
+    @ToString
+    public static class ReplicationSection {
+        @JsonProperty("healthCheckInterval")
+        private long healthCheckInterval = 5000;
+        @JsonProperty("maxLag")
+        private long maxLag = 3;
+        @JsonProperty("readYourWritesWindow")
+        private long readYourWritesWindow = 5000;
+    }
+
+    @Getter
+    @ToString
+    public static class ExpirySection {
+        @JsonProperty("sweepInterval")
+        private long sweepInterval = 60000;
+        @JsonProperty("batchSize")
+        private int batchSize = 500;
+        @JsonProperty("batchDelay")
+        private long batchDelay = 100;
+        @JsonProperty("maxBatches")
+        private int maxBatches = 100;
     }
 }
@@ -29,8 +29,11 @@ import page.nafuchoco.neobot.api.Launcher;
 import page.nafuchoco.neobot.api.NeoBot;
 import page.nafuchoco.neobot.api.command.SlashCommandEventHandler;
 import page.nafuchoco.neobot.api.datastore.DataStoreManager;
+import page.nafuchoco.neobot.api.datastore.exception.DataStoreGenerateException;
 import page.nafuchoco.neobot.api.module.ModuleManager;
 import page.nafuchoco.neobot.core.console.ConsoleCommandRegistry;
+import page.nafuchoco.neobot.core.console.executor.CommandStatsCommand;
+import page.nafuchoco.neobot.core.console.executor.DataStoreCommand;
 import page.nafuchoco.neobot.core.console.executor.StopCommand;
 import page.nafuchoco.neobot.core.console.executor.ThreadListCommand;
 import page.nafuchoco.neobot.core.datastore.DefaultDataStoreManager;
@@ -41,14 +44,21 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 public final class NeoBotLauncher implements Launcher {
     private final String version;
     private final NeoBotConfig configration;
     private final DatabaseConnector databaseConnector;
-    private final DataStoreManager dataStoreManager;
+    private final DefaultDataStoreManager dataStoreManager;
     private final ShardManager discordApi;
+    private final CommandExecutionEngine commandExecutionEngine;
     private final DefaultCommandRegistry commandRegistry = new DefaultCommandRegistry(this);
     private final ConsoleCommandRegistry consoleCommandRegistry = new ConsoleCommandRegistry();
     private final ModuleManager moduleManager = new ModuleManager(this, "modules");
@@ -78,17 +88,34 @@ public final class NeoBotLauncher implements Launcher {
         }
 
         configration = ConfigLoader.loadConfig(configurationFile, NeoBotConfig.class);
+        var commandConfig = configration.getAdvancedConfig().getCommands();
+        if (commandConfig.getSyncStateFile() != null && !commandConfig.getSyncStateFile().isEmpty())
+            commandRegistry.loadSyncState(Path.of(commandConfig.getSyncStateFile()));
+        commandRegistry.setDebounce(commandConfig.getDebounce(), commandConfig.getMaxDebounce());
+        commandRegistry.setUpdatePace(commandConfig.getUpdateInterval(), commandConfig.getMaxConcurrentUpdates(),
+                commandConfig.getMaxRetries(), commandConfig.getRetryBackoff());
 
         // start connection to database
         log.info("Start a connection to the database.");
-        databaseConnector = new DatabaseConnector(configration.getBasicConfig().getDatabase().getDatabaseType(),
+        var databaseType = configration.getBasicConfig().getDatabase().getDatabaseType();
+        if (databaseType == DatabaseType.SQLITE) {
+            try { // the address of SQLite is the directory that contains the database file.
+                Files.createDirectories(Path.of(configration.getBasicConfig().getDatabase().getAddress()));
+            } catch (IOException e) {
+                log.error("Failed to create the directory of the database.", e);
+                Runtime.getRuntime().exit(1);
+            }
+        }
+        databaseConnector = new DatabaseConnector(databaseType,
                 configration.getBasicConfig().getDatabase().getAddress(),
-                configration.getBasicConfig().getDatabase().getDatabase(),
+                databaseType.appendConnectionOptions(configration.getBasicConfig().getDatabase().getDatabase()),
                 configration.getBasicConfig().getDatabase().getUsername(),
                 configration.getBasicConfig().getDatabase().getPassword());
         databaseConnector.setPrefix(configration.getBasicConfig().getDatabase().getTablePrefix());
 
-        dataStoreManager = new DefaultDataStoreManager(databaseConnector);
+        dataStoreManager = new DefaultDataStoreManager(databaseConnector, connectReplicas(configration.getBasicConfig().getDatabase()),
+                databaseType, configration.getAdvancedConfig().getDataStore());
+        getConsoleCommandRegistry().registerCommand(new DataStoreCommand(dataStoreManager, "datastore"), null);
 
         moduleManager.loadAllModules();
 
@@ -96,7 +123,10 @@ public final class NeoBotLauncher implements Launcher {
         var shardManagerBuilder =
                 DefaultShardManagerBuilder.create(configration.getBasicConfig().getDiscordToken(), moduleManager.getAdditionalIntents());
         log.debug("Additional intents: {}", moduleManager.getAdditionalIntents());
-        shardManagerBuilder.addEventListeners(new SlashCommandEventHandler(this, commandRegistry));
+        commandExecutionEngine = new CommandExecutionEngine(new SlashCommandEventHandler(this, commandRegistry), commandRegistry,
+                configration.getAdvancedConfig().getExecution());
+        shardManagerBuilder.addEventListeners(commandExecutionEngine);
+        getConsoleCommandRegistry().registerCommand(new CommandStatsCommand(commandExecutionEngine, "commands"), null);
         ShardManager shardManager = null;
 
         try {
@@ -122,7 +152,13 @@ public final class NeoBotLauncher implements Launcher {
         getCommandRegistry().registerCommand(new ModuleCommand("module"), null);
 
         // enable all modules
-        moduleManager.enableAllModules();
+        enableModules(configration.getAdvancedConfig().getModules());
+        try {
+            dataStoreManager.awaitSchemaReconciliation();
+        } catch (DataStoreGenerateException e) {
+            log.error("Failed to create or alter the tables of the data stores.", e);
+            Runtime.getRuntime().exit(1);
+        }
         commandRegistry.queue();
 
         // All done!
@@ -131,14 +167,81 @@ public final class NeoBotLauncher implements Launcher {
         // register shutdown hook
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             log.info("Shutting down the system...");
+            try {
+                commandExecutionEngine.shutdown(5000);
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while waiting for the running commands to finish.", e);
+            }
             moduleManager.disableAllModules();
             discordApi.shutdown();
+            if (dataStoreManager != null)
+                dataStoreManager.close();
             if (databaseConnector != null)
                 databaseConnector.close();
             log.info("See you again!");
         }));
     }
 
+    /**
+     * Enables the loaded modules. If it is enabled in the configuration, the modules are enabled at the same time
+     * and the registries they register their commands and data stores to are shared between the threads.
+     */
+    private void enableModules(NeoBotConfig.ModuleSection config) {
+        if (!config.isParallelEnable()) {
+            moduleManager.enableAllModules();
+            return;
+        }
+
+        int parallelism = config.getParallelism() > 0 ? config.getParallelism() : Runtime.getRuntime().availableProcessors();
+        var threadNumber = new AtomicInteger();
+        var executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            var thread = new Thread(runnable, "Module-Enable-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            long start = System.currentTimeMillis();
+            var modules = moduleManager.getModules();
+            CompletableFuture.allOf(modules.stream().map(module -> CompletableFuture.runAsync(() -> {
+                var name = module.getDescription().getName();
+                try {
+                    if (!moduleManager.enableModule(name))
+                        log.warn("Failed to enable the module {}.", name);
+                } catch (RuntimeException e) {
+                    log.error("An error occurred while enabling the module {}.", name, e);
+                }
+            }, executor)).toArray(CompletableFuture[]::new)).join();
+            log.info("Enabled {} modules in {}ms with {} threads.", modules.size(), System.currentTimeMillis() - start, parallelism);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Creates the connectors of the read replicas. Missing settings of a replica are taken from the primary.
+     */
+    private Map<String, DatabaseConnector> connectReplicas(NeoBotConfig.DatabaseSection database) {
+        Map<String, DatabaseConnector> replicas = new LinkedHashMap<>();
+        if (database.getReplicas().isEmpty())
+            return replicas;
+        if (database.getDatabaseType() == DatabaseType.SQLITE) {
+            log.warn("SQLite databases cannot have read replicas. The replicas are ignored.");
+            return replicas;
+        }
+
+        for (NeoBotConfig.ReplicaSection replica : database.getReplicas()) {
+            var connector = new DatabaseConnector(database.getDatabaseType(),
+                    replica.getAddress(),
+                    database.getDatabaseType().appendConnectionOptions(replica.getDatabase() != null ? replica.getDatabase() : database.getDatabase()),
+                    replica.getUsername() != null ? replica.getUsername() : database.getUsername(),
+                    replica.getPassword() != null ? replica.getPassword() : database.getPassword());
+            connector.setPrefix(database.getTablePrefix());
+            replicas.put(replica.getAddress(), connector);
+        }
+        log.info("{} read replicas are configured. Reads are routed to each of them once it passes its health check.", replicas.size());
+        return replicas;
+    }
+
     @Override
     public String getVersion() {
         return version;
@@ -192,7 +295,11 @@ public final class NeoBotLauncher implements Launcher {
 
     @Override
     public void queueCommandRegister() {
-        // do nothing
+        commandRegistry.flushCommandUpdates();
+    }
+
+    public CommandExecutionEngine getCommandExecutionEngine() {
+        return commandExecutionEngine;
     }
 
     public ConsoleCommandRegistry getConsoleCommandRegistry() {
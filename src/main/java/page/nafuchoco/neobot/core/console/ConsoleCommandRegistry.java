@@ -4,36 +4,41 @@ import page.nafuchoco.neobot.api.command.CommandExecutor;
 import page.nafuchoco.neobot.api.module.NeoModule;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 public class ConsoleCommandRegistry {
-    private final Map<NeoModule, Map<String, ConsoleCommandExecutor>> executors;
+    // replaced as a whole under the lock of this registry, so that it can be read without the lock.
+    private volatile Map<NeoModule, Map<String, ConsoleCommandExecutor>> executors;
 
     public ConsoleCommandRegistry() {
-        executors = new LinkedHashMap<>();
+        executors = Collections.emptyMap();
     }
 
-    public void registerCommand(ConsoleCommandExecutor executor, NeoModule module) {
-        executors.computeIfAbsent(module, key -> new LinkedHashMap<>()).put(executor.getName(), executor);
+    public synchronized void registerCommand(ConsoleCommandExecutor executor, NeoModule module) {
+        var moduleExecutors = new LinkedHashMap<>(executors.getOrDefault(module, Map.of()));
+        moduleExecutors.put(executor.getName(), executor);
+        publish(module, moduleExecutors);
     }
 
-    public void removeCommand(String name, NeoModule module) {
+    public synchronized void removeCommand(String name, NeoModule module) {
         if (executors.containsKey(module)) {
-            ConsoleCommandExecutor executor = executors.get(module).get(name);
-            executors.get(module).remove(executor.getName());
+            var moduleExecutors = new LinkedHashMap<>(executors.get(module));
+            moduleExecutors.remove(name);
+            publish(module, moduleExecutors);
         }
     }
 
-    public void removeCommand(CommandExecutor executor, NeoModule module) {
-        if (executors.containsKey(module)) {
-            executors.get(module).remove(executor.getName());
-        }
+    public synchronized void removeCommand(CommandExecutor executor, NeoModule module) {
+        removeCommand(executor.getName(), module);
     }
 
-    public void removeCommands(NeoModule module) {
-        executors.remove(module);
+    public synchronized void removeCommands(NeoModule module) {
+        var newExecutors = new LinkedHashMap<>(executors);
+        newExecutors.remove(module);
+        executors = Collections.unmodifiableMap(newExecutors);
     }
 
     public List<ConsoleCommandExecutor> getCommands() {
@@ -41,18 +46,25 @@ public class ConsoleCommandRegistry {
     }
 
     public ConsoleCommandExecutor getExecutor(String name) {
+        var snapshot = executors;
         ConsoleCommandExecutor executor = null;
-        List<NeoModule> modules = new ArrayList<>(executors.keySet());
+        List<NeoModule> modules = new ArrayList<>(snapshot.keySet());
         for (int i = modules.size() - 1; i >= 0; i--) {
             if (executor != null)
                 break;
             NeoModule module = modules.get(i);
             if (module != null && !module.isEnable())
                 continue;
-            Map<String, ConsoleCommandExecutor> reg = executors.get(module);
+            Map<String, ConsoleCommandExecutor> reg = snapshot.get(module);
             if (reg != null)
                 executor = reg.get(name);
         }
         return executor;
     }
+
+    private void publish(NeoModule module, Map<String, ConsoleCommandExecutor> moduleExecutors) {
+        var newExecutors = new LinkedHashMap<>(executors);
+        newExecutors.put(module, Collections.unmodifiableMap(moduleExecutors));
+        executors = Collections.unmodifiableMap(newExecutors);
+    }
 }
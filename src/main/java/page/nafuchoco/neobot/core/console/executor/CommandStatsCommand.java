@@ -0,0 +1,86 @@
+package page.nafuchoco.neobot.core.console.executor;
+
+import de.vandermeer.asciitable.AsciiTable;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import page.nafuchoco.neobot.core.CommandExecutionEngine;
+import page.nafuchoco.neobot.core.console.ConsoleCommandContext;
+import page.nafuchoco.neobot.core.console.ConsoleCommandExecutor;
+import page.nafuchoco.neobot.core.metrics.CommandMetrics;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static page.nafuchoco.neobot.core.metrics.LatencyHistogram.Snapshot.format;
+
+@Slf4j
+public class CommandStatsCommand extends ConsoleCommandExecutor {
+    private final CommandExecutionEngine executionEngine;
+
+    public CommandStatsCommand(CommandExecutionEngine executionEngine, String name, String... aliases) {
+        super(name, aliases);
+        this.executionEngine = executionEngine;
+    }
+
+    @Override
+    public void onInvoke(@NotNull ConsoleCommandContext context) {
+        String[] args = context.args();
+        switch (args.length == 0 ? "stats" : args[0].toLowerCase(Locale.ROOT)) {
+            case "stats" -> sendMetrics("Command", executionEngine.getCommandMetrics());
+            case "modules" -> sendMetrics("Module", executionEngine.getModuleMetrics());
+            case "slow" -> sendSlowCommands();
+            default -> sendUsage();
+        }
+    }
+
+    private void sendMetrics(String label, Map<String, CommandMetrics> metricsMap) {
+        var stats = executionEngine.getStats();
+        log.info("Commands: {} running, {} queued (peak {}), {} done, {} failed, {} rejected, {} deferred, {} timed out",
+                stats.running(), stats.queued(), stats.peakQueued(), stats.completed(), stats.failed(), stats.rejected(), stats.deferred(), stats.timedOut());
+        if (metricsMap.isEmpty()) {
+            log.info("No commands have been invoked yet.");
+            return;
+        }
+
+        var table = new AsciiTable();
+        table.addRule();
+        table.addRow(label, "Count", "Errors", "Deferred", "Wait p50", "Wait p99", "Run p50", "Run p99", "Run max",
+                "Reply p50", "Reply p99");
+        table.addRule();
+        new TreeMap<>(metricsMap).forEach((name, metrics) -> {
+            var queueWait = metrics.getQueueWait().snapshot();
+            var execution = metrics.getExecution().snapshot();
+            var firstResponse = metrics.getFirstResponse().snapshot();
+            table.addRow(name, metrics.getInvocationCount(), metrics.getErrorCount(), metrics.getDeferredCount(),
+                    format(queueWait.getPercentile(50)), format(queueWait.getPercentile(99)),
+                    format(execution.getPercentile(50)), format(execution.getPercentile(99)), format(execution.getMax()),
+                    format(firstResponse.getPercentile(50)), format(firstResponse.getPercentile(99)));
+        });
+        table.addRule();
+        log.info("Command invocations:\n{}", table.render());
+    }
+
+    private void sendSlowCommands() {
+        var slowCommands = executionEngine.getSlowCommands();
+        if (slowCommands.isEmpty()) {
+            log.info("No slow commands have been recorded.");
+            return;
+        }
+
+        var table = new AsciiTable();
+        table.addRule();
+        table.addRow("Time", "Command", "Guild", "Wait", "Run");
+        table.addRule();
+        for (var slowCommand : slowCommands)
+            table.addRow(slowCommand.time(), slowCommand.command(),
+                    slowCommand.guildName() != null ? slowCommand.guildName() + " (" + slowCommand.guildId() + ")" : "direct message",
+                    format(slowCommand.queueWait()), format(slowCommand.execution()));
+        table.addRule();
+        log.info("Recent slow commands:\n{}", table.render());
+    }
+
+    private void sendUsage() {
+        log.info("Usage: {} [stats | modules | slow]", getName());
+    }
+}
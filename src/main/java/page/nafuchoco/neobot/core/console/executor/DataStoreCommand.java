@@ -0,0 +1,116 @@
+package page.nafuchoco.neobot.core.console.executor;
+
+import de.vandermeer.asciitable.AsciiTable;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import page.nafuchoco.neobot.core.console.ConsoleCommandContext;
+import page.nafuchoco.neobot.core.console.ConsoleCommandExecutor;
+import page.nafuchoco.neobot.core.datastore.DataStoreMetrics;
+import page.nafuchoco.neobot.core.datastore.DefaultDataStoreManager;
+import page.nafuchoco.neobot.core.datastore.transfer.TransferFormat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+import static page.nafuchoco.neobot.core.metrics.LatencyHistogram.Snapshot.format;
+
+@Slf4j
+public class DataStoreCommand extends ConsoleCommandExecutor {
+    private final DefaultDataStoreManager dataStoreManager;
+
+    public DataStoreCommand(DefaultDataStoreManager dataStoreManager, String name, String... aliases) {
+        super(name, aliases);
+        this.dataStoreManager = dataStoreManager;
+    }
+
+    @Override
+    public void onInvoke(@NotNull ConsoleCommandContext context) {
+        String[] args = context.args();
+        if (args.length == 0) {
+            sendUsage();
+            return;
+        }
+
+        switch (args[0].toLowerCase(Locale.ROOT)) {
+            case "list" -> log.info("Registered data stores: {}", dataStoreManager.getDataStoreNames());
+            case "stats" -> sendStats();
+            case "replicas" -> sendReplicas();
+            case "export", "import" -> {
+                if (args.length < 3) {
+                    sendUsage();
+                    return;
+                }
+
+                var file = Path.of(args[2]);
+                TransferFormat format;
+                try {
+                    format = args.length >= 4 ? TransferFormat.valueOf(args[3].toUpperCase(Locale.ROOT)) : TransferFormat.fromFileName(args[2]);
+                } catch (IllegalArgumentException e) {
+                    log.warn("Unknown format: {}", args[3]);
+                    return;
+                }
+
+                try {
+                    if (args[0].equalsIgnoreCase("export"))
+                        dataStoreManager.exportDataStore(args[1], file, format);
+                    else
+                        dataStoreManager.importDataStore(args[1], file, format);
+                } catch (IOException | RuntimeException e) {
+                    log.error("Failed to {} the data store {}.", args[0].toLowerCase(Locale.ROOT), args[1], e);
+                }
+            }
+            default -> sendUsage();
+        }
+    }
+
+    private void sendStats() {
+        var metricsMap = dataStoreManager.getMetrics();
+        if (metricsMap.isEmpty()) {
+            log.info("No data stores backed by the database are registered.");
+            return;
+        }
+
+        var table = new AsciiTable();
+        table.addRule();
+        table.addRow("Data store", "Operation", "Count", "Errors", "Mean", "p50", "p99", "Max");
+        table.addRule();
+        metricsMap.forEach((name, metrics) -> {
+            for (DataStoreMetrics.Operation operation : DataStoreMetrics.Operation.values()) {
+                if (metrics.getCount(operation) == 0)
+                    continue;
+                var latency = metrics.getLatency(operation).snapshot();
+                table.addRow(name, operation.name().toLowerCase(Locale.ROOT), metrics.getCount(operation), metrics.getErrorCount(operation),
+                        format(latency.getMean()), format(latency.getPercentile(50)), format(latency.getPercentile(99)), format(latency.getMax()));
+            }
+            var acquire = metrics.getConnectionAcquire().snapshot();
+            if (acquire.getCount() > 0)
+                table.addRow(name, "acquire", acquire.getCount(), "",
+                        format(acquire.getMean()), format(acquire.getPercentile(50)), format(acquire.getPercentile(99)), format(acquire.getMax()));
+        });
+        table.addRule();
+        log.info("Data store operations:\n{}", table.render());
+    }
+
+    private void sendReplicas() {
+        var router = dataStoreManager.getReplicaRouter();
+        if (router == null) {
+            log.info("No read replicas are configured.");
+            return;
+        }
+
+        var table = new AsciiTable();
+        table.addRule();
+        table.addRow("Replica", "Healthy", "Lag", "Reads");
+        table.addRule();
+        for (var status : router.getStatus())
+            table.addRow(status.name(), status.healthy(), status.lag() < 0 ? "unknown" : status.lag() + "s", status.reads());
+        table.addRow("primary", "", "", router.getPrimaryReads());
+        table.addRule();
+        log.info("Read replicas:\n{}", table.render());
+    }
+
+    private void sendUsage() {
+        log.info("Usage: {} list | stats | replicas | export <store> <file> [ndjson|columnar] | import <store> <file> [ndjson|columnar]", getName());
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore;
+
+import page.nafuchoco.neobot.api.datastore.DataStore;
+
+import java.io.IOException;
+
+/**
+ * A {@link DataStore} whose rows can be read and written in bulk, used to export and import data stores.
+ */
+public interface BulkDataStore extends DataStore {
+
+    /**
+     * @return the names of the columns except the id, in order
+     */
+    String[] getColumnNames();
+
+    /**
+     * @return the types of the columns except the id, in order
+     */
+    Class[] getColumnTypes();
+
+    /**
+     * Reads all rows of the data store in no particular order, without holding more than a fetch of them in memory.
+     * Writes that have not been written yet are written before the rows are read.
+     *
+     * @param fetchSize the number of rows to read at a time
+     * @param consumer  receives the rows. The array of values is reused for the next row.
+     * @throws IOException if the consumer fails
+     */
+    void scanRows(int fetchSize, RowConsumer consumer) throws IOException;
+
+    /**
+     * Registers many rows at once. Existing rows with the same ids are overwritten.
+     *
+     * @param ids   the guild ids of the rows
+     * @param rows  the values of the rows in column order
+     * @param count the number of rows to register from the start of the arrays
+     */
+    void registerStoreRows(long[] ids, Object[][] rows, int count);
+
+    @FunctionalInterface
+    interface RowConsumer {
+        void accept(long id, Object[] values) throws IOException;
+    }
+}
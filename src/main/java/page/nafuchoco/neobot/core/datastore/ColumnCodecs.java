@@ -0,0 +1,81 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore;
+
+import page.nafuchoco.neobot.core.datastore.codec.DataStoreCodec;
+
+import java.util.Map;
+
+/**
+ * The codecs of the columns of a data store.
+ * <p>
+ * Values are encoded when they enter the data store and decoded when they leave it,
+ * so the cache, the write-behind queue and the database all hold the encoded bytes.
+ * Binary values of columns without a codec are copied on the way in and out instead.
+ * This keeps a cached value from being changed through an object passed in or returned to a module.
+ */
+class ColumnCodecs {
+    private final DataStoreCodec[] codecs;
+
+    /**
+     * @param columnNames the names of the columns in order
+     * @param codecs      the codecs keyed by column name
+     */
+    ColumnCodecs(String[] columnNames, Map<String, DataStoreCodec> codecs) {
+        this.codecs = new DataStoreCodec[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++)
+            this.codecs[i] = codecs.get(columnNames[i]);
+    }
+
+    Object encode(int column, Object value) {
+        DataStoreCodec codec = codecs[column];
+        if (codec == null)
+            return value instanceof byte[] bytes ? bytes.clone() : value;
+        if (value == null)
+            return null;
+        if (!codec.getType().isInstance(value))
+            throw new IllegalArgumentException("The value " + value + " is not an instance of " + codec.getType().getSimpleName() + ".");
+        return codec.encode(value);
+    }
+
+    Object decode(int column, Object value) {
+        DataStoreCodec codec = codecs[column];
+        if (codec == null)
+            return value instanceof byte[] bytes ? bytes.clone() : value;
+        if (value == null)
+            return null;
+        return codec.decode((byte[]) value);
+    }
+
+    /**
+     * @return a copy of the values with the values of codec columns encoded and the binary values copied
+     */
+    Object[] encodeRow(Object[] values) {
+        Object[] encoded = values.clone();
+        for (int i = 0; i < codecs.length && i < encoded.length; i++)
+            encoded[i] = encode(i, encoded[i]);
+        return encoded;
+    }
+
+    /**
+     * Decodes the values of codec columns and copies the binary values in place.
+     */
+    void decodeRow(Object[] values) {
+        for (int i = 0; i < codecs.length; i++)
+            values[i] = decode(i, values[i]);
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size- and time-bounded read-through cache for the rows of a single {@link DataStoreImpl}.
+ * <p>
+ * Rows are keyed by guild id and hold one slot per column, so that a write to one column
+ * or the deletion of a whole row can be reflected without touching the other entries.
+ */
+public class DataStoreCache {
+    /**
+     * Returned by {@link #lookup(long, int)} when the value is not cached.
+     */
+    public static final Object MISS = new Object();
+
+    private final int columnCount;
+    private final int maximumSize;
+    private final long expireAfterWriteNanos;
+    private final Map<Long, CachedRow> rows;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    // Incremented on every write so that a read or a write started before it does not put a stale value.
+    private long writeSequence = 0;
+
+    /**
+     * @param columnCount      the number of columns of the data store
+     * @param maximumSize      the maximum number of rows to keep
+     * @param expireAfterWrite the time in seconds after which a cached value is discarded
+     */
+    public DataStoreCache(int columnCount, int maximumSize, long expireAfterWrite) {
+        if (maximumSize <= 0)
+            throw new IllegalArgumentException("maximumSize must be greater than 0.");
+
+        this.columnCount = columnCount;
+        this.maximumSize = maximumSize;
+        this.expireAfterWriteNanos = TimeUnit.SECONDS.toNanos(expireAfterWrite);
+        rows = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CachedRow> eldest) {
+                if (size() > DataStoreCache.this.maximumSize) {
+                    evictionCount.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value of the column, or {@link #MISS} if it is not cached or has expired.
+     *
+     * @param id     the guild id of the row
+     * @param column the position of the column
+     * @return the cached value or {@link #MISS}
+     */
+    public synchronized Object lookup(long id, int column) {
+        CachedRow row = rows.get(id);
+        if (row != null && row.expiresAt != Long.MAX_VALUE && row.expiresAt <= System.currentTimeMillis()) {
+            rows.remove(id);
+            row = null;
+        }
+        if (row != null && row.values[column] != MISS) {
+            if (System.nanoTime() - row.writtenAt[column] < expireAfterWriteNanos) {
+                hitCount.increment();
+                return row.values[column];
+            }
+            row.values[column] = MISS;
+        }
+        missCount.increment();
+        return MISS;
+    }
+
+    /**
+     * Returns the current write sequence.
+     * Pass this value to {@link #fill(long, int, Object, long)} after reading from the database,
+     * or to {@link #update(long, int, Object, long)} after writing to it.
+     *
+     * @return the current write sequence
+     */
+    public synchronized long getWriteSequence() {
+        return writeSequence;
+    }
+
+    /**
+     * Stores a value read from the database.
+     * The value is discarded if the data store has been written to since the read started.
+     *
+     * @param id       the guild id of the row
+     * @param column   the position of the column
+     * @param value    the value read from the database
+     * @param sequence the write sequence obtained before the read started
+     */
+    public synchronized void fill(long id, int column, Object value, long sequence) {
+        fill(id, column, value, sequence, Long.MAX_VALUE);
+    }
+
+    /**
+     * Stores a value read from the database together with the time at which its row expires.
+     * The value is discarded if the data store has been written to since the read started.
+     *
+     * @param id        the guild id of the row
+     * @param column    the position of the column
+     * @param value     the value read from the database
+     * @param sequence  the write sequence obtained before the read started
+     * @param expiresAt the time in epoch milliseconds at which the row expires, or {@link Long#MAX_VALUE} if it never expires
+     */
+    public synchronized void fill(long id, int column, Object value, long sequence, long expiresAt) {
+        if (sequence != writeSequence)
+            return;
+        setValue(id, column, value).expiresAt = expiresAt;
+    }
+
+    /**
+     * Reflects a write of a single column.
+     * If the data store has been written to since the write started, the row is discarded instead,
+     * because the writes may have reached the database in another order than the cache.
+     *
+     * @param id       the guild id of the row
+     * @param column   the position of the column
+     * @param value    the written value
+     * @param sequence the write sequence obtained before the write started
+     */
+    public synchronized void update(long id, int column, Object value, long sequence) {
+        if (sequence != writeSequence) {
+            invalidate(id);
+            return;
+        }
+        writeSequence++;
+        setValue(id, column, value);
+    }
+
+    /**
+     * Reflects a write of a whole row.
+     * If the data store has been written to since the write started, the row is discarded instead,
+     * because the writes may have reached the database in another order than the cache.
+     *
+     * @param id        the guild id of the row
+     * @param values    the written values in column order
+     * @param expiresAt the time in epoch milliseconds at which the row expires, or {@link Long#MAX_VALUE} if it never expires
+     * @param sequence  the write sequence obtained before the write started
+     */
+    public synchronized void updateRow(long id, Object[] values, long expiresAt, long sequence) {
+        if (sequence != writeSequence) {
+            invalidate(id);
+            return;
+        }
+        writeSequence++;
+        CachedRow row = rows.computeIfAbsent(id, key -> new CachedRow(columnCount));
+        long now = System.nanoTime();
+        for (int i = 0; i < columnCount; i++) {
+            row.values[i] = values[i];
+            row.writtenAt[i] = now;
+        }
+        row.expiresAt = expiresAt;
+    }
+
+    /**
+     * Discards the cached row.
+     *
+     * @param id the guild id of the row
+     */
+    public synchronized void invalidate(long id) {
+        writeSequence++;
+        rows.remove(id);
+    }
+
+    /**
+     * Discards all cached rows.
+     */
+    public synchronized void invalidateAll() {
+        writeSequence++;
+        rows.clear();
+    }
+
+    private CachedRow setValue(long id, int column, Object value) {
+        CachedRow row = rows.computeIfAbsent(id, key -> new CachedRow(columnCount));
+        row.values[column] = value;
+        row.writtenAt[column] = System.nanoTime();
+        return row;
+    }
+
+    public synchronized int size() {
+        return rows.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * @return the ratio of lookups that were served from the cache
+     */
+    public double getHitRate() {
+        long hit = getHitCount();
+        long total = hit + getMissCount();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    @Override
+    public String toString() {
+        return "DataStoreCache{" +
+                "size=" + size() +
+                ", maximumSize=" + maximumSize +
+                ", hitCount=" + getHitCount() +
+                ", missCount=" + getMissCount() +
+                ", evictionCount=" + getEvictionCount() +
+                '}';
+    }
+
+    private static class CachedRow {
+        private final Object[] values;
+        private final long[] writtenAt;
+        private long expiresAt = Long.MAX_VALUE;
+
+        private CachedRow(int columnCount) {
+            values = new Object[columnCount];
+            writtenAt = new long[columnCount];
+            Arrays.fill(values, MISS);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the asynchronous operations of the data stores on a dedicated thread pool,
+ * so that database latency does not block the threads that handle Discord events.
+ * <p>
+ * The number of threads matches the size of the connection pool,
+ * so that no more operations run at once than there are connections to serve them.
+ */
+public class DataStoreExecutor {
+    private final ThreadPoolExecutor executor;
+    private final long timeout;
+
+    /**
+     * @param concurrency the maximum number of operations to run at once
+     * @param timeout     the time in milliseconds after which an operation is cancelled, or 0 for no limit
+     */
+    public DataStoreExecutor(int concurrency, long timeout) {
+        if (concurrency <= 0)
+            throw new IllegalArgumentException("concurrency must be greater than 0.");
+
+        this.timeout = timeout;
+        var threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            var thread = new Thread(runnable, "DataStore-Async-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs the task on the thread pool.
+     * Cancelling the returned future or exceeding the timeout interrupts the task if it is running,
+     * and skips it if it has not started yet.
+     *
+     * @param task the task to run
+     * @param <T>  the type of the result
+     * @return the future that completes with the result of the task
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        var future = new CompletableFuture<T>();
+        Future<?> running;
+        try {
+            running = executor.submit(() -> {
+                if (future.isDone())
+                    return;
+                try {
+                    future.complete(task.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        future.whenComplete((result, throwable) -> {
+            if (throwable instanceof CancellationException || throwable instanceof TimeoutException)
+                running.cancel(true);
+        });
+        if (timeout > 0)
+            future.orTimeout(timeout, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    /**
+     * @return the number of operations waiting for a thread
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of operations running now
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Stops accepting operations and waits for the submitted ones to finish.
+     *
+     * @param timeout the maximum time to wait in milliseconds
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void shutdown(long timeout) throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS))
+            executor.shutdownNow();
+    }
+}
@@ -17,23 +17,80 @@
 package page.nafuchoco.neobot.core.datastore;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import page.nafuchoco.neobot.api.DatabaseConnector;
-import page.nafuchoco.neobot.api.datastore.DataStore;
 import page.nafuchoco.neobot.api.datastore.exception.DataStoreException;
+import page.nafuchoco.neobot.api.datastore.exception.DataStoreGenerateException;
+import page.nafuchoco.neobot.core.datastore.codec.DataStoreCodec;
+import page.nafuchoco.neobot.core.datastore.dialect.SqlDialect;
+import page.nafuchoco.neobot.core.datastore.invalidation.InvalidationChannel;
+import page.nafuchoco.neobot.core.util.LongObjectHashMap;
 
+import java.io.IOException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Map;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.Lock;
+import java.util.function.IntFunction;
 
-public class DataStoreImpl implements DataStore {
+import static page.nafuchoco.neobot.core.datastore.DataStoreStatements.BULK_FETCH_CHUNK_SIZE;
+
+public class DataStoreImpl implements BulkDataStore {
     private final DatabaseConnector connector;
     private final String name;
     private final Map<String, Class> indexes;
+    private final Map<String, Integer> columnPositions;
+    private final String[] columnNames;
+    private final Class[] columnTypes;
+    private final ColumnCodecs codecs;
+    private final int[][] secondaryIndexes;
+    private final long timeToLive;
+    private final boolean expiring;
+    private final SqlDialect dialect;
+    private final DataStoreStatements statements;
+    private final boolean upsertValuesRepeated;
+    private final Lock writeLock;
+    private final DataStoreExecutor executor;
+    private final CompletableFuture<Void> schemaReady;
+    private volatile boolean ready = false;
+    private final DataStoreCache cache;
+    private WriteBehindQueue writeBehindQueue;
+    private InvalidationChannel invalidationChannel;
+    private ReadReplicaRouter replicaRouter;
+    private volatile long pinnedUntil = System.nanoTime();
+    private final DataStoreMetrics metrics = new DataStoreMetrics();
 
-    protected DataStoreImpl(@NotNull DatabaseConnector connector, @NotNull String name, @NotNull Map<String, Class> indexes) {
+    protected DataStoreImpl(@NotNull DatabaseConnector connector, @NotNull SqlDialect dialect, @NotNull String name, @NotNull Map<String, Class> indexes, @NotNull Map<String, DataStoreCodec> codecs, @NotNull List<String[]> secondaryIndexes, long timeToLive, @Nullable DataStoreCache cache, @NotNull DataStoreExecutor executor, @NotNull CompletableFuture<Void> schemaReady) {
         this.connector = connector;
         this.name = connector.getPrefix() + name;
         this.indexes = indexes;
+        this.cache = cache;
+        this.executor = executor;
+        this.schemaReady = schemaReady;
+
+        var positions = new HashMap<String, Integer>();
+        for (String index : indexes.keySet())
+            positions.put(index, positions.size());
+        columnPositions = Collections.unmodifiableMap(positions);
+        columnNames = indexes.keySet().toArray(new String[0]);
+        columnTypes = indexes.values().toArray(new Class[0]);
+        this.codecs = new ColumnCodecs(columnNames, codecs);
+        this.secondaryIndexes = new int[secondaryIndexes.size()][];
+        for (int i = 0; i < this.secondaryIndexes.length; i++)
+            this.secondaryIndexes[i] = Arrays.stream(secondaryIndexes.get(i)).mapToInt(this::requireColumn).toArray();
+        this.dialect = dialect;
+        this.timeToLive = timeToLive;
+        expiring = timeToLive > 0;
+        statements = new DataStoreStatements(dialect, this.name, columnNames, expiring);
+        upsertValuesRepeated = dialect.isUpsertValuesRepeated();
+        writeLock = dialect.getWriteLock();
     }
 
     @Override
@@ -41,6 +98,55 @@ public class DataStoreImpl implements DataStore {
         return name;
     }
 
+    @Override
+    public String[] getColumnNames() {
+        return columnNames.clone();
+    }
+
+    @Override
+    public Class[] getColumnTypes() {
+        return columnTypes.clone();
+    }
+
+    /**
+     * Returns the cache placed in front of this data store.
+     *
+     * @return the cache, or null if caching is disabled for this data store
+     */
+    public @Nullable DataStoreCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns the queue that collects the writes to this data store.
+     *
+     * @return the queue, or null if writes are executed immediately
+     */
+    public @Nullable WriteBehindQueue getWriteBehindQueue() {
+        return writeBehindQueue;
+    }
+
+    /**
+     * Returns the counters and latencies of the database operations of this data store.
+     *
+     * @return the metrics
+     */
+    public DataStoreMetrics getMetrics() {
+        return metrics;
+    }
+
+    void setWriteBehindQueue(@Nullable WriteBehindQueue writeBehindQueue) {
+        this.writeBehindQueue = writeBehindQueue;
+    }
+
+    void setInvalidationChannel(@Nullable InvalidationChannel invalidationChannel) {
+        this.invalidationChannel = invalidationChannel;
+    }
+
+    void setReplicaRouter(@Nullable ReadReplicaRouter replicaRouter) {
+        this.replicaRouter = replicaRouter;
+    }
+
     /**
      * Gets the data stored in the data store.
      *
@@ -50,7 +156,364 @@ public class DataStoreImpl implements DataStore {
      */
     @Override
     public <T> T getStoreData(long id, String index) {
-        return (T) get(id, index, indexes.get(index));
+        int column = requireColumn(index);
+        // taken before the pending writes are looked up, so that a write queued in between discards the read value.
+        long sequence = cache != null ? cache.getWriteSequence() : 0;
+        Object local = lookupLocal(id, column);
+        if (local != DataStoreCache.MISS)
+            return (T) codecs.decode(column, local);
+
+        return (T) codecs.decode(column, get(id, column, sequence));
+    }
+
+    /**
+     * Gets the data of many guilds at once.
+     * The ids are fetched with as few queries as possible.
+     *
+     * @param ids   The guild ids of the data to get.
+     * @param index The index of the data to get.
+     * @param <T>   The type of the data to get.
+     * @return The data keyed by guild id. Guilds with no row or a null value are not contained.
+     */
+    public <T> LongObjectHashMap<T> getStoreData(long[] ids, String index) {
+        int column = requireColumn(index);
+        var result = new LongObjectHashMap<T>(ids.length);
+        long sequence = cache != null ? cache.getWriteSequence() : 0;
+
+        long[] missing = new long[ids.length];
+        int missingCount = 0;
+        for (long id : ids) {
+            Object local = lookupLocal(id, column);
+            if (local == DataStoreCache.MISS)
+                missing[missingCount++] = id;
+            else if (local != null)
+                result.put(id, (T) codecs.decode(column, local));
+        }
+        if (missingCount == 0)
+            return result;
+
+        var found = new LongObjectHashMap<Boolean>(missingCount);
+        awaitSchema();
+        long start = System.nanoTime();
+        try (var connection = getReadConnection()) {
+            for (int from = 0; from < missingCount; from += BULK_FETCH_CHUNK_SIZE) {
+                int to = Math.min(from + BULK_FETCH_CHUNK_SIZE, missingCount);
+                try (PreparedStatement ps = connection.prepareStatement(statements.bulkSelect(column, to - from))) {
+                    for (int i = from; i < to; i++)
+                        ps.setLong(i - from + 1, missing[i]);
+                    if (expiring)
+                        ps.setLong(to - from + 1, System.currentTimeMillis());
+                    try (var resultSet = ps.executeQuery()) {
+                        while (resultSet.next()) {
+                            long id = resultSet.getLong(1);
+                            Object value = readColumn(resultSet, 2, column);
+                            found.put(id, Boolean.TRUE);
+                            if (value != null)
+                                result.put(id, (T) codecs.decode(column, value));
+                            if (cache != null)
+                                cache.fill(id, column, value, sequence, readExpiry(resultSet, 3));
+                        }
+                    }
+                }
+            }
+            metrics.record(DataStoreMetrics.Operation.GET, start);
+        } catch (SQLException e) {
+            metrics.recordError(DataStoreMetrics.Operation.GET, start);
+            throw new DataStoreException(e);
+        }
+
+        if (cache != null) { // remember the guilds without a row as well.
+            for (int i = 0; i < missingCount; i++) {
+                if (!found.containsKey(missing[i]))
+                    cache.fill(missing[i], column, null, sequence);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets all the data of a guild with a single query.
+     *
+     * @param id The guild id of the data to get.
+     * @return The row of the guild, or null if the guild has no row.
+     */
+    public @Nullable DataStoreRow getStoreRow(long id) {
+        return getStoreRows(new long[]{id}).get(id);
+    }
+
+    /**
+     * Gets all the data of many guilds at once.
+     * The ids are fetched with as few queries as possible.
+     *
+     * @param ids The guild ids of the data to get.
+     * @return The rows keyed by guild id. Guilds with no row are not contained.
+     */
+    public LongObjectHashMap<DataStoreRow> getStoreRows(long[] ids) {
+        var result = new LongObjectHashMap<DataStoreRow>(ids.length);
+        long sequence = cache != null ? cache.getWriteSequence() : 0;
+        awaitSchema();
+        long start = System.nanoTime();
+        try (var connection = getReadConnection()) {
+            for (int from = 0; from < ids.length; from += BULK_FETCH_CHUNK_SIZE) {
+                int to = Math.min(from + BULK_FETCH_CHUNK_SIZE, ids.length);
+                try (PreparedStatement ps = connection.prepareStatement(statements.bulkSelectRows(to - from))) {
+                    for (int i = from; i < to; i++)
+                        ps.setLong(i - from + 1, ids[i]);
+                    if (expiring)
+                        ps.setLong(to - from + 1, System.currentTimeMillis());
+                    try (var resultSet = ps.executeQuery()) {
+                        while (resultSet.next()) {
+                            long id = resultSet.getLong(1);
+                            Object[] values = readValues(resultSet, 2);
+                            // the pending values are applied first, so that the old values of their columns are not cached.
+                            boolean[] replaced = null;
+                            if (writeBehindQueue != null)
+                                writeBehindQueue.overlay(id, values, replaced = new boolean[values.length]);
+                            if (cache != null) {
+                                long expiresAt = readExpiry(resultSet, values.length + 2);
+                                for (int column = 0; column < values.length; column++) {
+                                    if (replaced == null || !replaced[column])
+                                        cache.fill(id, column, values[column], sequence, expiresAt);
+                                }
+                            }
+                            codecs.decodeRow(values);
+                            result.put(id, new DataStoreRow(id, columnPositions, values));
+                        }
+                    }
+                }
+            }
+            metrics.record(DataStoreMetrics.Operation.GET, start);
+        } catch (SQLException e) {
+            metrics.recordError(DataStoreMetrics.Operation.GET, start);
+            throw new DataStoreException(e);
+        }
+
+        if (writeBehindQueue != null) { // rows that have been registered but not written yet.
+            for (long id : ids) {
+                if (result.containsKey(id))
+                    continue;
+                Object[] values = new Object[columnNames.length];
+                if (writeBehindQueue.overlay(id, values)) {
+                    codecs.decodeRow(values);
+                    result.put(id, new DataStoreRow(id, columnPositions, values));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the rows whose value of the index equals the specified value, in the order of the guild id.
+     * The index must be the first column of a secondary index of the data store.
+     *
+     * @param index The index to compare.
+     * @param value The value to find.
+     * @param after The cursor of the previous page, or null to get the first page.
+     * @param limit The maximum number of rows in the page.
+     * @return The page of rows.
+     * @throws IllegalArgumentException If the index is not covered by a secondary index.
+     */
+    public DataStorePage findBy(@NotNull String index, @NotNull Object value, @Nullable DataStorePage.Cursor after, int limit) {
+        return findBy(new String[]{index}, new Object[]{value}, after, limit);
+    }
+
+    /**
+     * Finds the rows whose values of the indexes equal the specified values, in the order of the guild id.
+     * The indexes must be the leading columns of a secondary index of the data store, in the same order.
+     *
+     * @param indexes The indexes to compare.
+     * @param values  The values to find, in the order of the indexes.
+     * @param after   The cursor of the previous page, or null to get the first page.
+     * @param limit   The maximum number of rows in the page.
+     * @return The page of rows.
+     * @throws IllegalArgumentException If the indexes are not covered by a secondary index.
+     */
+    public DataStorePage findBy(@NotNull String[] indexes, @NotNull Object[] values, @Nullable DataStorePage.Cursor after, int limit) {
+        if (indexes.length == 0 || indexes.length != values.length)
+            throw new IllegalArgumentException("The number of values must be equal to the number of indexes.");
+        int[] columns = requireSecondaryIndex(indexes);
+        checkLimit(limit);
+
+        if (writeBehindQueue != null) // the query must see the pending writes.
+            writeBehindQueue.flush();
+
+        awaitSchema();
+        long start = System.nanoTime();
+        try (var connection = getReadConnection();
+             PreparedStatement ps = connection.prepareStatement(statements.findBy(columns))) {
+            int parameter = 1;
+            for (int i = 0; i < columns.length; i++)
+                ps.setObject(parameter++, Objects.requireNonNull(values[i], "value"));
+            ps.setLong(parameter++, after != null ? after.id() : Long.MIN_VALUE);
+            if (expiring)
+                ps.setLong(parameter++, System.currentTimeMillis());
+            ps.setInt(parameter, limit + 1);
+            var page = readPage(ps, -1, limit);
+            metrics.record(DataStoreMetrics.Operation.GET, start);
+            return page;
+        } catch (SQLException e) {
+            metrics.recordError(DataStoreMetrics.Operation.GET, start);
+            throw new DataStoreException(e);
+        }
+    }
+
+    /**
+     * Finds the rows whose value of the index is in the specified range, in the order of the value and then the guild id.
+     * The index must be the first column of a secondary index of the data store. Rows with a null value are not returned.
+     *
+     * @param index The index to compare.
+     * @param from  The lower bound of the range, inclusive, or null for no lower bound.
+     * @param to    The upper bound of the range, exclusive, or null for no upper bound.
+     * @param after The cursor of the previous page, or null to get the first page.
+     * @param limit The maximum number of rows in the page.
+     * @return The page of rows.
+     * @throws IllegalArgumentException If the index is not covered by a secondary index.
+     */
+    public DataStorePage findRange(@NotNull String index, @Nullable Object from, @Nullable Object to, @Nullable DataStorePage.Cursor after, int limit) {
+        int column = requireSecondaryIndex(new String[]{index})[0];
+        checkLimit(limit);
+
+        if (writeBehindQueue != null)
+            writeBehindQueue.flush();
+
+        awaitSchema();
+        long start = System.nanoTime();
+        try (var connection = getReadConnection();
+             PreparedStatement ps = connection.prepareStatement(statements.findRange(column, from != null, to != null, after != null))) {
+            int parameter = 1;
+            if (from != null)
+                ps.setObject(parameter++, from);
+            if (to != null)
+                ps.setObject(parameter++, to);
+            if (after != null) {
+                ps.setObject(parameter++, after.value());
+                ps.setObject(parameter++, after.value());
+                ps.setLong(parameter++, after.id());
+            }
+            if (expiring)
+                ps.setLong(parameter++, System.currentTimeMillis());
+            ps.setInt(parameter, limit + 1);
+            var page = readPage(ps, column, limit);
+            metrics.record(DataStoreMetrics.Operation.GET, start);
+            return page;
+        } catch (SQLException e) {
+            metrics.recordError(DataStoreMetrics.Operation.GET, start);
+            throw new DataStoreException(e);
+        }
+    }
+
+    /**
+     * Finds the rows of a page without blocking the calling thread.
+     *
+     * @see #findBy(String, Object, DataStorePage.Cursor, int)
+     */
+    public CompletableFuture<DataStorePage> findByAsync(@NotNull String index, @NotNull Object value, @Nullable DataStorePage.Cursor after, int limit) {
+        return executor.submit(() -> findBy(index, value, after, limit));
+    }
+
+    /**
+     * Finds the rows of a page without blocking the calling thread.
+     *
+     * @see #findRange(String, Object, Object, DataStorePage.Cursor, int)
+     */
+    public CompletableFuture<DataStorePage> findRangeAsync(@NotNull String index, @Nullable Object from, @Nullable Object to, @Nullable DataStorePage.Cursor after, int limit) {
+        return executor.submit(() -> findRange(index, from, to, after, limit));
+    }
+
+    /**
+     * Reads a page queried with one row more than the limit, to know whether there is a next page.
+     *
+     * @param cursorColumn the column whose value is kept in the cursor, or -1 to keep only the id
+     */
+    private DataStorePage readPage(PreparedStatement ps, int cursorColumn, int limit) throws SQLException {
+        List<DataStoreRow> rows = new ArrayList<>(Math.min(limit, 1024));
+        Object cursorValue = null;
+        boolean hasNext = false;
+        long sequence = cache != null ? cache.getWriteSequence() : 0;
+        try (var resultSet = ps.executeQuery()) {
+            while (resultSet.next()) {
+                if (rows.size() == limit) {
+                    hasNext = true;
+                    break;
+                }
+                long id = resultSet.getLong(1);
+                Object[] values = readValues(resultSet, 2);
+                if (cache != null) {
+                    long expiresAt = readExpiry(resultSet, values.length + 2);
+                    for (int column = 0; column < values.length; column++)
+                        cache.fill(id, column, values[column], sequence, expiresAt);
+                }
+                if (cursorColumn >= 0)
+                    cursorValue = values[cursorColumn];
+                codecs.decodeRow(values);
+                rows.add(new DataStoreRow(id, columnPositions, values));
+            }
+        }
+        var next = hasNext ? new DataStorePage.Cursor(cursorValue, rows.get(rows.size() - 1).getId()) : null;
+        return new DataStorePage(rows, next);
+    }
+
+    /**
+     * Returns the positions of the columns if they are the leading columns of a secondary index.
+     */
+    private int[] requireSecondaryIndex(String[] indexes) {
+        int[] columns = new int[indexes.length];
+        for (int i = 0; i < indexes.length; i++)
+            columns[i] = requireColumn(indexes[i]);
+        for (int[] secondaryIndex : secondaryIndexes) {
+            if (secondaryIndex.length >= columns.length && Arrays.equals(secondaryIndex, 0, columns.length, columns, 0, columns.length))
+                return columns;
+        }
+        throw new IllegalArgumentException("No secondary index starts with: " + String.join(", ", indexes));
+    }
+
+    private static void checkLimit(int limit) {
+        if (limit <= 0)
+            throw new IllegalArgumentException("The limit must be positive.");
+    }
+
+    /**
+     * Looks up a value that has not been written yet or that is cached.
+     */
+    private Object lookupLocal(long id, int column) {
+        if (writeBehindQueue != null) {
+            Object pending = writeBehindQueue.lookup(id, column);
+            if (pending != DataStoreCache.MISS)
+                return pending;
+        }
+        if (cache != null)
+            return cache.lookup(id, column);
+        return DataStoreCache.MISS;
+    }
+
+    private int requireColumn(String index) {
+        Integer column = columnPositions.get(index);
+        if (column == null)
+            throw new IllegalArgumentException("Unknown index: " + index);
+        return column;
+    }
+
+    private Object[] readValues(ResultSet resultSet, int firstColumn) throws SQLException {
+        Object[] values = new Object[columnNames.length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = readColumn(resultSet, firstColumn + i, i);
+        return values;
+    }
+
+    private Object readColumn(ResultSet resultSet, int index, int column) throws SQLException {
+        if (columnTypes[column] == byte[].class) // not every driver maps getObject to byte[].
+            return resultSet.getBytes(index);
+        return resultSet.getObject(index, columnTypes[column]);
+    }
+
+    /**
+     * Reads the time at which the row expires, selected after the other columns if the rows of this data store expire.
+     */
+    private long readExpiry(ResultSet resultSet, int index) throws SQLException {
+        if (!expiring)
+            return Long.MAX_VALUE;
+        long expiresAt = resultSet.getLong(index);
+        return resultSet.wasNull() ? Long.MAX_VALUE : expiresAt;
     }
 
     /**
@@ -63,7 +526,23 @@ public class DataStoreImpl implements DataStore {
      */
     @Override
     public <T> void saveStoreData(long id, String index, T value) {
-        update(id, index, value);
+        int column = requireColumn(index);
+        Object stored = codecs.encode(column, value);
+        if (writeBehindQueue != null) {
+            writeBehindQueue.enqueueUpdate(id, column, stored);
+            if (cache != null) // the value is read from the queue until it is written.
+                cache.invalidate(id);
+            return;
+        }
+
+        long sequence = cache != null ? cache.getWriteSequence() : 0;
+        boolean updated = update(id, column, stored);
+        if (cache != null) {
+            if (updated && !expiring) // the expiry of the row is not known here.
+                cache.update(id, column, stored, sequence);
+            else // the row does not exist, so there is nothing to update.
+                cache.invalidate(id);
+        }
     }
 
     /**
@@ -78,7 +557,150 @@ public class DataStoreImpl implements DataStore {
         if (values.length != indexes.size())
             throw new IllegalArgumentException("The number of values must be equal to the number of indexes.");
 
-        set(id, values);
+        values = codecs.encodeRow(values);
+        if (writeBehindQueue != null) {
+            writeBehindQueue.enqueueRow(id, values);
+            if (cache != null)
+                cache.invalidate(id);
+            return;
+        }
+
+        long expiresAt = expiring ? System.currentTimeMillis() + timeToLive : Long.MAX_VALUE;
+        long sequence = cache != null ? cache.getWriteSequence() : 0;
+        set(id, values, expiresAt);
+
+        if (cache != null)
+            cache.updateRow(id, values, expiresAt, sequence);
+    }
+
+    /**
+     * Register the data with the new ID in the data store, and delete it at the specified time.
+     * Writes collected by write-behind are written first, so that they cannot overwrite the expiry.
+     *
+     * @param id        The guild id of the data to register.
+     * @param expiresAt The time at which the data expires.
+     * @param values    The values of the data to register.
+     *                  The order of the values must be the same as the order of the indexes.
+     * @throws IllegalStateException If the data store was not built with a time to live.
+     */
+    public void registerExpiringStoreData(long id, @NotNull Instant expiresAt, Object... values) {
+        requireExpiring();
+        if (values.length != indexes.size())
+            throw new IllegalArgumentException("The number of values must be equal to the number of indexes.");
+
+        values = codecs.encodeRow(values);
+        if (writeBehindQueue != null)
+            writeBehindQueue.flush();
+        long sequence = cache != null ? cache.getWriteSequence() : 0;
+        set(id, values, expiresAt.toEpochMilli());
+
+        if (cache != null)
+            cache.updateRow(id, values, expiresAt.toEpochMilli(), sequence);
+    }
+
+    /**
+     * Changes the time at which the data of a guild expires.
+     * Writes collected by write-behind are written first, so that they cannot overwrite the expiry.
+     *
+     * @param id        The guild id of the data.
+     * @param expiresAt The time at which the data expires, or null to keep it until it is deleted.
+     * @return true if the data exists and has not expired yet.
+     * @throws IllegalStateException If the data store was not built with a time to live.
+     */
+    public boolean setExpiry(long id, @Nullable Instant expiresAt) {
+        requireExpiring();
+        if (writeBehindQueue != null)
+            writeBehindQueue.flush();
+
+        awaitSchema();
+        lockWrite();
+        long start = System.nanoTime();
+        try (var connection = getConnection();
+             PreparedStatement ps = connection.prepareStatement(statements.setExpiry())) {
+            if (expiresAt != null)
+                ps.setLong(1, expiresAt.toEpochMilli());
+            else
+                ps.setNull(1, Types.BIGINT);
+            ps.setLong(2, id);
+            ps.setLong(3, System.currentTimeMillis());
+            boolean updated = ps.executeUpdate() > 0;
+            if (updated)
+                publishChange(id);
+            metrics.record(DataStoreMetrics.Operation.UPDATE, start);
+            return updated;
+        } catch (SQLException e) {
+            metrics.recordError(DataStoreMetrics.Operation.UPDATE, start);
+            throw new DataStoreException(e);
+        } finally {
+            unlockWrite();
+            if (cache != null)
+                cache.invalidate(id);
+        }
+    }
+
+    /**
+     * Returns the time after which the rows of this data store expire once they are registered.
+     *
+     * @return the time to live in milliseconds, or 0 if the rows never expire
+     */
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    private void requireExpiring() {
+        if (!expiring)
+            throw new IllegalStateException("The data store " + name + " was not built with a time to live.");
+    }
+
+    /**
+     * Deletes a batch of expired rows, in the order of their expiry.
+     * The ids are selected through the index on the expiry, and only they are deleted,
+     * so that a batch never locks more rows than it deletes.
+     *
+     * @param batchSize the maximum number of rows to delete
+     * @return the number of deleted rows
+     */
+    int deleteExpired(int batchSize) {
+        long now = System.currentTimeMillis();
+        long[] ids = new long[batchSize];
+        int count = 0;
+        try (var connection = getConnection();
+             PreparedStatement ps = connection.prepareStatement(statements.selectExpired())) {
+            ps.setLong(1, now);
+            ps.setInt(2, batchSize);
+            try (var resultSet = ps.executeQuery()) {
+                while (resultSet.next() && count < batchSize)
+                    ids[count++] = resultSet.getLong(1);
+            }
+        } catch (SQLException e) {
+            throw new DataStoreException(e);
+        }
+        if (count == 0)
+            return 0;
+
+        awaitSchema();
+        lockWrite();
+        long start = System.nanoTime();
+        try (var connection = getConnection();
+             PreparedStatement ps = connection.prepareStatement(statements.deleteExpired(count))) {
+            ps.setLong(1, now); // a row registered again in the meantime is kept.
+            for (int i = 0; i < count; i++)
+                ps.setLong(i + 2, ids[i]);
+            int deleted = ps.executeUpdate();
+            for (int i = 0; i < count; i++)
+                publishChange(ids[i]);
+            metrics.record(DataStoreMetrics.Operation.DELETE, start);
+            return deleted;
+        } catch (SQLException e) {
+            metrics.recordError(DataStoreMetrics.Operation.DELETE, start);
+            throw new DataStoreException(e);
+        } finally {
+            unlockWrite();
+            if (cache != null) {
+                for (int i = 0; i < count; i++)
+                    cache.invalidate(ids[i]);
+            }
+        }
     }
 
     /**
@@ -88,65 +710,760 @@ public class DataStoreImpl implements DataStore {
      */
     @Override
     public void deleteStoredData(long id) {
-        try (var connection = connector.getConnection();
-             PreparedStatement ps = connection.prepareStatement(
-                     "DELETE FROM " + name + " WHERE id = ?")) {
-            ps.setLong(1, id);
-            ps.executeUpdate();
+        if (writeBehindQueue != null)
+            writeBehindQueue.discard(id, () -> delete(id));
+        else
+            delete(id);
+    }
+
+    /**
+     * Adds a delta to a numeric value in the database without reading it first.
+     * A null value counts as 0, and concurrent increments of the same value are never lost.
+     *
+     * @param id    The guild id of the data to increment.
+     * @param index The index of the data to increment. It must hold Integer or Long values.
+     * @param delta The value to add, which may be negative.
+     * @return true if the row exists and has been incremented.
+     */
+    public boolean increment(long id, @NotNull String index, long delta) {
+        return increment(new long[]{id}, index, new long[]{delta})[0];
+    }
+
+    /**
+     * Adds deltas to the numeric values of many guilds with a single batch in a single transaction.
+     *
+     * @param ids    The guild ids of the data to increment.
+     * @param index  The index of the data to increment. It must hold Integer or Long values.
+     * @param deltas The values to add, in the order of the ids.
+     * @return Whether each row exists and has been incremented, in the order of the ids.
+     * @see #increment(long, String, long)
+     */
+    public boolean[] increment(long @NotNull [] ids, @NotNull String index, long @NotNull [] deltas) {
+        int column = requireCounter(index);
+        checkBatch(ids.length, deltas.length);
+        long now = System.currentTimeMillis();
+        // executed one by one, as a batch may not report which rows exist.
+        boolean[] results = executeAtomic(DataStoreMetrics.Operation.UPDATE, ids, false, true, row -> statements.increment(column), (ps, row) -> {
+            ps.setLong(1, deltas[row]);
+            ps.setLong(2, ids[row]);
+            if (expiring)
+                ps.setLong(3, now);
+        });
+        if (cache != null) { // the new values are only known to the database.
+            for (long id : ids)
+                cache.invalidate(id);
+        }
+        return results;
+    }
+
+    /**
+     * Sets a value only if the current value in the database equals the expected value, in a single statement.
+     *
+     * @param id       The guild id of the data to set.
+     * @param index    The index of the data to set. Binary data cannot be compared.
+     * @param expected The value the data must have, or null if it must be null.
+     * @param newValue The value to set.
+     * @param <T>      The type of the data.
+     * @return true if the value has been set, false if the row does not exist or the value was different.
+     */
+    public <T> boolean compareAndSet(long id, @NotNull String index, @Nullable T expected, @Nullable T newValue) {
+        return compareAndSet(new long[]{id}, index, new Object[]{expected}, new Object[]{newValue})[0];
+    }
+
+    /**
+     * Sets the values of many guilds with a single batch in a single transaction,
+     * each only if the current value equals its expected value.
+     *
+     * @param ids       The guild ids of the data to set.
+     * @param index     The index of the data to set. Binary data cannot be compared.
+     * @param expected  The values the data must have, in the order of the ids.
+     * @param newValues The values to set, in the order of the ids.
+     * @return Whether each value has been set, in the order of the ids.
+     * @see #compareAndSet(long, String, Object, Object)
+     */
+    public boolean[] compareAndSet(long @NotNull [] ids, @NotNull String index, @NotNull Object[] expected, @NotNull Object[] newValues) {
+        int column = requireColumn(index);
+        if (columnTypes[column] == byte[].class)
+            throw new IllegalArgumentException("Binary data cannot be compared: " + index);
+        checkBatch(ids.length, expected.length);
+        checkBatch(ids.length, newValues.length);
+        long now = System.currentTimeMillis();
+        long sequence = cache != null ? cache.getWriteSequence() : 0;
+        // the rows are executed one by one, as a batch may not report which of them matched the expected value.
+        boolean[] results = executeAtomic(DataStoreMetrics.Operation.UPDATE, ids, false, true,
+                row -> statements.compareAndSet(column, expected[row] == null), (ps, row) -> {
+                    int parameter = 1;
+                    ps.setObject(parameter++, newValues[row]);
+                    ps.setLong(parameter++, ids[row]);
+                    if (expected[row] != null)
+                        ps.setObject(parameter++, expected[row]);
+                    if (expiring)
+                        ps.setLong(parameter, now);
+                });
+        if (cache != null) {
+            // each row below moves the write sequence on by one, so only the writes of others make it differ.
+            for (int i = 0; i < ids.length; i++) {
+                if (results[i] && !expiring) // the expiry of the row is not known here.
+                    cache.update(ids[i], column, newValues[i], sequence + i);
+                else // the cached value may be the one that did not match.
+                    cache.invalidate(ids[i]);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Adds a delta to a numeric value, or registers a new row if the guild has none, in a single statement.
+     * The new row has the specified values, except that the value of the index is the delta.
+     *
+     * @param id     The guild id of the data to increment.
+     * @param index  The index of the data to increment. It must hold Integer or Long values.
+     * @param delta  The value to add, which may be negative.
+     * @param values The values of the row to register if the guild has none.
+     *               The order of the values must be the same as the order of the indexes.
+     */
+    public void incrementOrRegister(long id, @NotNull String index, long delta, Object... values) {
+        incrementOrRegister(new long[]{id}, index, new long[]{delta}, new Object[][]{values});
+    }
+
+    /**
+     * Adds deltas to the numeric values of many guilds, or registers the rows of the guilds that have none,
+     * with a single batch in a single transaction.
+     *
+     * @param ids    The guild ids of the data to increment.
+     * @param index  The index of the data to increment. It must hold Integer or Long values.
+     * @param deltas The values to add, in the order of the ids.
+     * @param rows   The values of the rows to register if the guilds have none, in the order of the ids.
+     * @see #incrementOrRegister(long, String, long, Object...)
+     */
+    public void incrementOrRegister(long @NotNull [] ids, @NotNull String index, long @NotNull [] deltas, @NotNull Object[][] rows) {
+        int column = requireCounter(index);
+        checkBatch(ids.length, deltas.length);
+        checkBatch(ids.length, rows.length);
+        Object[][] encoded = new Object[rows.length][];
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i].length != columnNames.length)
+                throw new IllegalArgumentException("The number of values must be equal to the number of indexes.");
+            encoded[i] = codecs.encodeRow(rows[i]);
+            encoded[i][column] = deltas[i];
+        }
+        long expiresAt = System.currentTimeMillis() + timeToLive;
+        executeAtomic(DataStoreMetrics.Operation.UPSERT, ids, expiring, false, row -> statements.upsertIncrement(column), (ps, row) -> {
+            ps.setLong(1, ids[row]);
+            int parameter = 2;
+            for (Object value : encoded[row])
+                ps.setObject(parameter++, value);
+            if (expiring)
+                ps.setLong(parameter++, expiresAt);
+            ps.setLong(parameter, deltas[row]);
+        });
+        if (cache != null) {
+            for (long id : ids)
+                cache.invalidate(id);
+        }
+    }
+
+    /**
+     * Prepares the update of a single value in a {@link DataStoreTransaction}.
+     */
+    DataStoreTransaction.Step prepareSave(long id, String index, Object value) {
+        int column = requireColumn(index);
+        Object stored = codecs.encode(column, value);
+        return new DataStoreTransaction.Step(this, id, statements.update(column), DataStoreMetrics.Operation.UPDATE, ps -> {
+            ps.setObject(1, stored);
+            ps.setLong(2, id);
+            if (expiring)
+                ps.setLong(3, System.currentTimeMillis());
+        });
+    }
+
+    /**
+     * Prepares the registration of a row in a {@link DataStoreTransaction}.
+     */
+    DataStoreTransaction.Step prepareRegister(long id, Object[] values) {
+        if (values.length != columnNames.length)
+            throw new IllegalArgumentException("The number of values must be equal to the number of indexes.");
+        Object[] stored = codecs.encodeRow(values);
+        return new DataStoreTransaction.Step(this, id, statements.upsert(), DataStoreMetrics.Operation.UPSERT,
+                ps -> bindUpsert(ps, id, stored, System.currentTimeMillis() + timeToLive));
+    }
+
+    /**
+     * Prepares the deletion of a row in a {@link DataStoreTransaction}.
+     */
+    DataStoreTransaction.Step prepareDelete(long id) {
+        return new DataStoreTransaction.Step(this, id, statements.delete(), DataStoreMetrics.Operation.DELETE, ps -> ps.setLong(1, id));
+    }
+
+    /**
+     * Prepares the increment of a numeric value in a {@link DataStoreTransaction}.
+     */
+    DataStoreTransaction.Step prepareIncrement(long id, String index, long delta) {
+        int column = requireCounter(index);
+        return new DataStoreTransaction.Step(this, id, statements.increment(column), DataStoreMetrics.Operation.UPDATE, ps -> {
+            ps.setLong(1, delta);
+            ps.setLong(2, id);
+            if (expiring)
+                ps.setLong(3, System.currentTimeMillis());
+        });
+    }
+
+    /**
+     * Called by {@link DataStoreTransaction} before its statements are sent.
+     * Waits for the table and writes the pending writes of the row, so that they cannot overtake the transaction.
+     */
+    void beforeTransaction(long id) {
+        awaitSchema();
+        if (writeBehindQueue != null)
+            writeBehindQueue.flushIfPending(id);
+    }
+
+    /**
+     * Called by {@link DataStoreTransaction} once it has finished, whether it has been committed or not.
+     */
+    void afterTransaction(long id, boolean committed) {
+        if (committed)
+            publishChange(id);
+        if (cache != null)
+            cache.invalidate(id);
+    }
+
+    /**
+     * Executes a statement per row directly on the database, after the pending writes of the rows have been written.
+     * A single row is executed on its own, several rows are executed in batches of the same statement in a single transaction.
+     *
+     * @param deleteExpiredFirst true to delete the expired row of each id before, so that an insert does not conflict with it
+     * @param exactCounts        true to execute the statements one by one instead of in batches, because drivers may
+     *                           return {@link Statement#SUCCESS_NO_INFO} for the rows of a batch
+     * @return whether each statement changed a row. Without exact counts, a row is reported as changed if the driver did not tell.
+     */
+    private boolean[] executeAtomic(DataStoreMetrics.Operation operation, long[] ids, boolean deleteExpiredFirst, boolean exactCounts,
+                                    IntFunction<String> statement, StatementBinder binder) {
+        if (writeBehindQueue != null) {
+            for (long id : ids)
+                writeBehindQueue.flushIfPending(id);
+        }
+
+        boolean[] results = new boolean[ids.length];
+        if (ids.length == 0)
+            return results;
+        awaitSchema();
+        lockWrite();
+        long start = System.nanoTime();
+        try (var connection = getConnection()) {
+            if (ids.length == 1) {
+                if (deleteExpiredFirst)
+                    deleteExpiredRows(connection, ids);
+                try (PreparedStatement ps = connection.prepareStatement(statement.apply(0))) {
+                    binder.bind(ps, 0);
+                    results[0] = ps.executeUpdate() > 0;
+                }
+            } else {
+                boolean autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+                try {
+                    if (deleteExpiredFirst)
+                        deleteExpiredRows(connection, ids);
+                    // rows with the same statement are sent together, in the order they were given.
+                    Map<String, List<Integer>> groups = new LinkedHashMap<>();
+                    for (int row = 0; row < ids.length; row++)
+                        groups.computeIfAbsent(statement.apply(row), key -> new ArrayList<>()).add(row);
+                    for (var group : groups.entrySet()) {
+                        try (PreparedStatement ps = connection.prepareStatement(group.getKey())) {
+                            if (exactCounts) {
+                                for (int row : group.getValue()) {
+                                    binder.bind(ps, row);
+                                    results[row] = ps.executeUpdate() > 0;
+                                }
+                                continue;
+                            }
+                            for (int row : group.getValue()) {
+                                binder.bind(ps, row);
+                                ps.addBatch();
+                            }
+                            int[] counts = ps.executeBatch();
+                            for (int i = 0; i < counts.length; i++)
+                                results[group.getValue().get(i)] = counts[i] > 0 || counts[i] == Statement.SUCCESS_NO_INFO;
+                        }
+                    }
+                    connection.commit();
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(autoCommit);
+                }
+            }
+            for (int i = 0; i < ids.length; i++) {
+                if (results[i])
+                    publishChange(ids[i]);
+            }
+            metrics.record(operation, start);
+            return results;
         } catch (SQLException e) {
+            metrics.recordError(operation, start);
             throw new DataStoreException(e);
+        } finally {
+            unlockWrite();
         }
     }
 
+    private void deleteExpiredRows(Connection connection, long[] ids) throws SQLException {
+        long now = System.currentTimeMillis();
+        try (PreparedStatement ps = connection.prepareStatement(statements.deleteExpiredRow())) {
+            for (long id : ids) {
+                ps.setLong(1, id);
+                ps.setLong(2, now);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
 
-    private <T> T get(long id, String key, Class<T> type) {
-        try (var connection = connector.getConnection();
-             PreparedStatement ps = connection.prepareStatement(
-                     "SELECT " + key + " FROM " + name + " WHERE id = ?")) {
-            ps.setLong(1, id);
+    private int requireCounter(String index) {
+        int column = requireColumn(index);
+        if (columnTypes[column] != Integer.class && columnTypes[column] != Long.class)
+            throw new IllegalArgumentException("The index does not hold Integer or Long values: " + index);
+        return column;
+    }
+
+    private static void checkBatch(int ids, int values) {
+        if (ids != values)
+            throw new IllegalArgumentException("The number of values must be equal to the number of ids.");
+    }
+
+    /**
+     * Binds the parameters of the statement of a row.
+     */
+    @FunctionalInterface
+    private interface StatementBinder {
+        void bind(PreparedStatement ps, int row) throws SQLException;
+    }
+
+    /**
+     * Gets the data stored in the data store without blocking the calling thread.
+     * Values that are cached complete the future immediately.
+     *
+     * @param id    The guild id of the data to get.
+     * @param index The index of the data to get.
+     * @param <T>   The type of the data to get.
+     * @return The future that completes with the data stored in the data store.
+     */
+    public <T> CompletableFuture<T> getStoreDataAsync(long id, String index) {
+        int column = requireColumn(index);
+        Object local = lookupLocal(id, column);
+        if (local != DataStoreCache.MISS)
+            return CompletableFuture.completedFuture((T) codecs.decode(column, local));
+        return executor.submit(() -> getStoreData(id, index));
+    }
+
+    /**
+     * Gets the data of many guilds at once without blocking the calling thread.
+     *
+     * @param ids   The guild ids of the data to get.
+     * @param index The index of the data to get.
+     * @param <T>   The type of the data to get.
+     * @return The future that completes with the data keyed by guild id.
+     * @see #getStoreData(long[], String)
+     */
+    public <T> CompletableFuture<LongObjectHashMap<T>> getStoreDataAsync(long[] ids, String index) {
+        return executor.submit(() -> getStoreData(ids, index));
+    }
+
+    /**
+     * Gets all the data of a guild without blocking the calling thread.
+     *
+     * @param id The guild id of the data to get.
+     * @return The future that completes with the row of the guild, or null if the guild has no row.
+     */
+    public CompletableFuture<DataStoreRow> getStoreRowAsync(long id) {
+        return executor.submit(() -> getStoreRow(id));
+    }
+
+    /**
+     * Gets all the data of many guilds at once without blocking the calling thread.
+     *
+     * @param ids The guild ids of the data to get.
+     * @return The future that completes with the rows keyed by guild id.
+     * @see #getStoreRows(long[])
+     */
+    public CompletableFuture<LongObjectHashMap<DataStoreRow>> getStoreRowsAsync(long[] ids) {
+        return executor.submit(() -> getStoreRows(ids));
+    }
+
+    /**
+     * Update the data registered in the data store without blocking the calling thread.
+     *
+     * @param id    The guild id of the data to save.
+     * @param index The index of the data to save.
+     * @param value The value of the data to save.
+     * @param <T>   The type of the data to save.
+     * @return The future that completes when the data has been saved.
+     */
+    public <T> CompletableFuture<Void> saveStoreDataAsync(long id, String index, T value) {
+        return executor.submit(() -> {
+            saveStoreData(id, index, value);
+            return null;
+        });
+    }
+
+    /**
+     * Register the data with the new ID in the data store without blocking the calling thread.
+     *
+     * @param id     The guild id of the data to register.
+     * @param values The values of the data to register.
+     *               The order of the values must be the same as the order of the indexes.
+     * @return The future that completes when the data has been registered.
+     */
+    public CompletableFuture<Void> registerStoreDataAsync(Long id, Object... values) {
+        return executor.submit(() -> {
+            registerStoreData(id, values);
+            return null;
+        });
+    }
+
+    /**
+     * Deletes the data stored in the data store without blocking the calling thread.
+     *
+     * @param id The guild id of the data to delete.
+     * @return The future that completes when the data has been deleted.
+     */
+    public CompletableFuture<Void> deleteStoredDataAsync(long id) {
+        return executor.submit(() -> {
+            deleteStoredData(id);
+            return null;
+        });
+    }
+
+    /**
+     * Reads all rows of the data store through a forward-only cursor.
+     * The connection is held until all rows have been passed to the consumer.
+     *
+     * @param fetchSize the number of rows to read at a time
+     * @param consumer  receives the rows. The array of values is reused for the next row.
+     * @throws IOException if the consumer fails
+     */
+    @Override
+    public void scanRows(int fetchSize, RowConsumer consumer) throws IOException {
+        if (writeBehindQueue != null)
+            writeBehindQueue.flush();
+
+        try (var connection = getReadConnection();
+             PreparedStatement ps = connection.prepareStatement(statements.selectAll(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            dialect.setStreamingFetch(ps, fetchSize);
+            if (expiring)
+                ps.setLong(1, System.currentTimeMillis());
             try (var resultSet = ps.executeQuery()) {
-                if (resultSet.next())
-                    return resultSet.getObject(key, type);
-                return null;
+                Object[] values = new Object[columnNames.length];
+                while (resultSet.next()) {
+                    for (int i = 0; i < values.length; i++)
+                        values[i] = readColumn(resultSet, i + 2, i);
+                    consumer.accept(resultSet.getLong(1), values);
+                }
             }
         } catch (SQLException e) {
             throw new DataStoreException(e);
         }
     }
 
-    private void set(long id, Object... values) {
-        StringBuilder statement = new StringBuilder("INSERT INTO " + name + " (id, ");
-        indexes.keySet().forEach(key -> statement.append(key).append(", "));
-        statement.delete(statement.length() - 2, statement.length());
-        statement.append(") VALUES (?, ");
-        indexes.keySet().forEach(key -> statement.append("?, "));
-        statement.delete(statement.length() - 2, statement.length());
-        statement.append(") ON DUPLICATE KEY UPDATE ");
-        indexes.keySet().forEach(key -> statement.append(key).append(" = ?, "));
-        statement.delete(statement.length() - 2, statement.length());
+    /**
+     * Registers many rows with a single batch in a single transaction.
+     *
+     * @param ids   the guild ids of the rows
+     * @param rows  the values of the rows in column order
+     * @param count the number of rows to register from the start of the arrays
+     */
+    @Override
+    public void registerStoreRows(long[] ids, Object[][] rows, int count) {
+        if (writeBehindQueue != null) // do not let an older pending write overwrite the registered rows.
+            writeBehindQueue.flush();
+
+        awaitSchema();
+        lockWrite();
+        long start = System.nanoTime();
+        try (var connection = getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement ps = connection.prepareStatement(statements.upsert())) {
+                long expiresAt = System.currentTimeMillis() + timeToLive;
+                for (int i = 0; i < count; i++) {
+                    if (rows[i].length != columnNames.length)
+                        throw new IllegalArgumentException("The number of values must be equal to the number of indexes.");
+                    bindUpsert(ps, ids[i], rows[i], expiresAt);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                connection.commit();
+                for (int i = 0; i < count; i++)
+                    publishChange(ids[i]);
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            metrics.record(DataStoreMetrics.Operation.UPSERT, start);
+        } catch (SQLException e) {
+            metrics.recordError(DataStoreMetrics.Operation.UPSERT, start);
+            throw new DataStoreException(e);
+        } finally {
+            unlockWrite();
+            if (cache != null) {
+                for (int i = 0; i < count; i++)
+                    cache.invalidate(ids[i]);
+            }
+        }
+    }
+
+    /**
+     * Writes the rows collected by the {@link WriteBehindQueue} in batches.
+     * Rows registered as a whole are upserted, other rows are updated column by column.
+     *
+     * @param rows      the rows to write
+     * @param batchSize the maximum number of statements in a batch
+     * @throws SQLException if the write fails
+     */
+    void writePendingRows(Map<Long, WriteBehindQueue.PendingRow> rows, int batchSize) throws SQLException {
+        awaitSchema();
+        lockWrite();
+        long start = System.nanoTime();
+        try (var connection = getConnection()) {
+            try (PreparedStatement ps = connection.prepareStatement(statements.upsert())) {
+                long expiresAt = System.currentTimeMillis() + timeToLive;
+                int count = 0;
+                for (var entry : rows.entrySet()) {
+                    if (!entry.getValue().insert)
+                        continue;
+                    bindUpsert(ps, entry.getKey(), entry.getValue().values, expiresAt);
+                    ps.addBatch();
+                    if (++count % batchSize == 0)
+                        ps.executeBatch();
+                }
+                if (count % batchSize != 0)
+                    ps.executeBatch();
+            }
+
+            for (int column = 0; column < columnNames.length; column++) {
+                try (PreparedStatement ps = connection.prepareStatement(statements.update(column))) {
+                    int count = 0;
+                    for (var entry : rows.entrySet()) {
+                        Object value = entry.getValue().values[column];
+                        if (entry.getValue().insert || value == DataStoreCache.MISS)
+                            continue;
+                        ps.setObject(1, value);
+                        ps.setLong(2, entry.getKey());
+                        if (expiring)
+                            ps.setLong(3, System.currentTimeMillis());
+                        ps.addBatch();
+                        if (++count % batchSize == 0)
+                            ps.executeBatch();
+                    }
+                    if (count % batchSize != 0)
+                        ps.executeBatch();
+                }
+            }
+            for (long id : rows.keySet())
+                publishChange(id);
+            metrics.record(DataStoreMetrics.Operation.UPSERT, start);
+        } catch (SQLException e) {
+            metrics.recordError(DataStoreMetrics.Operation.UPSERT, start);
+            throw e;
+        } finally {
+            unlockWrite();
+        }
+    }
 
-        try (var connection = connector.getConnection();
-             PreparedStatement ps = connection.prepareStatement(statement.toString())) {
+    private void delete(long id) {
+        awaitSchema();
+        lockWrite();
+        long start = System.nanoTime();
+        try (var connection = getConnection();
+             PreparedStatement ps = connection.prepareStatement(statements.delete())) {
             ps.setLong(1, id);
-            for (int i = 0; i < values.length; i++) {
-                ps.setObject(i + 2, values[i]);
-                ps.setObject(i + values.length + 2, values[i]); // duplicate key update statement parameter
+            if (ps.executeUpdate() > 0)
+                publishChange(id);
+            metrics.record(DataStoreMetrics.Operation.DELETE, start);
+        } catch (SQLException e) {
+            metrics.recordError(DataStoreMetrics.Operation.DELETE, start);
+            throw new DataStoreException(e);
+        } finally {
+            unlockWrite();
+            if (cache != null)
+                cache.invalidate(id);
+        }
+    }
+
+    /**
+     * Reads a value from the database and stores it in the cache, if it is enabled.
+     */
+    private Object get(long id, int column, long sequence) {
+        awaitSchema();
+        long start = System.nanoTime();
+        try (var connection = getReadConnection();
+             PreparedStatement ps = connection.prepareStatement(statements.select(column))) {
+            ps.setLong(1, id);
+            if (expiring)
+                ps.setLong(2, System.currentTimeMillis());
+            try (var resultSet = ps.executeQuery()) {
+                Object value = null;
+                long expiresAt = Long.MAX_VALUE;
+                if (resultSet.next()) {
+                    value = readColumn(resultSet, 1, column);
+                    expiresAt = readExpiry(resultSet, 2);
+                }
+                metrics.record(DataStoreMetrics.Operation.GET, start);
+                if (cache != null)
+                    cache.fill(id, column, value, sequence, expiresAt);
+                return value;
             }
+        } catch (SQLException e) {
+            metrics.recordError(DataStoreMetrics.Operation.GET, start);
+            throw new DataStoreException(e);
+        }
+    }
+
+    private void set(long id, Object[] values, long expiresAt) {
+        awaitSchema();
+        lockWrite();
+        long start = System.nanoTime();
+        try (var connection = getConnection();
+             PreparedStatement ps = connection.prepareStatement(statements.upsert())) {
+            bindUpsert(ps, id, values, expiresAt);
             ps.executeUpdate();
+            publishChange(id);
+            metrics.record(DataStoreMetrics.Operation.UPSERT, start);
         } catch (SQLException e) {
+            metrics.recordError(DataStoreMetrics.Operation.UPSERT, start);
             throw new DataStoreException(e);
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    /**
+     * Binds the values of a row, followed by the expiry if the rows of this data store expire.
+     */
+    private void bindUpsert(PreparedStatement ps, long id, Object[] values, long expiresAt) throws SQLException {
+        ps.setLong(1, id);
+        int count = expiring ? values.length + 1 : values.length;
+        for (int i = 0; i < count; i++) {
+            Object value = i < values.length ? values[i] : (Object) expiresAt;
+            ps.setObject(i + 2, value);
+            if (upsertValuesRepeated)
+                ps.setObject(i + count + 2, value); // duplicate key update statement parameter
         }
     }
 
-    private <T> void update(long id, String key, T value) {
-        try (var connection = connector.getConnection();
-             PreparedStatement ps = connection.prepareStatement(
-                     "UPDATE " + name + " SET " + key + " = ? WHERE id = ?")) {
+    private boolean update(long id, int column, Object value) {
+        awaitSchema();
+        lockWrite();
+        long start = System.nanoTime();
+        try (var connection = getConnection();
+             PreparedStatement ps = connection.prepareStatement(statements.update(column))) {
             ps.setObject(1, value);
             ps.setLong(2, id);
-            ps.executeUpdate();
+            if (expiring)
+                ps.setLong(3, System.currentTimeMillis());
+            boolean updated = ps.executeUpdate() > 0;
+            if (updated)
+                publishChange(id);
+            metrics.record(DataStoreMetrics.Operation.UPDATE, start);
+            return updated;
         } catch (SQLException e) {
+            metrics.recordError(DataStoreMetrics.Operation.UPDATE, start);
             throw new DataStoreException(e);
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    /**
+     * Called after a row has been written. Tells the other processes that the row has changed, if the caches are shared,
+     * and reads this data store from the primary for a while, so that the replicas cannot return the old value.
+     */
+    private void publishChange(long id) {
+        if (replicaRouter != null)
+            pinnedUntil = replicaRouter.pinDeadline();
+        if (invalidationChannel != null)
+            invalidationChannel.publish(name, id);
+    }
+
+    /**
+     * Called when another process has changed a row. Discards the cached row, and reads this data store from the primary
+     * for a while, so that a replica that has not applied the change yet cannot put the old value back into the cache.
+     */
+    void onRemoteChange(long id) {
+        if (replicaRouter != null) // pinned before the cache is invalidated, so that no read started later fills from a replica.
+            pinnedUntil = replicaRouter.remoteChangeDeadline();
+        if (cache != null)
+            cache.invalidate(id);
+    }
+
+    /**
+     * Called when the changes of other processes may have been missed. Discards the whole cache.
+     *
+     * @see #onRemoteChange(long)
+     */
+    void onRemoteChangeAll() {
+        if (replicaRouter != null)
+            pinnedUntil = replicaRouter.remoteChangeDeadline();
+        if (cache != null)
+            cache.invalidateAll();
+    }
+
+    /**
+     * Returns a connection once the table of this data store is ready to use.
+     * The time spent waiting for the pool is recorded, the time spent waiting for the table is not.
+     * The operations wait for the table before they take the write lock and start their timer.
+     */
+    private Connection getConnection() throws SQLException {
+        awaitSchema();
+        long start = System.nanoTime();
+        var connection = connector.getConnection();
+        metrics.recordConnectionAcquire(start);
+        return connection;
+    }
+
+    /**
+     * Returns a connection for a read, to a read replica if they are enabled.
+     *
+     * @see ReadReplicaRouter#getReadConnection(long)
+     */
+    private Connection getReadConnection() throws SQLException {
+        if (replicaRouter == null)
+            return getConnection();
+        awaitSchema();
+        long start = System.nanoTime();
+        var connection = replicaRouter.getReadConnection(pinnedUntil);
+        metrics.recordConnectionAcquire(start);
+        return connection;
+    }
+
+    /**
+     * Waits until the table of this data store is ready to use.
+     * It must not be called with the write lock held, as the reconciliation of the table takes the lock as well.
+     */
+    private void awaitSchema() {
+        if (!ready) {
+            try {
+                schemaReady.join();
+            } catch (CompletionException e) {
+                throw new DataStoreGenerateException(e.getCause());
+            }
+            ready = true;
         }
     }
+
+    /**
+     * Waits until this thread may write, if the database allows only one writer at a time.
+     */
+    private void lockWrite() {
+        if (writeLock != null)
+            writeLock.lock();
+    }
+
+    private void unlockWrite() {
+        if (writeLock != null)
+            writeLock.unlock();
+    }
 }
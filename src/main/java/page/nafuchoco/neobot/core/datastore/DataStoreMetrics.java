@@ -0,0 +1,140 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore;
+
+import page.nafuchoco.neobot.core.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters and latencies of the database operations of a data store.
+ * <p>
+ * Only the operations that reach the database are recorded. Reads served by the cache are counted by {@link DataStoreCache}.
+ * Recording takes no lock and allocates nothing.
+ */
+public class DataStoreMetrics {
+    private final LongAdder[] counts;
+    private final LongAdder[] errors;
+    private final LatencyHistogram[] latencies;
+    private final LatencyHistogram connectionAcquire = new LatencyHistogram();
+
+    public DataStoreMetrics() {
+        int operations = Operation.values().length;
+        counts = new LongAdder[operations];
+        errors = new LongAdder[operations];
+        latencies = new LatencyHistogram[operations];
+        for (int i = 0; i < operations; i++) {
+            counts[i] = new LongAdder();
+            errors[i] = new LongAdder();
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Records a finished operation.
+     *
+     * @param operation  the operation
+     * @param startNanos the value of {@link System#nanoTime()} when the operation started
+     */
+    public void record(Operation operation, long startNanos) {
+        counts[operation.ordinal()].increment();
+        latencies[operation.ordinal()].recordSince(startNanos);
+    }
+
+    /**
+     * Records an operation that failed with an error.
+     *
+     * @param operation  the operation
+     * @param startNanos the value of {@link System#nanoTime()} when the operation started
+     */
+    public void recordError(Operation operation, long startNanos) {
+        errors[operation.ordinal()].increment();
+        record(operation, startNanos);
+    }
+
+    /**
+     * Records the time spent waiting for a connection from the pool.
+     *
+     * @param startNanos the value of {@link System#nanoTime()} when the connection was requested
+     */
+    public void recordConnectionAcquire(long startNanos) {
+        connectionAcquire.recordSince(startNanos);
+    }
+
+    /**
+     * @param operation the operation
+     * @return the number of times the operation has been executed, including the failed ones
+     */
+    public long getCount(Operation operation) {
+        return counts[operation.ordinal()].sum();
+    }
+
+    /**
+     * @param operation the operation
+     * @return the number of times the operation has failed
+     */
+    public long getErrorCount(Operation operation) {
+        return errors[operation.ordinal()].sum();
+    }
+
+    /**
+     * @param operation the operation
+     * @return the latencies of the operation, including the time to acquire the connection
+     */
+    public LatencyHistogram getLatency(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    /**
+     * @return the time spent waiting for a connection from the pool
+     */
+    public LatencyHistogram getConnectionAcquire() {
+        return connectionAcquire;
+    }
+
+    /**
+     * @return the number of operations of all kinds
+     */
+    public long getTotalCount() {
+        long total = 0;
+        for (LongAdder count : counts)
+            total += count.sum();
+        return total;
+    }
+
+    /**
+     * The kinds of database operations. Bulk operations are recorded once per statement batch, not once per row.
+     */
+    public enum Operation {
+        /**
+         * Reads of single values, rows, many guilds at once and queries on secondary indexes.
+         */
+        GET,
+        /**
+         * Updates of a single value of an existing row.
+         */
+        UPDATE,
+        /**
+         * Inserts or replacements of whole rows, including the writes of the write-behind queue.
+         */
+        UPSERT,
+        /**
+         * Deletes of rows.
+         */
+        DELETE
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of rows returned by a query on a secondary index.
+ * <p>
+ * Pages are read with keyset pagination: the cursor remembers the last row of the page,
+ * and the next page starts right after it, so later pages are as fast as the first one.
+ */
+public class DataStorePage {
+    private final List<DataStoreRow> rows;
+    private final Cursor next;
+
+    protected DataStorePage(@NotNull List<DataStoreRow> rows, @Nullable Cursor next) {
+        this.rows = Collections.unmodifiableList(rows);
+        this.next = next;
+    }
+
+    /**
+     * @return The rows of the page in the order of the query.
+     */
+    public List<DataStoreRow> getRows() {
+        return rows;
+    }
+
+    /**
+     * @return true if there are more rows after this page.
+     */
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    /**
+     * @return The cursor to pass to the same query to get the next page, or null if this is the last page.
+     */
+    public @Nullable Cursor getNext() {
+        return next;
+    }
+
+    @Override
+    public String toString() {
+        return "DataStorePage{" +
+                "rows=" + rows.size() +
+                ", next=" + next +
+                '}';
+    }
+
+    /**
+     * The position after the last row of a page.
+     *
+     * @param value the value of the queried column of the last row, which is only used by range queries
+     * @param id    the guild id of the last row
+     */
+    public record Cursor(@Nullable Object value, long id) {
+    }
+}
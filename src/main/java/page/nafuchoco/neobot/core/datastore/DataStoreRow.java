@@ -0,0 +1,88 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A whole row of a data store, loaded with a single query.
+ */
+public class DataStoreRow {
+    private final long id;
+    private final Map<String, Integer> columnPositions;
+    private final Object[] values;
+
+    protected DataStoreRow(long id, @NotNull Map<String, Integer> columnPositions, @NotNull Object[] values) {
+        this.id = id;
+        this.columnPositions = columnPositions;
+        this.values = values;
+    }
+
+    /**
+     * @return The guild id of the row.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Gets the value of the specified index.
+     *
+     * @param index The index of the data to get.
+     * @param <T>   The type of the data to get.
+     * @return The value of the index.
+     * @throws IllegalArgumentException If the index is not registered in the data store.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(@NotNull String index) {
+        Integer column = columnPositions.get(index);
+        if (column == null)
+            throw new IllegalArgumentException("Unknown index: " + index);
+        return (T) values[column];
+    }
+
+    /**
+     * @return The values of the row in the order of the indexes.
+     */
+    public Object[] getValues() {
+        return values.clone();
+    }
+
+    /**
+     * @return The values of the row keyed by index name, in the order of the indexes.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        columnPositions.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue())
+                .forEach(entry -> map.put(entry.getKey(), values[entry.getValue()]));
+        return Collections.unmodifiableMap(map);
+    }
+
+    @Override
+    public String toString() {
+        return "DataStoreRow{" +
+                "id=" + id +
+                ", values=" + Arrays.toString(values) +
+                '}';
+    }
+}
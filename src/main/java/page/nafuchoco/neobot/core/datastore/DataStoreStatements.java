@@ -0,0 +1,274 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore;
+
+import page.nafuchoco.neobot.core.datastore.dialect.SqlDialect;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * The SQL statements of a data store, generated once when the data store is built.
+ * <p>
+ * Reusing the same statement strings lets the JDBC driver serve them from its prepared statement cache.
+ * <p>
+ * If the rows of the data store expire, the reads select the {@value #EXPIRES_AT} column after the other columns
+ * and skip the expired rows. The current time is bound right after the other parameters of the WHERE clause.
+ */
+public class DataStoreStatements {
+    /**
+     * The maximum number of ids in a single IN clause of a bulk fetch.
+     */
+    public static final int BULK_FETCH_CHUNK_SIZE = 500;
+    /**
+     * The column that holds the time in epoch milliseconds at which a row expires, or null if it never expires.
+     */
+    public static final String EXPIRES_AT = "expires_at";
+
+    private final String table;
+    private final String[] columns;
+    private final boolean expiring;
+    private final String selectList;
+    private final String notExpired;
+
+    private final String[] selectStatements;
+    private final String[] updateStatements;
+    private final String[] bulkSelectStatements;
+    private final String bulkSelectRowsStatement;
+    private final String upsertStatement;
+    private final String selectAllStatement;
+    private final String deleteStatement;
+    private final String[] findByStatements;
+    private final String setExpiryStatement;
+    private final String selectExpiredStatement;
+    private final String deleteExpiredRowStatement;
+    private final String[] incrementStatements;
+    private final String[] compareAndSetStatements;
+    private final String[] compareNullAndSetStatements;
+    private final String[] upsertIncrementStatements;
+
+    /**
+     * @param dialect  the dialect of the database
+     * @param table    the table name including the prefix
+     * @param columns  the column names except the id, in order
+     * @param expiring true if the table has the {@value #EXPIRES_AT} column
+     */
+    public DataStoreStatements(SqlDialect dialect, String table, String[] columns, boolean expiring) {
+        this.table = table;
+        this.columns = columns.clone();
+        this.expiring = expiring;
+        selectList = String.join(", ", columns) + (expiring ? ", " + EXPIRES_AT : "");
+        notExpired = expiring ? " AND (" + EXPIRES_AT + " IS NULL OR " + EXPIRES_AT + " > ?)" : "";
+
+        selectStatements = new String[columns.length];
+        updateStatements = new String[columns.length];
+        bulkSelectStatements = new String[columns.length];
+        findByStatements = new String[columns.length];
+        incrementStatements = new String[columns.length];
+        compareAndSetStatements = new String[columns.length];
+        compareNullAndSetStatements = new String[columns.length];
+        upsertIncrementStatements = new String[columns.length];
+        String[] upsertColumns = columns;
+        if (expiring) {
+            upsertColumns = Arrays.copyOf(columns, columns.length + 1);
+            upsertColumns[columns.length] = EXPIRES_AT;
+        }
+        for (int i = 0; i < columns.length; i++) {
+            selectStatements[i] = "SELECT " + columns[i] + (expiring ? ", " + EXPIRES_AT : "") + " FROM " + table + " WHERE id = ?" + notExpired;
+            updateStatements[i] = "UPDATE " + table + " SET " + columns[i] + " = ? WHERE id = ?" + notExpired;
+            bulkSelectStatements[i] = generateBulkSelect(columns[i] + (expiring ? ", " + EXPIRES_AT : ""), BULK_FETCH_CHUNK_SIZE);
+            findByStatements[i] = generateFindBy(new int[]{i});
+            incrementStatements[i] = "UPDATE " + table + " SET " + columns[i] + " = COALESCE(" + columns[i] + ", 0) + ? WHERE id = ?" + notExpired;
+            compareAndSetStatements[i] = "UPDATE " + table + " SET " + columns[i] + " = ? WHERE id = ? AND " + columns[i] + " = ?" + notExpired;
+            compareNullAndSetStatements[i] = "UPDATE " + table + " SET " + columns[i] + " = ? WHERE id = ? AND " + columns[i] + " IS NULL" + notExpired;
+            upsertIncrementStatements[i] = dialect.upsertIncrement(table, upsertColumns, columns[i]);
+        }
+        bulkSelectRowsStatement = generateBulkSelect(selectList, BULK_FETCH_CHUNK_SIZE);
+        upsertStatement = dialect.upsert(table, upsertColumns);
+        selectAllStatement = "SELECT id, " + String.join(", ", columns) + " FROM " + table + (expiring ? " WHERE " + notExpired.substring(5) : "");
+        deleteStatement = "DELETE FROM " + table + " WHERE id = ?";
+        setExpiryStatement = "UPDATE " + table + " SET " + EXPIRES_AT + " = ? WHERE id = ?" + notExpired;
+        deleteExpiredRowStatement = "DELETE FROM " + table + " WHERE id = ? AND " + EXPIRES_AT + " <= ?";
+        selectExpiredStatement = "SELECT id FROM " + table + " WHERE " + EXPIRES_AT + " <= ? ORDER BY " + EXPIRES_AT + " LIMIT ?";
+    }
+
+    private String generateBulkSelect(String selectList, int count) {
+        return "SELECT id, " + selectList + " FROM " + table + " WHERE id IN (" + String.join(", ", Collections.nCopies(count, "?")) + ")" + notExpired;
+    }
+
+    private String generateFindBy(int[] findColumns) {
+        StringBuilder sb = new StringBuilder("SELECT id, " + selectList + " FROM " + table + " WHERE ");
+        for (int column : findColumns)
+            sb.append(columns[column]).append(" = ? AND ");
+        return sb.append("id > ?").append(notExpired).append(" ORDER BY id LIMIT ?").toString();
+    }
+
+    /**
+     * @return true if the rows of the data store expire
+     */
+    public boolean isExpiring() {
+        return expiring;
+    }
+
+    /**
+     * @param column the position of the column
+     * @return {@code SELECT column FROM table WHERE id = ?}
+     */
+    public String select(int column) {
+        return selectStatements[column];
+    }
+
+    /**
+     * @param column the position of the column
+     * @return {@code UPDATE table SET column = ? WHERE id = ?}
+     */
+    public String update(int column) {
+        return updateStatements[column];
+    }
+
+    /**
+     * @param column the position of the column
+     * @param count  the number of ids in the IN clause
+     * @return {@code SELECT id, column FROM table WHERE id IN (?, ...)}
+     */
+    public String bulkSelect(int column, int count) {
+        if (count == BULK_FETCH_CHUNK_SIZE)
+            return bulkSelectStatements[column];
+        return generateBulkSelect(columns[column] + (expiring ? ", " + EXPIRES_AT : ""), count);
+    }
+
+    /**
+     * @param count the number of ids in the IN clause
+     * @return {@code SELECT id, columns... FROM table WHERE id IN (?, ...)}
+     */
+    public String bulkSelectRows(int count) {
+        if (count == BULK_FETCH_CHUNK_SIZE)
+            return bulkSelectRowsStatement;
+        return generateBulkSelect(selectList, count);
+    }
+
+    /**
+     * @return the statement that inserts a row or updates it if the id already exists,
+     * with the {@value #EXPIRES_AT} column after the other columns if the rows expire
+     * @see SqlDialect#isUpsertValuesRepeated()
+     */
+    public String upsert() {
+        return upsertStatement;
+    }
+
+    /**
+     * @return {@code SELECT id, columns... FROM table}
+     */
+    public String selectAll() {
+        return selectAllStatement;
+    }
+
+    /**
+     * @return {@code DELETE FROM table WHERE id = ?}
+     */
+    public String delete() {
+        return deleteStatement;
+    }
+
+    /**
+     * @return {@code UPDATE table SET expires_at = ? WHERE id = ?}
+     */
+    public String setExpiry() {
+        return setExpiryStatement;
+    }
+
+    /**
+     * @return {@code SELECT id FROM table WHERE expires_at <= ? ORDER BY expires_at LIMIT ?}
+     */
+    public String selectExpired() {
+        return selectExpiredStatement;
+    }
+
+    /**
+     * @return {@code DELETE FROM table WHERE id = ? AND expires_at <= ?}
+     */
+    public String deleteExpiredRow() {
+        return deleteExpiredRowStatement;
+    }
+
+    /**
+     * @param column the position of the column
+     * @return {@code UPDATE table SET column = COALESCE(column, 0) + ? WHERE id = ?}
+     */
+    public String increment(int column) {
+        return incrementStatements[column];
+    }
+
+    /**
+     * @param column       the position of the column
+     * @param expectedNull true to compare the column with null
+     * @return {@code UPDATE table SET column = ? WHERE id = ? AND column = ?}, or {@code AND column IS NULL} if the expected value is null
+     */
+    public String compareAndSet(int column, boolean expectedNull) {
+        return expectedNull ? compareNullAndSetStatements[column] : compareAndSetStatements[column];
+    }
+
+    /**
+     * @param column the position of the column
+     * @return the statement that inserts a row or adds a delta to the column if the id already exists
+     * @see SqlDialect#upsertIncrement(String, String[], String)
+     */
+    public String upsertIncrement(int column) {
+        return upsertIncrementStatements[column];
+    }
+
+    /**
+     * @param count the number of ids in the IN clause
+     * @return {@code DELETE FROM table WHERE expires_at <= ? AND id IN (?, ...)}
+     */
+    public String deleteExpired(int count) {
+        return "DELETE FROM " + table + " WHERE " + EXPIRES_AT + " <= ? AND id IN (" + String.join(", ", Collections.nCopies(count, "?")) + ")";
+    }
+
+    /**
+     * @param findColumns the positions of the columns to compare
+     * @return {@code SELECT id, columns... FROM table WHERE column = ? AND ... AND id > ? ORDER BY id LIMIT ?}
+     */
+    public String findBy(int[] findColumns) {
+        if (findColumns.length == 1)
+            return findByStatements[findColumns[0]];
+        return generateFindBy(findColumns);
+    }
+
+    /**
+     * Generates the query of a range of values, ordered by the value and then by the id.
+     * The parameters are bound in the order from, to, the cursor value twice, the cursor id, the current time and the limit.
+     *
+     * @param column the position of the column
+     * @param from   true to bind the lower bound, inclusive
+     * @param to     true to bind the upper bound, exclusive
+     * @param after  true to bind the cursor of the previous page
+     * @return {@code SELECT id, columns... FROM table WHERE column >= ? AND column < ? AND (column > ? OR (column = ? AND id > ?)) ORDER BY column, id LIMIT ?}
+     */
+    public String findRange(int column, boolean from, boolean to, boolean after) {
+        String name = columns[column];
+        StringBuilder sb = new StringBuilder("SELECT id, " + selectList + " FROM " + table + " WHERE ");
+        sb.append(name).append(" IS NOT NULL");
+        if (from)
+            sb.append(" AND ").append(name).append(" >= ?");
+        if (to)
+            sb.append(" AND ").append(name).append(" < ?");
+        if (after)
+            sb.append(" AND (").append(name).append(" > ? OR (").append(name).append(" = ? AND id > ?))");
+        return sb.append(notExpired).append(" ORDER BY ").append(name).append(", id LIMIT ?").toString();
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore;
+
+import org.jetbrains.annotations.NotNull;
+import page.nafuchoco.neobot.api.DatabaseConnector;
+import page.nafuchoco.neobot.api.datastore.DataStore;
+import page.nafuchoco.neobot.api.datastore.exception.DataStoreException;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A unit of work that writes to several data stores in a single database transaction.
+ * <p>
+ * The operations are collected and sent when {@link #commit()} is called, on a single connection.
+ * Operations with the same statement are sent together as a batch, unless that would change the order
+ * of the operations on the same row. Either all operations are applied or none of them.
+ * <p>
+ * Only the data stores backed by the database can take part in a transaction. A transaction is not thread-safe.
+ */
+public class DataStoreTransaction {
+    private final DatabaseConnector connector;
+    private final Lock writeLock;
+    private final List<Step> steps = new ArrayList<>();
+    private boolean finished = false;
+
+    protected DataStoreTransaction(DatabaseConnector connector, Lock writeLock) {
+        this.connector = connector;
+        this.writeLock = writeLock;
+    }
+
+    /**
+     * Updates the data registered in the data store when the transaction is committed.
+     *
+     * @param dataStore the data store
+     * @param id        the guild id of the data to save
+     * @param index     the index of the data to save
+     * @param value     the value of the data to save
+     * @return this transaction
+     */
+    public DataStoreTransaction save(@NotNull DataStore dataStore, long id, @NotNull String index, Object value) {
+        return add(requireImpl(dataStore).prepareSave(id, index, value));
+    }
+
+    /**
+     * Registers the data with the id in the data store when the transaction is committed.
+     *
+     * @param dataStore the data store
+     * @param id        the guild id of the data to register
+     * @param values    the values of the data in the order of the indexes
+     * @return this transaction
+     */
+    public DataStoreTransaction register(@NotNull DataStore dataStore, long id, Object... values) {
+        return add(requireImpl(dataStore).prepareRegister(id, values));
+    }
+
+    /**
+     * Deletes the data of the id from the data store when the transaction is committed.
+     *
+     * @param dataStore the data store
+     * @param id        the guild id of the data to delete
+     * @return this transaction
+     */
+    public DataStoreTransaction delete(@NotNull DataStore dataStore, long id) {
+        return add(requireImpl(dataStore).prepareDelete(id));
+    }
+
+    /**
+     * Adds a delta to a numeric value when the transaction is committed.
+     *
+     * @param dataStore the data store
+     * @param id        the guild id of the data to increment
+     * @param index     the index of the data to increment. It must hold Integer or Long values.
+     * @param delta     the value to add
+     * @return this transaction
+     * @see DataStoreImpl#increment(long, String, long)
+     */
+    public DataStoreTransaction increment(@NotNull DataStore dataStore, long id, @NotNull String index, long delta) {
+        return add(requireImpl(dataStore).prepareIncrement(id, index, delta));
+    }
+
+    /**
+     * @return the number of operations collected so far
+     */
+    public int size() {
+        return steps.size();
+    }
+
+    /**
+     * Sends all operations in a single transaction and commits it.
+     * If any operation fails, the transaction is rolled back and nothing is written.
+     *
+     * @throws DataStoreException    if the transaction failed
+     * @throws IllegalStateException if the transaction has already been committed or discarded
+     */
+    public void commit() {
+        if (finished)
+            throw new IllegalStateException("The transaction has already been finished.");
+        finished = true;
+        if (steps.isEmpty())
+            return;
+
+        for (Step step : steps)
+            step.store().beforeTransaction(step.id());
+
+        boolean committed = false;
+        if (writeLock != null)
+            writeLock.lock();
+        try (var connection = connector.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                for (Map<String, List<Step>> segment : toSegments())
+                    executeSegment(connection, segment);
+                connection.commit();
+                committed = true;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new DataStoreException(e);
+        } finally {
+            if (writeLock != null)
+                writeLock.unlock();
+            for (Step step : steps)
+                step.store().afterTransaction(step.id(), committed);
+        }
+    }
+
+    /**
+     * Discards the collected operations without sending them.
+     */
+    public void discard() {
+        finished = true;
+        steps.clear();
+    }
+
+    private DataStoreTransaction add(Step step) {
+        if (finished)
+            throw new IllegalStateException("The transaction has already been finished.");
+        steps.add(step);
+        return this;
+    }
+
+    /**
+     * Splits the operations into segments in which the operations are grouped by statement.
+     * A new segment starts when a row is written again with a different statement, so that the order of the writes of a row is kept.
+     */
+    private List<Map<String, List<Step>>> toSegments() {
+        List<Map<String, List<Step>>> segments = new ArrayList<>();
+        Map<String, List<Step>> segment = new LinkedHashMap<>();
+        Map<RowKey, String> rowStatements = new HashMap<>();
+        for (Step step : steps) {
+            var key = new RowKey(step.store().getName(), step.id());
+            String previous = rowStatements.put(key, step.statement());
+            if (previous != null && !previous.equals(step.statement())) {
+                segments.add(segment);
+                segment = new LinkedHashMap<>();
+                rowStatements.clear();
+                rowStatements.put(key, step.statement());
+            }
+            segment.computeIfAbsent(step.statement(), statement -> new ArrayList<>()).add(step);
+        }
+        segments.add(segment);
+        return segments;
+    }
+
+    private void executeSegment(Connection connection, Map<String, List<Step>> segment) throws SQLException {
+        for (var group : segment.entrySet()) {
+            long start = System.nanoTime();
+            var first = group.getValue().get(0);
+            try (PreparedStatement ps = connection.prepareStatement(group.getKey())) {
+                if (group.getValue().size() == 1) {
+                    first.binder().bind(ps);
+                    ps.executeUpdate();
+                } else {
+                    for (Step step : group.getValue()) {
+                        step.binder().bind(ps);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+                first.store().getMetrics().record(first.operation(), start);
+            } catch (SQLException e) {
+                first.store().getMetrics().recordError(first.operation(), start);
+                throw e;
+            }
+        }
+    }
+
+    private static DataStoreImpl requireImpl(DataStore dataStore) {
+        if (!(dataStore instanceof DataStoreImpl impl))
+            throw new IllegalArgumentException("The data store " + dataStore.getName() + " is not backed by the database.");
+        return impl;
+    }
+
+    /**
+     * An operation of a transaction: a statement on the table of a data store and the parameters to bind to it.
+     *
+     * @param store     the data store
+     * @param id        the guild id of the row
+     * @param statement the statement
+     * @param operation the kind of operation, for the metrics of the data store
+     * @param binder    binds the parameters of the statement
+     */
+    record Step(DataStoreImpl store, long id, String statement, DataStoreMetrics.Operation operation, Binder binder) {
+    }
+
+    @FunctionalInterface
+    interface Binder {
+        void bind(PreparedStatement ps) throws SQLException;
+    }
+
+    private record RowKey(String store, long id) {
+    }
+}
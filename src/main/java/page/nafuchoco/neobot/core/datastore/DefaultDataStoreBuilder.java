@@ -16,29 +16,52 @@
 
 package page.nafuchoco.neobot.core.datastore;
 
+import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
 import page.nafuchoco.neobot.api.DatabaseConnector;
 import page.nafuchoco.neobot.api.datastore.DataStore;
 import page.nafuchoco.neobot.api.datastore.DataStoreBuilder;
-import page.nafuchoco.neobot.api.datastore.exception.DataStoreGenerateException;
+import page.nafuchoco.neobot.core.NeoBotConfig;
+import page.nafuchoco.neobot.core.datastore.codec.DataStoreCodec;
+import page.nafuchoco.neobot.core.datastore.dialect.SqlDialect;
 
-import java.sql.SQLException;
+import java.time.Duration;
 import java.util.*;
 
 import static org.apache.commons.lang3.CharSetUtils.count;
 
+@Slf4j
 public class DefaultDataStoreBuilder implements DataStoreBuilder {
+    private static final String SECONDARY_INDEX_INFIX = "_idx_";
+    private static final int MAX_INDEX_NAME_LENGTH = 64;
+
+    private final DefaultDataStoreManager manager;
     private final DatabaseConnector connector;
+    private final SqlDialect dialect;
+    private final NeoBotConfig.DataStoreSection config;
     private final Map<String, Class> indexes;
+    private final Map<String, DataStoreCodec> codecs;
+    private final List<String[]> secondaryIndexes;
     private String storeName;
+    private Boolean cacheEnabled;
+    private Boolean writeBehindEnabled;
+    private Boolean inMemory;
+    private Duration timeToLive;
 
-    protected DefaultDataStoreBuilder(DatabaseConnector connector) {
-        this.connector = connector;
+    protected DefaultDataStoreBuilder(DefaultDataStoreManager manager) {
+        this.manager = manager;
+        connector = manager.getConnector();
+        dialect = manager.getDialect();
+        config = manager.getConfig();
         indexes = new LinkedHashMap<>();
+        codecs = new HashMap<>();
+        secondaryIndexes = new ArrayList<>();
     }
 
     /**
      * Returns {@link DataStore}.
+     * The table of the data store is created or altered in the background,
+     * and the operations of the returned data store wait until it is ready.
      *
      * @return Built {@link DataStore}
      */
@@ -50,61 +73,74 @@ public class DefaultDataStoreBuilder implements DataStoreBuilder {
 
         storeName = toSnakeCase(storeName);
 
+        if (inMemory != null ? inMemory : config.getMemory().getStores().contains(storeName)) {
+            if (timeToLive != null)
+                log.warn("The rows of the data store {} do not expire because it is kept in memory.", storeName);
+            return manager.createMemoryDataStore(storeName, indexes, codecs);
+        }
+        if (timeToLive != null && indexes.containsKey(DataStoreStatements.EXPIRES_AT))
+            throw new IllegalStateException(DataStoreStatements.EXPIRES_AT + " is reserved for the expiry of the rows");
+
         // add an entry to store the guild id.
         var indexMap = new LinkedHashMap<String, Class>();
         indexMap.put("id", Long.class);
         indexMap.putAll(indexes);
+        if (timeToLive != null)
+            indexMap.put(DataStoreStatements.EXPIRES_AT, Long.class);
 
-        // create database tables corresponding to the data store.
-        try (var connection = connector.getConnection()) {
-            // check if the table exists.
-            try (var checkTableStatement = connection.prepareStatement("SELECT * FROM information_schema.TABLES WHERE TABLE_NAME = ?;")) {
-                checkTableStatement.setString(1, connector.getPrefix() + storeName);
-                var result = checkTableStatement.executeQuery();
-
-                if (result.getFetchSize() > 0) { // if the table exists, check if the index is correct.
-                    List<String> columnNames = new ArrayList<>();
-                    try (var columnsShowStatement = connection.prepareStatement("SHOW COLUMNS FROM " + connector.getPrefix() + storeName)) {
-                        var columnsInfoResult = columnsShowStatement.executeQuery();
-                        while (columnsInfoResult.next()) {
-                            columnNames.add(columnsInfoResult.getString("Field"));
-                        }
-                    }
-
-                    // Checks for non-matching items to determine if they should be added or deleted.
-                    List<String> addColumns = new ArrayList<>();
-                    for (var index : indexMap.entrySet()) {
-                        if (!columnNames.contains(index.getKey())) {
-                            addColumns.add(index.getKey());
-                        }
-                    }
-                    List<String> deleteColumns = new ArrayList<>();
-                    for (var columnName : columnNames) {
-                        if (!indexMap.containsKey(columnName)) {
-                            deleteColumns.add(columnName);
-                        }
-                    }
-
-                    // Alter the table to add or delete columns.
-                    try (var createTableStatement = connection.prepareStatement(generateAlterTableStatement(addColumns, deleteColumns))) {
-                        createTableStatement.execute();
-                    }
-                } else { // if the table does not exist, create a new table.
-                    try (var createTableStatement = connection.prepareStatement(generateCreateTableStatement(indexMap))) {
-                        createTableStatement.execute();
-
-                        // set unique index for the guild id.
-                        try (var createIndexStatement = connection.prepareStatement("CREATE UNIQUE INDEX IF NOT EXISTS " + storeName + "_id ON " + connector.getPrefix() + storeName + "(id)")) {
-                            createIndexStatement.execute();
-                        }
-                    }
-                }
+        // create database tables corresponding to the data store in the background.
+        var table = connector.getPrefix() + storeName;
+        var secondaryIndexStatements = new LinkedHashMap<String, String>();
+        for (String[] columns : secondaryIndexes) {
+            var indexColumns = new LinkedHashMap<String, Class>();
+            for (String column : columns) {
+                Class type = indexes.get(column);
+                if (type == null || type.equals(byte[].class))
+                    throw new IllegalStateException("secondary index column must be a registered non-binary index: " + column);
+                indexColumns.put(column, type);
             }
-        } catch (SQLException e) {
-            throw new DataStoreGenerateException(e);
+            indexColumns.put("id", Long.class); // lets the pages of a query continue from the last id.
+            var indexName = toIndexName(table, columns);
+            secondaryIndexStatements.put(indexName, dialect.createIndex(indexName, table, indexColumns));
+        }
+        if (timeToLive != null) { // lets the sweeper find the expired rows without scanning the table.
+            var indexName = toIndexName(table, new String[]{DataStoreStatements.EXPIRES_AT});
+            secondaryIndexStatements.put(indexName, dialect.createIndex(indexName, table, Map.of(DataStoreStatements.EXPIRES_AT, Long.class)));
         }
+        var schemaReady = manager.getSchemaReconciler().submit(table, indexMap,
+                dialect.createTable(table, indexMap), dialect.createUniqueIndex(storeName + "_id", table, "id"),
+                secondaryIndexStatements, table + SECONDARY_INDEX_INFIX);
 
-        return new DataStoreImpl(connector, storeName, indexes);
+        var dataStore = new DataStoreImpl(connector, dialect, storeName, indexes, codecs, secondaryIndexes,
+                timeToLive != null ? timeToLive.toMillis() : 0, createCache(), manager.getExecutor(), schemaReady);
+        manager.enableInvalidation(dataStore);
+        manager.enableReadReplicas(dataStore);
+        manager.enableExpiry(dataStore);
+        if (writeBehindEnabled != null ? writeBehindEnabled : config.getWriteBehind().isEnabled())
+            manager.enableWriteBehind(dataStore, indexes.size());
+        return dataStore;
+    }
+
+    /**
+     * Creates a cache for the data store if it is enabled.
+     */
+    private DataStoreCache createCache() {
+        var cacheConfig = config.getCache();
+        if (!(cacheEnabled != null ? cacheEnabled : cacheConfig.isEnabled()))
+            return null;
+        return new DataStoreCache(indexes.size(), cacheConfig.getMaximumSize(), cacheConfig.getExpireAfterWrite());
+    }
+
+    /**
+     * Generates the name of a secondary index from the table and its columns.
+     * Names longer than the databases accept are shortened and suffixed with a hash of the full name.
+     */
+    private String toIndexName(String table, String[] columns) {
+        var name = table + SECONDARY_INDEX_INFIX + String.join("_", columns);
+        if (name.length() <= MAX_INDEX_NAME_LENGTH)
+            return name;
+        var hash = String.format("%08x", name.hashCode());
+        return name.substring(0, MAX_INDEX_NAME_LENGTH - hash.length() - 1) + "_" + hash;
     }
 
     /**
@@ -126,55 +162,6 @@ public class DefaultDataStoreBuilder implements DataStoreBuilder {
         return sb.toString();
     }
 
-    /**
-     * Obtains the corresponding database type string from the class type.
-     */
-    private String getTypeString(Class type) {
-        if (type.equals(String.class)) {
-            return "TEXT";
-        } else if (type.equals(Integer.class)) {
-            return "INTEGER";
-        } else if (type.equals(Long.class)) {
-            return "BIGINT";
-        } else if (type.equals(Double.class)) {
-            return "DOUBLE";
-        } else if (type.equals(Boolean.class)) {
-            return "BOOLEAN";
-        } else {
-            throw new IllegalArgumentException("Unsupported type: " + type);
-        }
-    }
-
-    /**
-     * Generate a createTable statement from a column list.
-     */
-    private String generateCreateTableStatement(Map<String, Class> columns) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("CREATE TABLE IF NOT EXISTS ").append(connector.getPrefix()).append(storeName).append(" (");
-        for (Map.Entry<String, Class> entry : columns.entrySet()) {
-            sb.append(toSnakeCase(entry.getKey())).append(" ").append(getTypeString(entry.getValue())).append(", ");
-        }
-        sb.delete(sb.length() - 2, sb.length()).append(")");
-        return sb.toString();
-    }
-
-    /**
-     * Generate an alterTable statement from a add column list and a delete column list.
-     */
-    private String generateAlterTableStatement(List<String> addColumns, List<String> deleteColumns) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("ALTER TABLE ").append(connector.getPrefix()).append(storeName).append(" ");
-        for (String addColumn : addColumns) {
-            sb.append("ADD COLUMN ").append(toSnakeCase(addColumn)).append(" ").append(getTypeString(indexes.get(addColumn))).append(", ");
-        }
-        for (String deleteColumn : deleteColumns) {
-            sb.append("DROP COLUMN ").append(toSnakeCase(deleteColumn)).append(", ");
-        }
-        sb.delete(sb.length() - 2, sb.length());
-        return sb.toString();
-    }
-
-
     /**
      * Sets the name of the data store.
      *
@@ -198,10 +185,28 @@ public class DefaultDataStoreBuilder implements DataStoreBuilder {
      */
     @Override
     public DataStoreBuilder addIndex(@NotNull Class clazz, @NotNull String indexName) {
-        getTypeString(clazz); // check the type is supported
+        dialect.getTypeString(clazz); // check the type is supported
         Objects.requireNonNull(indexName);
 
         indexes.put(indexName, clazz);
+        codecs.remove(indexName);
+        return this;
+    }
+
+    /**
+     * Register a data item whose values are converted to bytes by the codec and saved in a single BLOB column.
+     * The values are passed to and returned from the data store as instances of the type of the codec.
+     *
+     * @param codec     the codec that converts the values
+     * @param indexName the name of the index<br>
+     *                  This name is usually recommended for Camel case or Snake case.
+     * @return this builder
+     */
+    public DefaultDataStoreBuilder addIndex(@NotNull DataStoreCodec<?> codec, @NotNull String indexName) {
+        Objects.requireNonNull(indexName);
+
+        indexes.put(indexName, byte[].class);
+        codecs.put(indexName, codec);
         return this;
     }
 
@@ -214,6 +219,80 @@ public class DefaultDataStoreBuilder implements DataStoreBuilder {
     @Override
     public DataStoreBuilder removeIndex(@NotNull String indexName) {
         indexes.remove(indexName);
+        codecs.remove(indexName);
+        return this;
+    }
+
+    /**
+     * Declares a secondary index on the data items, so that the data store can be queried by their values.
+     * Several data items make a composite index, which can be queried by its leading items.
+     * Binary data items cannot be indexed.
+     *
+     * @param indexNames the names of the data items to index, in order
+     * @return this builder
+     * @see DataStoreImpl#findBy(String[], Object[], DataStorePage.Cursor, int)
+     */
+    public DefaultDataStoreBuilder addSecondaryIndex(@NotNull String... indexNames) {
+        if (indexNames.length == 0)
+            throw new IllegalArgumentException("at least one index name must be specified");
+        for (String indexName : indexNames)
+            Objects.requireNonNull(indexName);
+
+        secondaryIndexes.removeIf(columns -> Arrays.equals(columns, indexNames));
+        secondaryIndexes.add(indexNames.clone());
+        return this;
+    }
+
+    /**
+     * Makes the rows of the data store expire after the specified time since they were registered.
+     * Expired rows are no longer returned and are deleted in the background.
+     * Updating a single value does not extend the time; use {@link DataStoreImpl#setExpiry(long, java.time.Instant)} for that.
+     * Data stores kept in memory ignore this setting.
+     *
+     * @param timeToLive the time after which a registered row expires
+     * @return this builder
+     */
+    public DefaultDataStoreBuilder timeToLive(@NotNull Duration timeToLive) {
+        if (timeToLive.toMillis() <= 0)
+            throw new IllegalArgumentException("timeToLive must be at least 1 millisecond");
+        this.timeToLive = timeToLive;
+        return this;
+    }
+
+    /**
+     * Sets whether to cache the values of the data store in memory.
+     * If not set, the value in the configuration file is used.
+     *
+     * @param cacheEnabled true to enable the cache
+     * @return this builder
+     */
+    public DefaultDataStoreBuilder cacheEnabled(boolean cacheEnabled) {
+        this.cacheEnabled = cacheEnabled;
+        return this;
+    }
+
+    /**
+     * Sets whether to collect the writes to the data store and write them in batches.
+     * If not set, the value in the configuration file is used.
+     *
+     * @param writeBehindEnabled true to enable write-behind
+     * @return this builder
+     */
+    public DefaultDataStoreBuilder writeBehindEnabled(boolean writeBehindEnabled) {
+        this.writeBehindEnabled = writeBehindEnabled;
+        return this;
+    }
+
+    /**
+     * Sets whether to keep the rows of the data store in memory instead of the database.
+     * The rows are saved to files in the data store directory and restored when the data store is built again.
+     * If not set, the data store is kept in memory if its name is listed in the configuration file.
+     *
+     * @param inMemory true to keep the data store in memory
+     * @return this builder
+     */
+    public DefaultDataStoreBuilder inMemory(boolean inMemory) {
+        this.inMemory = inMemory;
         return this;
     }
 }
@@ -16,28 +16,368 @@
 
 package page.nafuchoco.neobot.core.datastore;
 
+import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import page.nafuchoco.neobot.api.DatabaseConnector;
+import page.nafuchoco.neobot.api.IDatabaseType;
 import page.nafuchoco.neobot.api.datastore.DataStore;
 import page.nafuchoco.neobot.api.datastore.DataStoreBuilder;
 import page.nafuchoco.neobot.api.datastore.DataStoreManager;
+import page.nafuchoco.neobot.api.datastore.exception.DataStoreException;
+import page.nafuchoco.neobot.api.datastore.exception.DataStoreGenerateException;
+import page.nafuchoco.neobot.core.NeoBotConfig;
+import page.nafuchoco.neobot.core.datastore.codec.DataStoreCodec;
+import page.nafuchoco.neobot.core.datastore.dialect.SqlDialect;
+import page.nafuchoco.neobot.core.datastore.invalidation.ChangeLogInvalidationChannel;
+import page.nafuchoco.neobot.core.datastore.invalidation.InvalidationChannel;
+import page.nafuchoco.neobot.core.datastore.invalidation.LoopbackInvalidationChannel;
+import page.nafuchoco.neobot.core.datastore.transfer.DataStoreTransfer;
+import page.nafuchoco.neobot.core.datastore.transfer.TransferFormat;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+@Slf4j
 public class DefaultDataStoreManager implements DataStoreManager {
     private final DatabaseConnector connector;
+    private final SqlDialect dialect;
+    private final NeoBotConfig.DataStoreSection config;
     private final Map<String, DataStore> dataStoreMap;
+    private final List<WriteBehindQueue> writeBehindQueues;
+    private final List<MemoryDataStore> memoryDataStores;
+    private final ScheduledExecutorService scheduler;
+    // the write-behind flushes have a thread of their own, so that a slow batch does not hold up the other tasks.
+    private final ScheduledExecutorService writeBehindScheduler;
+    private final DataStoreExecutor executor;
+    private final SchemaReconciler schemaReconciler;
+    private final InvalidationChannel invalidationChannel;
+    private final Map<String, DataStoreImpl> invalidatedStores;
+    private final ReadReplicaRouter replicaRouter;
+    private final ExpirySweeper expirySweeper;
 
-    public DefaultDataStoreManager(DatabaseConnector connector) {
+    public DefaultDataStoreManager(DatabaseConnector connector, IDatabaseType databaseType, NeoBotConfig.DataStoreSection config) {
+        this(connector, Map.of(), databaseType, config);
+    }
+
+    /**
+     * @param connector    the connector of the primary database
+     * @param replicas     the connectors of the read replicas keyed by a name used in the logs. The manager closes them.
+     * @param databaseType the type of the database
+     * @param config       the settings of the data stores
+     */
+    public DefaultDataStoreManager(DatabaseConnector connector, Map<String, DatabaseConnector> replicas, IDatabaseType databaseType, NeoBotConfig.DataStoreSection config) {
         this.connector = connector;
-        dataStoreMap = new HashMap<>();
+        dialect = SqlDialect.of(databaseType);
+        this.config = config;
+        dataStoreMap = new ConcurrentHashMap<>();
+        writeBehindQueues = new CopyOnWriteArrayList<>();
+        memoryDataStores = new CopyOnWriteArrayList<>();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "DataStore-Scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writeBehindScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "DataStore-WriteBehind");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        schemaReconciler = new SchemaReconciler(connector, dialect, config.getSchemaParallelism());
+        executor = new DataStoreExecutor(config.getAsync().getConcurrency(), config.getAsync().getTimeout());
+
+        var flushInterval = config.getWriteBehind().getFlushInterval();
+        writeBehindScheduler.scheduleWithFixedDelay(this::flushAll, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        invalidatedStores = new ConcurrentHashMap<>();
+        invalidationChannel = createInvalidationChannel(config.getInvalidation());
+        if (invalidationChannel != null) {
+            invalidationChannel.setListener(new InvalidationChannel.InvalidationListener() {
+                @Override
+                public void onInvalidate(String storeName, long id) {
+                    var dataStore = invalidatedStores.get(storeName);
+                    if (dataStore != null)
+                        dataStore.onRemoteChange(id);
+                }
+
+                @Override
+                public void onInvalidateAll() {
+                    invalidatedStores.values().forEach(DataStoreImpl::onRemoteChangeAll);
+                }
+            });
+            var pollInterval = config.getInvalidation().getPollInterval();
+            scheduler.scheduleWithFixedDelay(invalidationChannel::poll, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+        }
+
+        if (!replicas.isEmpty()) {
+            var replication = config.getReplication();
+            replicaRouter = new ReadReplicaRouter(connector, dialect, replicas, replication.getMaxLag(), replication.getReadYourWritesWindow());
+            scheduler.scheduleWithFixedDelay(replicaRouter::checkHealth, 0, replication.getHealthCheckInterval(), TimeUnit.MILLISECONDS);
+        } else {
+            replicaRouter = null;
+        }
+
+        var expiry = config.getExpiry();
+        expirySweeper = new ExpirySweeper(expiry.getSweepInterval(), expiry.getBatchSize(), expiry.getBatchDelay(), expiry.getMaxBatches());
+
+        var memoryFlushInterval = config.getMemory().getFlushInterval();
+        scheduler.scheduleWithFixedDelay(this::flushMemoryDataStores, memoryFlushInterval, memoryFlushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private InvalidationChannel createInvalidationChannel(NeoBotConfig.InvalidationSection invalidationConfig) {
+        return switch (invalidationConfig.getType()) {
+            case NONE -> null;
+            case LOOPBACK -> new LoopbackInvalidationChannel();
+            case CHANGE_LOG -> new ChangeLogInvalidationChannel(connector, dialect, connector.getPrefix() + "datastore_changes",
+                    invalidationConfig.getBatchSize(), invalidationConfig.getRetention());
+        };
     }
 
     @Override
     public DataStoreBuilder createDataStoreBuilder() {
-        return new DefaultDataStoreBuilder(connector);
+        return new DefaultDataStoreBuilder(this);
+    }
+
+    DatabaseConnector getConnector() {
+        return connector;
+    }
+
+    SqlDialect getDialect() {
+        return dialect;
+    }
+
+    DataStoreExecutor getExecutor() {
+        return executor;
+    }
+
+    SchemaReconciler getSchemaReconciler() {
+        return schemaReconciler;
+    }
+
+    NeoBotConfig.DataStoreSection getConfig() {
+        return config;
+    }
+
+    /**
+     * Makes the data store collect its writes and flush them in batches.
+     */
+    void enableWriteBehind(DataStoreImpl dataStore, int columnCount) {
+        var writeBehindConfig = config.getWriteBehind();
+        var queue = new WriteBehindQueue(dataStore, columnCount,
+                writeBehindConfig.getBatchSize(), writeBehindConfig.getMaxPending(), writeBehindConfig.getMaxRetries(),
+                writeBehindConfig.getMaxPendingWait(), writeBehindScheduler);
+        dataStore.setWriteBehindQueue(queue);
+        writeBehindQueues.add(queue);
+    }
+
+    /**
+     * Makes the data store tell other processes about its writes, and discard the cached values written by them.
+     */
+    void enableInvalidation(DataStoreImpl dataStore) {
+        if (invalidationChannel == null)
+            return;
+        dataStore.setInvalidationChannel(invalidationChannel);
+        if (dataStore.getCache() != null)
+            invalidatedStores.put(dataStore.getName(), dataStore);
+    }
+
+    /**
+     * Deletes the expired rows of the data store in the background, if its rows expire.
+     */
+    void enableExpiry(DataStoreImpl dataStore) {
+        if (dataStore.getTimeToLive() > 0)
+            expirySweeper.register(dataStore);
+    }
+
+    /**
+     * Routes the reads of the data store to the read replicas, if they are configured.
+     */
+    void enableReadReplicas(DataStoreImpl dataStore) {
+        dataStore.setReplicaRouter(replicaRouter);
+    }
+
+    /**
+     * Returns the router of the reads to the read replicas.
+     *
+     * @return the router, or null if no replica is configured
+     */
+    public @Nullable ReadReplicaRouter getReplicaRouter() {
+        return replicaRouter;
+    }
+
+    /**
+     * Creates a data store kept in memory and restores its rows from the data store directory.
+     */
+    MemoryDataStore createMemoryDataStore(String storeName, Map<String, Class> indexes, Map<String, DataStoreCodec> codecs) {
+        var name = connector.getPrefix() + storeName;
+        var dataStore = new MemoryDataStore(name, indexes, codecs,
+                new MemoryDataStoreFile(Path.of(config.getMemory().getDirectory()), name));
+        try {
+            dataStore.load();
+        } catch (IOException e) {
+            throw new DataStoreGenerateException(e);
+        }
+        memoryDataStores.add(dataStore);
+        return dataStore;
+    }
+
+    /**
+     * Writes all rows of a registered data store to a file.
+     *
+     * @param name   the name of the data store
+     * @param file   the file to write to
+     * @param format the format of the file
+     * @return the number of rows written and the time taken
+     * @throws IOException if the file could not be written
+     */
+    public DataStoreTransfer.Result exportDataStore(@NotNull String name, @NotNull Path file, @NotNull TransferFormat format) throws IOException {
+        return createTransfer().exportTo(getBulkDataStore(name), file, format);
+    }
+
+    /**
+     * Registers the rows of a file in a registered data store.
+     *
+     * @param name   the name of the data store
+     * @param file   the file to read from
+     * @param format the format of the file
+     * @return the number of rows registered and the time taken
+     * @throws IOException if the file could not be read
+     */
+    public DataStoreTransfer.Result importDataStore(@NotNull String name, @NotNull Path file, @NotNull TransferFormat format) throws IOException {
+        return createTransfer().importFrom(getBulkDataStore(name), file, format);
+    }
+
+    private DataStoreTransfer createTransfer() {
+        return new DataStoreTransfer(config.getTransfer().getFetchSize(), config.getTransfer().getBatchSize());
+    }
+
+    private BulkDataStore getBulkDataStore(String name) {
+        if (!(dataStoreMap.get(name) instanceof BulkDataStore dataStore))
+            throw new IllegalArgumentException("The data store " + name + " is not registered or cannot be transferred.");
+        return dataStore;
+    }
+
+    /**
+     * @return the names of the registered data stores
+     */
+    public Set<String> getDataStoreNames() {
+        return Set.copyOf(dataStoreMap.keySet());
+    }
+
+    /**
+     * Starts a unit of work that writes to several data stores in a single transaction on a single connection.
+     *
+     * @return the new transaction, which sends its operations when it is committed
+     */
+    public DataStoreTransaction beginTransaction() {
+        return new DataStoreTransaction(connector, dialect.getWriteLock());
+    }
+
+    /**
+     * Runs the action and commits the operations it has added to the transaction.
+     * Nothing is written if the action throws an exception.
+     *
+     * @param action the action that adds the operations
+     * @throws DataStoreException if the transaction failed
+     */
+    public void runInTransaction(@NotNull Consumer<DataStoreTransaction> action) {
+        var transaction = beginTransaction();
+        try {
+            action.accept(transaction);
+        } catch (RuntimeException e) {
+            transaction.discard();
+            throw e;
+        }
+        transaction.commit();
+    }
+
+    /**
+     * @return the metrics of the data stores backed by the database, keyed by data store name in name order
+     */
+    public Map<String, DataStoreMetrics> getMetrics() {
+        Map<String, DataStoreMetrics> metrics = new TreeMap<>();
+        for (DataStore dataStore : dataStoreMap.values()) {
+            if (dataStore instanceof DataStoreImpl impl)
+                metrics.put(impl.getName(), impl.getMetrics());
+        }
+        return metrics;
+    }
+
+    /**
+     * Waits until the tables of all data stores built so far are ready, and logs the time each of them took.
+     *
+     * @throws DataStoreGenerateException if the table of a data store could not be created or altered
+     */
+    public void awaitSchemaReconciliation() {
+        schemaReconciler.awaitAll();
+    }
+
+    /**
+     * Writes all pending writes of the data stores to the database.
+     */
+    public void flushAll() {
+        for (WriteBehindQueue queue : writeBehindQueues) {
+            try {
+                queue.flush();
+            } catch (RuntimeException e) {
+                log.error("An error occurred while flushing the pending writes.", e);
+            }
+        }
+    }
+
+    private void flushMemoryDataStores() {
+        for (MemoryDataStore dataStore : memoryDataStores) {
+            try {
+                dataStore.flush(config.getMemory().getCompactThreshold());
+            } catch (IOException e) {
+                log.error("Failed to write the journal of the data store {}.", dataStore.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Flushes all pending writes and stops the background tasks.
+     * Must be called before the database connection is closed.
+     */
+    public void close() {
+        scheduler.shutdown();
+        writeBehindScheduler.shutdown();
+        schemaReconciler.shutdown();
+        expirySweeper.shutdown();
+        try {
+            executor.shutdown(10000);
+            if (!scheduler.awaitTermination(10, TimeUnit.SECONDS) || !writeBehindScheduler.awaitTermination(10, TimeUnit.SECONDS))
+                log.warn("The data store tasks did not finish in time.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushAll();
+        if (invalidationChannel != null)
+            invalidationChannel.close();
+        if (replicaRouter != null)
+            replicaRouter.close();
+
+        int remaining = writeBehindQueues.stream().mapToInt(WriteBehindQueue::size).sum();
+        if (remaining > 0)
+            log.error("{} pending rows could not be written to the database.", remaining);
+
+        for (MemoryDataStore dataStore : memoryDataStores) {
+            try {
+                dataStore.close();
+            } catch (IOException e) {
+                log.error("Failed to save the data store {}.", dataStore.getName(), e);
+            }
+        }
     }
 
     @Override
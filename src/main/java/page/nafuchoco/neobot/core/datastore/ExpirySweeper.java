@@ -0,0 +1,99 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes the expired rows of the data stores built with a time to live.
+ * <p>
+ * The rows are deleted in small batches with a pause between them, and a sweep stops after a maximum number of batches,
+ * so that a large backlog of expired rows is purged over several sweeps instead of locking the table at once.
+ * Expired rows that have not been deleted yet are already hidden from the reads.
+ */
+@Slf4j
+public class ExpirySweeper {
+    private final List<DataStoreImpl> dataStores = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService executor;
+    private final int batchSize;
+    private final long batchDelay;
+    private final int maxBatches;
+
+    /**
+     * @param sweepInterval the interval in milliseconds between the end of a sweep and the start of the next
+     * @param batchSize     the maximum number of rows deleted by a single statement
+     * @param batchDelay    the pause in milliseconds between two batches
+     * @param maxBatches    the maximum number of batches per data store and sweep
+     */
+    public ExpirySweeper(long sweepInterval, int batchSize, long batchDelay, int maxBatches) {
+        this.batchSize = Math.max(1, batchSize);
+        this.batchDelay = batchDelay;
+        this.maxBatches = Math.max(1, maxBatches);
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "DataStore-Sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::sweep, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds a data store whose rows expire.
+     *
+     * @param dataStore the data store
+     */
+    public void register(DataStoreImpl dataStore) {
+        dataStores.add(dataStore);
+    }
+
+    private void sweep() {
+        for (DataStoreImpl dataStore : dataStores) {
+            long start = System.nanoTime();
+            int total = 0;
+            try {
+                for (int batch = 0; batch < maxBatches; batch++) {
+                    int deleted = dataStore.deleteExpired(batchSize);
+                    total += deleted;
+                    if (deleted < batchSize)
+                        break;
+                    Thread.sleep(batchDelay);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Failed to delete the expired rows of the data store {}.", dataStore.getName(), e);
+            }
+            if (total > 0)
+                log.debug("Deleted {} expired rows of the data store {} in {}ms.", total, dataStore.getName(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * Stops the sweeps. A running sweep is interrupted between two batches.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
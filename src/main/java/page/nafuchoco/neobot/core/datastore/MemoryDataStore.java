@@ -0,0 +1,632 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import page.nafuchoco.neobot.api.datastore.DataStore;
+import page.nafuchoco.neobot.api.datastore.exception.DataStoreException;
+import page.nafuchoco.neobot.core.datastore.codec.DataStoreCodec;
+import page.nafuchoco.neobot.core.util.LongIntHashMap;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link DataStore} that keeps all rows in memory, for data that changes often and does not need to be queried by SQL.
+ * <p>
+ * The values of each column are kept in a primitive array indexed by the position of the row,
+ * and the position is looked up from the guild id without boxing.
+ * Every write is appended to a journal, and the journal is folded into a snapshot file once it grows large enough.
+ * Both are read back when the data store is built again.
+ */
+@Slf4j
+public class MemoryDataStore implements BulkDataStore {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final String name;
+    private final Map<String, Integer> columnPositions;
+    private final String[] columnNames;
+    private final Column[] columns;
+    private final ColumnCodecs codecs;
+    private final MemoryDataStoreFile file;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Held while the journal and the snapshot are written, so that they reach the disk in the order they were taken.
+    // It is always taken before lock.
+    private final Object journalLock = new Object();
+
+    // Guarded by lock.
+    private final LongIntHashMap positions = new LongIntHashMap(INITIAL_CAPACITY);
+    private int[] freePositions = new int[16];
+    private int freeCount = 0;
+    private int rowCount = 0;
+    private int capacity = INITIAL_CAPACITY;
+
+    /**
+     * @param name    the name of the data store
+     * @param indexes the columns of the data store and their types
+     * @param codecs  the codecs of the columns that store encoded values, keyed by column name
+     * @param file    the files to persist the rows to
+     */
+    protected MemoryDataStore(@NotNull String name, @NotNull Map<String, Class> indexes, @NotNull Map<String, DataStoreCodec> codecs, @NotNull MemoryDataStoreFile file) {
+        this.name = name;
+        this.file = file;
+
+        var positions = new HashMap<String, Integer>();
+        for (String index : indexes.keySet())
+            positions.put(index, positions.size());
+        columnPositions = positions;
+        columnNames = indexes.keySet().toArray(new String[0]);
+        columns = new Column[columnNames.length];
+        int i = 0;
+        for (Class type : indexes.values())
+            columns[i++] = Column.of(type, capacity);
+        this.codecs = new ColumnCodecs(columnNames, codecs);
+    }
+
+    /**
+     * Restores the rows from the snapshot and the journal, and folds them into a new snapshot.
+     * Values that no longer match the type of their column are restored as null.
+     *
+     * @throws IOException if the files could not be read
+     */
+    void load() throws IOException {
+        lock.writeLock().lock();
+        try {
+            file.load(columnNames, new MemoryDataStoreFile.Replay() {
+                @Override
+                public void row(long id, Object[] values) {
+                    for (int i = 0; i < columns.length; i++)
+                        values[i] = columns[i].restore(values[i]);
+                    putRow(id, values);
+                }
+
+                @Override
+                public void update(long id, int column, Object value) {
+                    int position = positions.get(id);
+                    if (position != LongIntHashMap.NO_VALUE)
+                        columns[column].set(position, columns[column].restore(value));
+                }
+
+                @Override
+                public void delete(long id) {
+                    removeRow(id);
+                }
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+        snapshot();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the data stored in the data store.
+     *
+     * @param id    The guild id of the data to get.
+     * @param index The index of the data to get.
+     * @return The data stored in the data store, or null if there is no row.
+     */
+    @Override
+    public <T> T getStoreData(long id, String index) {
+        int column = requireColumn(index);
+        lock.readLock().lock();
+        try {
+            int position = positions.get(id);
+            if (position == LongIntHashMap.NO_VALUE)
+                return null;
+            return (T) codecs.decode(column, columns[column].get(position));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Update the data registered in the data store.
+     * Nothing is written if no row is registered with the id.
+     *
+     * @param id    The guild id of the data to save.
+     * @param index The index of the data to save.
+     * @param value The value of the data to save.
+     * @param <T>   The type of the data to save.
+     */
+    @Override
+    public <T> void saveStoreData(long id, String index, T value) {
+        int column = requireColumn(index);
+        Object stored = codecs.encode(column, value);
+        columns[column].check(stored);
+        lock.writeLock().lock();
+        try {
+            int position = positions.get(id);
+            if (position == LongIntHashMap.NO_VALUE)
+                return;
+            columns[column].set(position, stored);
+            file.appendUpdate(id, column, stored);
+        } catch (IOException e) {
+            throw new DataStoreException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Register the data with the new ID in the data store.
+     * An existing row with the same id is overwritten.
+     *
+     * @param id     The guild id of the data to register.
+     * @param values The values of the data to register.
+     *               The order of the values must be the same as the order of the indexes.
+     */
+    @Override
+    public void registerStoreData(Long id, Object... values) {
+        if (values.length != columns.length)
+            throw new IllegalArgumentException("The number of values must be equal to the number of indexes.");
+        values = codecs.encodeRow(values);
+        for (int i = 0; i < columns.length; i++)
+            columns[i].check(values[i]);
+
+        lock.writeLock().lock();
+        try {
+            putRow(id, values);
+            file.appendRow(id, values);
+        } catch (IOException e) {
+            throw new DataStoreException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes the data stored in the data store.
+     *
+     * @param id The guild id of the data to delete.
+     */
+    @Override
+    public void deleteStoredData(long id) {
+        lock.writeLock().lock();
+        try {
+            if (removeRow(id))
+                file.appendDelete(id);
+        } catch (IOException e) {
+            throw new DataStoreException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames.clone();
+    }
+
+    @Override
+    public Class[] getColumnTypes() {
+        return Arrays.stream(columns).map(column -> column.type).toArray(Class[]::new);
+    }
+
+    /**
+     * Reads all rows of the data store.
+     * The rows are copied a fetch at a time, so that writes are not blocked while the consumer runs.
+     *
+     * @param fetchSize the number of rows to read at a time
+     * @param consumer  receives the rows. The array of values is reused for the next row.
+     * @throws IOException if the consumer fails
+     */
+    @Override
+    public void scanRows(int fetchSize, RowConsumer consumer) throws IOException {
+        long[] rowIds;
+        lock.readLock().lock();
+        try {
+            rowIds = new long[positions.size()];
+            int[] index = {0};
+            positions.forEach((id, position) -> rowIds[index[0]++] = id);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Object[][] fetched = new Object[fetchSize][columns.length];
+        boolean[] found = new boolean[fetchSize];
+        for (int start = 0; start < rowIds.length; start += fetchSize) {
+            int count = Math.min(fetchSize, rowIds.length - start);
+            lock.readLock().lock();
+            try {
+                for (int i = 0; i < count; i++) {
+                    int position = positions.get(rowIds[start + i]);
+                    found[i] = position != LongIntHashMap.NO_VALUE; // the row may have been deleted since.
+                    if (found[i]) {
+                        for (int column = 0; column < columns.length; column++)
+                            fetched[i][column] = columns[column].get(position);
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            for (int i = 0; i < count; i++) {
+                if (found[i])
+                    consumer.accept(rowIds[start + i], fetched[i]);
+            }
+        }
+    }
+
+    @Override
+    public void registerStoreRows(long[] ids, Object[][] rows, int count) {
+        for (int i = 0; i < count; i++) {
+            if (rows[i].length != columns.length)
+                throw new IllegalArgumentException("The number of values must be equal to the number of indexes.");
+            for (int column = 0; column < columns.length; column++)
+                columns[column].check(rows[i][column]);
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < count; i++) {
+                putRow(ids[i], rows[i]);
+                file.appendRow(ids[i], rows[i]);
+            }
+        } catch (IOException e) {
+            throw new DataStoreException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of rows stored in the data store.
+     *
+     * @return the number of rows
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return positions.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the buffered journal entries to the file,
+     * and replaces the snapshot if the journal has grown larger than the threshold.
+     *
+     * @param compactThreshold the size of the journal in bytes that triggers a new snapshot
+     * @throws IOException if the files could not be written
+     */
+    void flush(long compactThreshold) throws IOException {
+        synchronized (journalLock) {
+            // Writes are only blocked while the entries are taken, and the disk is written to without holding the lock.
+            byte[] entries;
+            lock.readLock().lock();
+            try {
+                entries = file.getJournalSize() >= compactThreshold ? null : file.takeJournal();
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (entries == null) {
+                snapshot();
+            } else {
+                try {
+                    file.writeJournal(entries);
+                } catch (IOException | RuntimeException e) {
+                    restoreJournal(entries);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes all rows to a new snapshot and empties the journal.
+     *
+     * @throws IOException if the files could not be written
+     */
+    void snapshot() throws IOException {
+        synchronized (journalLock) {
+            // The rows are copied so that the snapshot is written without holding the lock.
+            int columnCount = columns.length;
+            long[] rowIds;
+            Object[] values;
+            byte[] entries;
+            lock.readLock().lock();
+            try {
+                int count = positions.size();
+                rowIds = new long[count];
+                values = new Object[count * columnCount];
+                int[] index = {0};
+                positions.forEach((id, position) -> {
+                    rowIds[index[0]] = id;
+                    for (int column = 0; column < columnCount; column++)
+                        values[index[0] * columnCount + column] = columns[column].get(position);
+                    index[0]++;
+                });
+                // The entries not yet written to the journal are part of the copied rows.
+                entries = file.takeJournal();
+            } finally {
+                lock.readLock().unlock();
+            }
+            try {
+                file.writeSnapshot(columnNames, rowIds, (row, column) -> values[row * columnCount + column]);
+            } catch (IOException | RuntimeException e) {
+                restoreJournal(entries);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Puts back the journal entries that could not be written, so that the next flush writes them.
+     */
+    private void restoreJournal(byte[] entries) {
+        lock.readLock().lock();
+        try {
+            file.restoreJournal(entries);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes a snapshot and closes the journal.
+     */
+    void close() throws IOException {
+        synchronized (journalLock) {
+            lock.writeLock().lock();
+            try {
+                snapshot();
+                file.close();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void putRow(long id, Object[] values) {
+        int position = positions.get(id);
+        if (position == LongIntHashMap.NO_VALUE) {
+            position = allocatePosition();
+            positions.put(id, position);
+        }
+        for (int i = 0; i < columns.length; i++)
+            columns[i].set(position, i < values.length ? values[i] : null);
+    }
+
+    private boolean removeRow(long id) {
+        int position = positions.remove(id);
+        if (position == LongIntHashMap.NO_VALUE)
+            return false;
+        for (Column column : columns)
+            column.set(position, null); // release the references to the values.
+        if (freeCount == freePositions.length)
+            freePositions = Arrays.copyOf(freePositions, freeCount << 1);
+        freePositions[freeCount++] = position;
+        return true;
+    }
+
+    private int allocatePosition() {
+        if (freeCount > 0)
+            return freePositions[--freeCount];
+        if (rowCount == capacity) {
+            capacity <<= 1;
+            for (Column column : columns)
+                column.grow(capacity);
+        }
+        return rowCount++;
+    }
+
+    private int requireColumn(String index) {
+        Integer column = columnPositions.get(index);
+        if (column == null)
+            throw new IllegalArgumentException("The index " + index + " is not registered in the data store " + name + ".");
+        return column;
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryDataStore{" +
+                "name='" + name + '\'' +
+                ", size=" + size() +
+                '}';
+    }
+
+    /**
+     * The values of a single column, stored in an array of the primitive type where possible.
+     */
+    private abstract static class Column {
+        private final Class type;
+        private final BitSet nulls = new BitSet();
+
+        private Column(Class type) {
+            this.type = type;
+        }
+
+        static Column of(Class type, int capacity) {
+            if (type.equals(Long.class))
+                return new LongColumn(capacity);
+            else if (type.equals(Integer.class))
+                return new IntColumn(capacity);
+            else if (type.equals(Double.class))
+                return new DoubleColumn(capacity);
+            else if (type.equals(Boolean.class))
+                return new BooleanColumn(capacity);
+            else
+                return new ObjectColumn(type, capacity);
+        }
+
+        void check(Object value) {
+            if (value != null && !type.isInstance(value))
+                throw new IllegalArgumentException("The value " + value + " is not an instance of " + type.getSimpleName() + ".");
+        }
+
+        Object restore(Object value) {
+            return type.isInstance(value) ? value : null;
+        }
+
+        Object get(int position) {
+            return nulls.get(position) ? null : getValue(position);
+        }
+
+        void set(int position, Object value) {
+            nulls.set(position, value == null);
+            if (value != null)
+                setValue(position, value);
+        }
+
+        abstract Object getValue(int position);
+
+        abstract void setValue(int position, Object value);
+
+        abstract void grow(int capacity);
+    }
+
+    private static class LongColumn extends Column {
+        private long[] values;
+
+        private LongColumn(int capacity) {
+            super(Long.class);
+            values = new long[capacity];
+        }
+
+        @Override
+        Object getValue(int position) {
+            return values[position];
+        }
+
+        @Override
+        void setValue(int position, Object value) {
+            values[position] = (Long) value;
+        }
+
+        @Override
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    private static class IntColumn extends Column {
+        private int[] values;
+
+        private IntColumn(int capacity) {
+            super(Integer.class);
+            values = new int[capacity];
+        }
+
+        @Override
+        Object getValue(int position) {
+            return values[position];
+        }
+
+        @Override
+        void setValue(int position, Object value) {
+            values[position] = (Integer) value;
+        }
+
+        @Override
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    private static class DoubleColumn extends Column {
+        private double[] values;
+
+        private DoubleColumn(int capacity) {
+            super(Double.class);
+            values = new double[capacity];
+        }
+
+        @Override
+        Object getValue(int position) {
+            return values[position];
+        }
+
+        @Override
+        void setValue(int position, Object value) {
+            values[position] = (Double) value;
+        }
+
+        @Override
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    private static class BooleanColumn extends Column {
+        private final BitSet values = new BitSet();
+
+        private BooleanColumn(int capacity) {
+            super(Boolean.class);
+        }
+
+        @Override
+        Object getValue(int position) {
+            return values.get(position);
+        }
+
+        @Override
+        void setValue(int position, Object value) {
+            values.set(position, (Boolean) value);
+        }
+
+        @Override
+        void grow(int capacity) {
+            // BitSet grows by itself.
+        }
+    }
+
+    private static class ObjectColumn extends Column {
+        private Object[] values;
+
+        private ObjectColumn(Class type, int capacity) {
+            super(type);
+            values = new Object[capacity];
+        }
+
+        @Override
+        Object get(int position) {
+            return values[position];
+        }
+
+        @Override
+        void set(int position, Object value) {
+            values[position] = value;
+        }
+
+        @Override
+        Object getValue(int position) {
+            return values[position];
+        }
+
+        @Override
+        void setValue(int position, Object value) {
+            values[position] = value;
+        }
+
+        @Override
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+}
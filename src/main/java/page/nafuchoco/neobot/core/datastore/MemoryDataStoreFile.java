@@ -0,0 +1,477 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The files that persist the rows of a {@link MemoryDataStore}.
+ * <p>
+ * The snapshot holds all rows at a point in time and is read and written through a memory mapping.
+ * The journal holds the writes made after the snapshot, in the order they were made.
+ * Both files start with the names of the columns, so that values are restored by name after the columns have changed.
+ * A journal entry cut off by a crash is ignored.
+ * <p>
+ * Each snapshot has a generation, one higher than the one it replaces, and the journal records the generation
+ * of the snapshot it continues. A crash after a new snapshot has been moved into place but before the journal
+ * has been emptied leaves a journal of an older generation, which is skipped instead of being replayed over newer rows.
+ * <p>
+ * Journal entries are appended to a buffer in memory, and are taken from it and written to the disk by the flushes,
+ * so that the disk is never waited for while the rows are locked.
+ */
+@Slf4j
+public class MemoryDataStoreFile {
+    private static final int SNAPSHOT_MAGIC = 0x4E42534E; // NBSN
+    private static final int JOURNAL_MAGIC = 0x4E424A4E; // NBJN
+    private static final int VERSION = 1;
+
+    private static final byte OP_ROW = 1;
+    private static final byte OP_UPDATE = 2;
+    private static final byte OP_DELETE = 3;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INTEGER = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_DOUBLE = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+    private static final byte TYPE_BYTES = 6;
+
+    private final Path snapshotPath;
+    private final Path journalPath;
+    private final ByteArrayOutputStream journalBuffer = new ByteArrayOutputStream(65536);
+    private final DataOutputStream journal = new DataOutputStream(journalBuffer);
+    private FileChannel journalChannel;
+    private long journalWritten;
+    private long generation;
+
+    /**
+     * @param directory the directory to put the files in
+     * @param name      the name of the data store
+     */
+    public MemoryDataStoreFile(Path directory, String name) {
+        snapshotPath = directory.resolve(name + ".snapshot");
+        journalPath = directory.resolve(name + ".journal");
+    }
+
+    /**
+     * Replays the snapshot and then the journal.
+     * The journal is not opened for writing until {@link #writeSnapshot(String[], long[], ValueSource)} is called.
+     *
+     * @param columnNames the current columns of the data store
+     * @param replay      receives the restored rows and writes
+     * @throws IOException if the files could not be read
+     */
+    void load(String[] columnNames, Replay replay) throws IOException {
+        Files.createDirectories(snapshotPath.getParent());
+        if (Files.exists(snapshotPath)) {
+            var buffer = map(snapshotPath);
+            if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != VERSION)
+                throw new IOException("The file " + snapshotPath + " is not a data store snapshot of a supported version.");
+            generation = buffer.getLong();
+            int[] mapping = readColumns(buffer, columnNames);
+            int rowCount = buffer.getInt();
+            for (int i = 0; i < rowCount; i++) {
+                long id = buffer.getLong();
+                replay.row(id, readRow(buffer, mapping, columnNames.length));
+            }
+            log.debug("Restored {} rows from {}.", rowCount, snapshotPath);
+        }
+
+        if (Files.exists(journalPath) && Files.size(journalPath) > 0)
+            replayJournal(columnNames, replay);
+    }
+
+    private void replayJournal(String[] columnNames, Replay replay) throws IOException {
+        var buffer = map(journalPath);
+        long journalGeneration;
+        int[] mapping;
+        try {
+            if (buffer.getInt() != JOURNAL_MAGIC || buffer.getInt() != VERSION)
+                throw new IOException("The file " + journalPath + " is not a data store journal of a supported version.");
+            journalGeneration = buffer.getLong();
+            mapping = readColumns(buffer, columnNames);
+        } catch (BufferUnderflowException e) {
+            log.warn("The journal {} ends within its header and is skipped.", journalPath);
+            return;
+        }
+        if (journalGeneration < generation) {
+            // the crash came after the snapshot was replaced, so the snapshot already holds the writes of the journal.
+            log.info("The journal {} is older than the snapshot and is skipped.", journalPath);
+            return;
+        }
+
+        int entries = 0;
+        try {
+            while (buffer.hasRemaining()) {
+                byte op = buffer.get();
+                long id = buffer.getLong();
+                switch (op) {
+                    case OP_ROW -> replay.row(id, readRow(buffer, mapping, columnNames.length));
+                    case OP_UPDATE -> {
+                        int column = mapping[buffer.getInt()];
+                        Object value = readValue(buffer);
+                        if (column >= 0)
+                            replay.update(id, column, value);
+                    }
+                    case OP_DELETE -> replay.delete(id);
+                    default -> throw new IllegalStateException("Unknown journal entry " + op + ".");
+                }
+                entries++;
+            }
+        } catch (BufferUnderflowException | IllegalStateException | IndexOutOfBoundsException e) {
+            log.warn("The journal {} ends with a broken entry. The writes after entry {} are lost.", journalPath, entries);
+        }
+        log.debug("Replayed {} journal entries from {}.", entries, journalPath);
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Reads the column names of a file and maps each of them to the position of the current column, or -1 if it has been removed.
+     */
+    private static int[] readColumns(ByteBuffer buffer, String[] columnNames) {
+        int[] mapping = new int[buffer.getInt()];
+        for (int i = 0; i < mapping.length; i++) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            String name = new String(bytes, StandardCharsets.UTF_8);
+            mapping[i] = -1;
+            for (int j = 0; j < columnNames.length; j++) {
+                if (columnNames[j].equals(name))
+                    mapping[i] = j;
+            }
+        }
+        return mapping;
+    }
+
+    private static Object[] readRow(ByteBuffer buffer, int[] mapping, int columnCount) {
+        Object[] values = new Object[columnCount];
+        for (int column : mapping) {
+            Object value = readValue(buffer);
+            if (column >= 0)
+                values[column] = value;
+        }
+        return values;
+    }
+
+    private static Object readValue(ByteBuffer buffer) {
+        byte type = buffer.get();
+        return switch (type) {
+            case TYPE_NULL -> null;
+            case TYPE_STRING -> {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                yield new String(bytes, StandardCharsets.UTF_8);
+            }
+            case TYPE_INTEGER -> buffer.getInt();
+            case TYPE_LONG -> buffer.getLong();
+            case TYPE_DOUBLE -> buffer.getDouble();
+            case TYPE_BOOLEAN -> buffer.get() != 0;
+            case TYPE_BYTES -> {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                yield bytes;
+            }
+            default -> throw new IllegalStateException("Unknown value type " + type + ".");
+        };
+    }
+
+    /**
+     * Writes all rows to a new snapshot, replaces the old one and empties the journal.
+     *
+     * @param columnNames the columns of the data store
+     * @param ids         the guild ids of the rows
+     * @param values      the values of the rows
+     * @throws IOException if the files could not be written
+     */
+    void writeSnapshot(String[] columnNames, long[] ids, ValueSource values) throws IOException {
+        long size = 24;
+        for (String name : columnNames)
+            size += 4 + utf8Length(name);
+        for (int row = 0; row < ids.length; row++) {
+            size += 8;
+            for (int column = 0; column < columnNames.length; column++)
+                size += valueLength(values.get(row, column));
+        }
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("The data store is too large to write a snapshot.");
+
+        var temporary = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(SNAPSHOT_MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putLong(generation + 1);
+            buffer.putInt(columnNames.length);
+            for (String name : columnNames)
+                putString(buffer, name);
+            buffer.putInt(ids.length);
+            for (int row = 0; row < ids.length; row++) {
+                buffer.putLong(ids[row]);
+                for (int column = 0; column < columnNames.length; column++)
+                    putValue(buffer, values.get(row, column));
+            }
+            buffer.force();
+        }
+        Files.move(temporary, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        generation++;
+
+        // the journal is only emptied once the snapshot is in place. A crash in between leaves the journal
+        // of the previous generation, which the next load skips.
+        openJournal(columnNames);
+    }
+
+    private void openJournal(String[] columnNames) throws IOException {
+        if (journalChannel != null)
+            journalChannel.close();
+        journalChannel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        journalWritten = 0;
+        var header = new ByteArrayOutputStream();
+        var out = new DataOutputStream(header);
+        out.writeInt(JOURNAL_MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(generation);
+        out.writeInt(columnNames.length);
+        for (String name : columnNames)
+            writeString(out, name);
+        writeJournal(header.toByteArray());
+    }
+
+    void appendRow(long id, Object[] values) throws IOException {
+        journal.writeByte(OP_ROW);
+        journal.writeLong(id);
+        for (Object value : values)
+            writeValue(journal, value);
+    }
+
+    void appendUpdate(long id, int column, Object value) throws IOException {
+        journal.writeByte(OP_UPDATE);
+        journal.writeLong(id);
+        journal.writeInt(column);
+        writeValue(journal, value);
+    }
+
+    void appendDelete(long id) throws IOException {
+        journal.writeByte(OP_DELETE);
+        journal.writeLong(id);
+    }
+
+    /**
+     * Takes the journal entries appended since the last call out of the buffer.
+     * The appends must be blocked while this is called.
+     *
+     * @return the entries, in the order they were appended
+     */
+    byte[] takeJournal() {
+        byte[] entries = journalBuffer.toByteArray();
+        journalBuffer.reset();
+        return entries;
+    }
+
+    /**
+     * Puts journal entries taken by {@link #takeJournal()} back in front of the entries appended since,
+     * after they could not be written. The appends must be blocked while this is called.
+     *
+     * @param entries the entries to put back
+     */
+    void restoreJournal(byte[] entries) {
+        byte[] appended = journalBuffer.toByteArray();
+        journalBuffer.reset();
+        journalBuffer.writeBytes(entries);
+        journalBuffer.writeBytes(appended);
+    }
+
+    /**
+     * Writes journal entries taken by {@link #takeJournal()} to the disk.
+     * The entries must be written in the order they were taken.
+     * If they could not be written, the journal is cut back to the entries written before.
+     *
+     * @param entries the entries to write
+     * @throws IOException if the journal could not be written
+     */
+    void writeJournal(byte[] entries) throws IOException {
+        try {
+            var buffer = ByteBuffer.wrap(entries);
+            while (buffer.hasRemaining())
+                journalChannel.write(buffer);
+            journalChannel.force(false);
+        } catch (IOException e) {
+            try {
+                journalChannel.truncate(journalWritten);
+                journalChannel.position(journalWritten);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        journalWritten += entries.length;
+    }
+
+    /**
+     * @return the number of bytes written or appended to the journal since the last snapshot
+     */
+    long getJournalSize() {
+        return journalWritten + journalBuffer.size();
+    }
+
+    void close() throws IOException {
+        if (journalChannel != null) {
+            writeJournal(takeJournal());
+            journalChannel.close();
+            journalChannel = null;
+        }
+    }
+
+    private static int valueLength(Object value) {
+        if (value == null)
+            return 1;
+        else if (value instanceof String string)
+            return 5 + utf8Length(string);
+        else if (value instanceof Integer)
+            return 5;
+        else if (value instanceof Long || value instanceof Double)
+            return 9;
+        else if (value instanceof Boolean)
+            return 2;
+        else if (value instanceof byte[] bytes)
+            return 5 + bytes.length;
+        throw new IllegalArgumentException("The type " + value.getClass().getSimpleName() + " cannot be stored in the data store.");
+    }
+
+    private static int utf8Length(String string) {
+        int length = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < string.length() && Character.isLowSurrogate(string.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++; // replaced with '?' by the encoder.
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static void putString(ByteBuffer buffer, String string) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static void putValue(ByteBuffer buffer, Object value) {
+        if (value == null) {
+            buffer.put(TYPE_NULL);
+        } else if (value instanceof String string) {
+            buffer.put(TYPE_STRING);
+            putString(buffer, string);
+        } else if (value instanceof Integer integer) {
+            buffer.put(TYPE_INTEGER);
+            buffer.putInt(integer);
+        } else if (value instanceof Long longValue) {
+            buffer.put(TYPE_LONG);
+            buffer.putLong(longValue);
+        } else if (value instanceof Double doubleValue) {
+            buffer.put(TYPE_DOUBLE);
+            buffer.putDouble(doubleValue);
+        } else if (value instanceof Boolean bool) {
+            buffer.put(TYPE_BOOLEAN);
+            buffer.put((byte) (bool ? 1 : 0));
+        } else if (value instanceof byte[] bytes) {
+            buffer.put(TYPE_BYTES);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof String string) {
+            out.writeByte(TYPE_STRING);
+            writeString(out, string);
+        } else if (value instanceof Integer integer) {
+            out.writeByte(TYPE_INTEGER);
+            out.writeInt(integer);
+        } else if (value instanceof Long longValue) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong(longValue);
+        } else if (value instanceof Double doubleValue) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble(doubleValue);
+        } else if (value instanceof Boolean bool) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean(bool);
+        } else if (value instanceof byte[] bytes) {
+            out.writeByte(TYPE_BYTES);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else {
+            throw new IllegalArgumentException("The type " + value.getClass().getSimpleName() + " cannot be stored in the data store.");
+        }
+    }
+
+    /**
+     * Receives the rows and writes restored from the files.
+     */
+    interface Replay {
+        void row(long id, Object[] values);
+
+        void update(long id, int column, Object value);
+
+        void delete(long id);
+    }
+
+    /**
+     * Supplies the values of the rows written to a snapshot.
+     */
+    @FunctionalInterface
+    interface ValueSource {
+        Object get(int row, int column);
+    }
+}
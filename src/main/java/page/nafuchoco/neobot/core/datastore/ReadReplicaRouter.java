@@ -0,0 +1,205 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore;
+
+import lombok.extern.slf4j.Slf4j;
+import page.nafuchoco.neobot.api.DatabaseConnector;
+import page.nafuchoco.neobot.core.datastore.dialect.SqlDialect;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Routes the reads of the data stores to the read replicas of the database.
+ * <p>
+ * The replicas are used in turn while they are reachable and not further behind the primary than the allowed lag.
+ * Otherwise, and for a short window after a data store has been written by this process, reads go to the primary,
+ * so that a module always reads the values it has just written.
+ * After another process has changed a data store, it is read from the primary until the replicas must have caught up,
+ * so that the values read from a replica cannot put an invalidated value back into the cache.
+ * Writes always go to the primary.
+ */
+@Slf4j
+public class ReadReplicaRouter {
+    private final DatabaseConnector primary;
+    private final SqlDialect dialect;
+    private final Replica[] replicas;
+    private final long maxLag;
+    private final long readYourWritesWindow;
+    private final AtomicInteger next = new AtomicInteger();
+    private final LongAdder primaryReads = new LongAdder();
+
+    /**
+     * @param primary              the connector of the primary database
+     * @param dialect              the dialect of the database
+     * @param replicas             the connectors of the replicas keyed by a name used in the logs
+     * @param maxLag               the lag in seconds above which a replica is not used
+     * @param readYourWritesWindow the time in milliseconds after a write during which the data store is read from the primary
+     */
+    public ReadReplicaRouter(DatabaseConnector primary, SqlDialect dialect, Map<String, DatabaseConnector> replicas, long maxLag, long readYourWritesWindow) {
+        this.primary = primary;
+        this.dialect = dialect;
+        this.replicas = replicas.entrySet().stream()
+                .map(entry -> new Replica(entry.getKey(), entry.getValue()))
+                .toArray(Replica[]::new);
+        this.maxLag = maxLag;
+        this.readYourWritesWindow = TimeUnit.MILLISECONDS.toNanos(readYourWritesWindow);
+    }
+
+    /**
+     * Returns a connection for a read.
+     *
+     * @param pinnedUntil the {@link System#nanoTime()} until which the data store must be read from the primary
+     * @return a connection to a healthy replica, or to the primary
+     * @throws SQLException if no connection could be obtained from the primary
+     */
+    public Connection getReadConnection(long pinnedUntil) throws SQLException {
+        if (System.nanoTime() - pinnedUntil >= 0) {
+            int start = next.getAndIncrement();
+            for (int i = 0; i < replicas.length; i++) {
+                var replica = replicas[Math.floorMod(start + i, replicas.length)];
+                if (!replica.healthy)
+                    continue;
+                try {
+                    var connection = replica.connector.getConnection();
+                    replica.reads.increment();
+                    return connection;
+                } catch (SQLException e) {
+                    replica.markUnhealthy("the connection failed", e);
+                }
+            }
+        }
+        primaryReads.increment();
+        return primary.getConnection();
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} until which a data store written now must be read from the primary
+     */
+    public long pinDeadline() {
+        return System.nanoTime() + readYourWritesWindow;
+    }
+
+    /**
+     * Returns the deadline for a data store changed by another process, whose change this process has just been told about.
+     * The replicas may not have applied the change yet, so the data store is read from the primary until every replica
+     * in use must have caught up, and values read from a replica cannot undo the invalidation of the cache.
+     *
+     * @return the {@link System#nanoTime()} until which the data store must be read from the primary
+     */
+    public long remoteChangeDeadline() {
+        // the lag is reported in whole seconds, so a replica may be up to one second further behind.
+        return System.nanoTime() + Math.max(readYourWritesWindow, TimeUnit.SECONDS.toNanos(maxLag + 1));
+    }
+
+    /**
+     * Checks whether each replica is reachable and how far it is behind the primary.
+     */
+    public void checkHealth() {
+        for (Replica replica : replicas) {
+            try (var connection = replica.connector.getConnection()) {
+                long lag = dialect.getReplicationLag(connection);
+                replica.lag = lag;
+                if (lag < 0)
+                    replica.markUnhealthy("the replication is stopped", null);
+                else if (lag > maxLag)
+                    replica.markUnhealthy("it is " + lag + " seconds behind the primary", null);
+                else
+                    replica.markHealthy();
+            } catch (SQLException e) {
+                replica.lag = -1;
+                replica.markUnhealthy("the health check failed", e);
+            }
+        }
+    }
+
+    /**
+     * @return the state of each replica in the order of the configuration
+     */
+    public List<ReplicaStatus> getStatus() {
+        List<ReplicaStatus> status = new ArrayList<>(replicas.length);
+        for (Replica replica : replicas)
+            status.add(new ReplicaStatus(replica.name, replica.healthy, replica.lag, replica.reads.sum()));
+        return status;
+    }
+
+    /**
+     * @return the number of reads that went to the primary, because of a recent write or because no replica was healthy
+     */
+    public long getPrimaryReads() {
+        return primaryReads.sum();
+    }
+
+    /**
+     * Closes the connection pools of the replicas.
+     */
+    public void close() {
+        for (Replica replica : replicas)
+            replica.connector.close();
+    }
+
+    /**
+     * The state of a replica.
+     *
+     * @param name    the name of the replica
+     * @param healthy true if reads are routed to the replica
+     * @param lag     the lag in seconds at the last health check, or -1 if it is unknown
+     * @param reads   the number of reads routed to the replica
+     */
+    public record ReplicaStatus(String name, boolean healthy, long lag, long reads) {
+    }
+
+    private static class Replica {
+        private final String name;
+        private final DatabaseConnector connector;
+        private final LongAdder reads = new LongAdder();
+        // not used until the first health check has passed.
+        private volatile boolean healthy = false;
+        private boolean checked = false;
+        private volatile long lag = -1;
+
+        private Replica(String name, DatabaseConnector connector) {
+            this.name = name;
+            this.connector = connector;
+        }
+
+        private synchronized void markHealthy() {
+            if (!healthy)
+                log.info("Reads are routed to the replica {}.", name);
+            healthy = true;
+            checked = true;
+        }
+
+        private synchronized void markUnhealthy(String reason, Exception e) {
+            if (healthy || !checked) {
+                var message = healthy ? "Stopped routing reads to the replica {} because {}." : "Reads are not routed to the replica {} because {}.";
+                if (e != null)
+                    log.warn(message, name, reason, e);
+                else
+                    log.warn(message, name, reason);
+            }
+            healthy = false;
+            checked = true;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore;
+
+import de.vandermeer.asciitable.AsciiTable;
+import lombok.extern.slf4j.Slf4j;
+import page.nafuchoco.neobot.api.DatabaseConnector;
+import page.nafuchoco.neobot.api.datastore.exception.DataStoreGenerateException;
+import page.nafuchoco.neobot.core.datastore.dialect.SqlDialect;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates and alters the tables of the data stores.
+ * <p>
+ * The columns and indexes of all tables with the table prefix are loaded with a single query when the first data store is built,
+ * and every data store is compared against that snapshot instead of querying the database again.
+ * The DDL of independent data stores runs in parallel.
+ */
+@Slf4j
+public class SchemaReconciler {
+    private final DatabaseConnector connector;
+    private final SqlDialect dialect;
+    private final ExecutorService executor;
+
+    private Map<String, List<String>> snapshot;
+    private Map<String, Set<String>> indexSnapshot;
+    private long snapshotTime;
+    private final List<CompletableFuture<Void>> pending = new CopyOnWriteArrayList<>();
+    private final List<Result> results = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param connector   the connector of the database
+     * @param dialect     the dialect of the database
+     * @param parallelism the maximum number of data stores reconciled at once
+     */
+    public SchemaReconciler(DatabaseConnector connector, SqlDialect dialect, int parallelism) {
+        this.connector = connector;
+        this.dialect = dialect;
+        var threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+            var thread = new Thread(runnable, "DataStore-Schema-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Reconciles the table of a data store in the background.
+     *
+     * @param table                the table name including the prefix
+     * @param columns              the columns the table must have, including the id
+     * @param createTableStatement the statement that creates the table
+     * @param createIndexStatement the statement that creates the unique index on the id
+     * @param secondaryIndexes     the statements that create the secondary indexes, keyed by index name
+     * @param managedIndexPrefix   the prefix of the names of the secondary indexes,
+     *                             used to drop the indexes that are no longer declared
+     * @return the future that completes when the table is ready to use
+     */
+    public CompletableFuture<Void> submit(String table, Map<String, Class> columns, String createTableStatement, String createIndexStatement,
+                                          Map<String, String> secondaryIndexes, String managedIndexPrefix) {
+        var future = CompletableFuture.runAsync(() -> {
+            long start = System.nanoTime();
+            try {
+                String action = reconcile(table, columns, createTableStatement, createIndexStatement, secondaryIndexes, managedIndexPrefix);
+                results.add(new Result(table, action, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+                log.debug("Reconciled the table {}: {}", table, action);
+            } catch (SQLException e) {
+                results.add(new Result(table, "failed", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+                throw new DataStoreGenerateException(e);
+            }
+        }, executor);
+        pending.add(future);
+        return future;
+    }
+
+    private String reconcile(String table, Map<String, Class> columns, String createTableStatement, String createIndexStatement,
+                             Map<String, String> secondaryIndexes, String managedIndexPrefix) throws SQLException {
+        List<String> columnNames = getSnapshot().get(table);
+        Set<String> indexNames = indexSnapshot.getOrDefault(table, Set.of());
+
+        var writeLock = dialect.getWriteLock();
+        if (writeLock != null)
+            writeLock.lock();
+        try (var connection = connector.getConnection()) {
+            if (columnNames == null) { // if the table does not exist, create a new table.
+                try (var createTableStatementPs = connection.prepareStatement(createTableStatement)) {
+                    createTableStatementPs.execute();
+                }
+                // set unique index for the guild id.
+                try (var createIndexStatementPs = connection.prepareStatement(createIndexStatement)) {
+                    createIndexStatementPs.execute();
+                }
+                snapshot.put(table, new ArrayList<>(columns.keySet()));
+                for (String statement : secondaryIndexes.values())
+                    execute(connection, statement);
+                indexSnapshot.put(table, new HashSet<>(secondaryIndexes.keySet()));
+                return "created";
+            }
+
+            // Drop the secondary indexes that are no longer declared before their columns are dropped.
+            List<String> dropIndexes = new ArrayList<>();
+            for (String indexName : indexNames) {
+                if (indexName.regionMatches(true, 0, managedIndexPrefix, 0, managedIndexPrefix.length())
+                        && secondaryIndexes.keySet().stream().noneMatch(indexName::equalsIgnoreCase))
+                    dropIndexes.add(indexName);
+            }
+            for (String indexName : dropIndexes)
+                execute(connection, dialect.dropIndex(indexName, table));
+
+            // Checks for non-matching items to determine if they should be added or deleted.
+            Map<String, Class> addColumns = new LinkedHashMap<>();
+            columns.forEach((name, type) -> {
+                if (!columnNames.contains(name))
+                    addColumns.put(name, type);
+            });
+            List<String> deleteColumns = new ArrayList<>();
+            for (String columnName : columnNames) {
+                if (!columns.containsKey(columnName))
+                    deleteColumns.add(columnName);
+            }
+
+            // Alter the table to add or delete columns.
+            List<String> statements = dialect.alterTable(table, addColumns, deleteColumns);
+            for (String statement : statements)
+                execute(connection, statement);
+
+            // Create the secondary indexes that do not exist yet.
+            int createdIndexes = 0;
+            for (var entry : secondaryIndexes.entrySet()) {
+                if (!indexNames.contains(entry.getKey())) {
+                    execute(connection, entry.getValue());
+                    createdIndexes++;
+                }
+            }
+            if (!dropIndexes.isEmpty() || createdIndexes > 0)
+                indexSnapshot.put(table, new HashSet<>(secondaryIndexes.keySet()));
+
+            List<String> actions = new ArrayList<>();
+            if (!statements.isEmpty()) {
+                snapshot.put(table, new ArrayList<>(columns.keySet()));
+                actions.add("altered (+" + addColumns.size() + " -" + deleteColumns.size() + ")");
+            }
+            if (!dropIndexes.isEmpty() || createdIndexes > 0)
+                actions.add("indexes (+" + createdIndexes + " -" + dropIndexes.size() + ")");
+            return actions.isEmpty() ? "unchanged" : String.join(", ", actions);
+        } finally {
+            if (writeLock != null)
+                writeLock.unlock();
+        }
+    }
+
+    private void execute(Connection connection, String statement) throws SQLException {
+        try (var ps = connection.prepareStatement(statement)) {
+            ps.execute();
+        }
+    }
+
+    /**
+     * Loads the columns and indexes of all tables with the table prefix, if they have not been loaded yet.
+     */
+    private synchronized Map<String, List<String>> getSnapshot() throws SQLException {
+        if (snapshot == null) {
+            long start = System.nanoTime();
+            try (var connection = connector.getConnection()) {
+                snapshot = new ConcurrentHashMap<>(dialect.loadSchema(connection, connector.getPrefix()));
+                indexSnapshot = new ConcurrentHashMap<>(dialect.loadIndexes(connection, connector.getPrefix()));
+            }
+            snapshotTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            log.debug("Loaded the schema of {} tables in {}ms.", snapshot.size(), snapshotTime);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Waits until all submitted data stores are reconciled and logs how long each of them took.
+     *
+     * @throws DataStoreGenerateException if the table of a data store could not be created or altered
+     */
+    public void awaitAll() {
+        var futures = new ArrayList<>(pending);
+        pending.removeAll(futures);
+        DataStoreGenerateException failure = null;
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            failure = e.getCause() instanceof DataStoreGenerateException generateException
+                    ? generateException : new DataStoreGenerateException(e.getCause());
+        }
+
+        var finished = new ArrayList<>(results);
+        results.removeAll(finished);
+        if (!finished.isEmpty()) {
+            var table = new AsciiTable();
+            table.addRule();
+            table.addRow("Data store", "Action", "Time");
+            table.addRule();
+            for (Result result : finished)
+                table.addRow(result.table(), result.action(), result.time() + "ms");
+            table.addRule();
+            log.info("Reconciled {} data stores. (schema snapshot: {}ms)\n{}", finished.size(), snapshotTime, table.render());
+        }
+
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Stops the threads that run the DDL.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private record Result(String table, String action, long time) {
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore;
+
+import lombok.extern.slf4j.Slf4j;
+import page.nafuchoco.neobot.api.datastore.exception.DataStoreException;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Collects the writes to a {@link DataStoreImpl} and flushes them to the database in batches.
+ * <p>
+ * Writes to the same row are merged, so only the latest value of each column is written.
+ * When the number of pending rows reaches the limit, the writing thread flushes the queue itself,
+ * and waits for room if the rows could not be written.
+ * <p>
+ * If the database refuses a batch, it is split until the refused rows are found, so that they do not keep the other rows
+ * from being written. A refused row is retried a limited number of times and then dropped.
+ * Rows that could not be written because the database was unreachable are retried without limit.
+ */
+@Slf4j
+public class WriteBehindQueue {
+    private final DataStoreImpl store;
+    private final int columnCount;
+    private final int batchSize;
+    private final int maxPending;
+    private final int maxRetries;
+    private final long maxPendingWait;
+    private final Executor flushExecutor;
+
+    // Guarded by this.
+    private Map<Long, PendingRow> pending = new LinkedHashMap<>();
+    private Map<Long, PendingRow> inFlight = Collections.emptyMap();
+    private boolean flushScheduled = false;
+
+    // Held while writing to the database so that deletes are not overtaken by an older write.
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    /**
+     * @param store         the data store to write to
+     * @param columnCount   the number of columns of the data store
+     * @param batchSize     the number of pending rows that triggers a flush
+     * @param maxPending     the number of pending rows at which writers start to block
+     * @param maxRetries     the number of times a row refused by the database is retried before it is dropped
+     * @param maxPendingWait the time in milliseconds a writer waits for room in a full queue before it fails
+     * @param flushExecutor  the executor that runs the flushes triggered by the batch size
+     */
+    public WriteBehindQueue(DataStoreImpl store, int columnCount, int batchSize, int maxPending, int maxRetries, long maxPendingWait,
+                            Executor flushExecutor) {
+        if (batchSize <= 0 || maxPending < batchSize)
+            throw new IllegalArgumentException("batchSize must be greater than 0 and not greater than maxPending.");
+
+        this.store = store;
+        this.columnCount = columnCount;
+        this.batchSize = batchSize;
+        this.maxPending = maxPending;
+        this.maxRetries = maxRetries;
+        this.maxPendingWait = maxPendingWait;
+        this.flushExecutor = flushExecutor;
+    }
+
+    /**
+     * Queues the update of a single column.
+     *
+     * @param id     the guild id of the row
+     * @param column the position of the column
+     * @param value  the value to write
+     */
+    public void enqueueUpdate(long id, int column, Object value) {
+        awaitCapacity(id);
+        synchronized (this) {
+            pending.computeIfAbsent(id, key -> new PendingRow(columnCount)).values[column] = value;
+        }
+        afterEnqueue();
+    }
+
+    /**
+     * Queues the registration of a whole row.
+     *
+     * @param id     the guild id of the row
+     * @param values the values to write in column order
+     */
+    public void enqueueRow(long id, Object[] values) {
+        awaitCapacity(id);
+        synchronized (this) {
+            PendingRow row = pending.computeIfAbsent(id, key -> new PendingRow(columnCount));
+            row.insert = true;
+            System.arraycopy(values, 0, row.values, 0, columnCount);
+        }
+        afterEnqueue();
+    }
+
+    /**
+     * Returns the value of the column that has not been written to the database yet.
+     *
+     * @param id     the guild id of the row
+     * @param column the position of the column
+     * @return the pending value, or {@link DataStoreCache#MISS} if there is none
+     */
+    public synchronized Object lookup(long id, int column) {
+        Object value = lookup(pending.get(id), column);
+        if (value == DataStoreCache.MISS)
+            value = lookup(inFlight.get(id), column);
+        return value;
+    }
+
+    private Object lookup(PendingRow row, int column) {
+        if (row == null)
+            return DataStoreCache.MISS;
+        return row.values[column];
+    }
+
+    /**
+     * Overwrites the values read from the database with the values that have not been written yet.
+     *
+     * @param id     the guild id of the row
+     * @param values the values read from the database in column order
+     * @return true if the row has been registered as a whole and will exist once it is written
+     */
+    public boolean overlay(long id, Object[] values) {
+        return overlay(id, values, null);
+    }
+
+    /**
+     * Overwrites the values read from the database with the values that have not been written yet,
+     * and marks the columns that have been overwritten.
+     *
+     * @param id       the guild id of the row
+     * @param values   the values read from the database in column order
+     * @param replaced set to true at the positions of the overwritten columns, or null
+     * @return true if the row has been registered as a whole and will exist once it is written
+     */
+    public synchronized boolean overlay(long id, Object[] values, boolean[] replaced) {
+        return overlay(inFlight.get(id), values, replaced) | overlay(pending.get(id), values, replaced);
+    }
+
+    private boolean overlay(PendingRow row, Object[] values, boolean[] replaced) {
+        if (row == null)
+            return false;
+        for (int i = 0; i < columnCount; i++) {
+            if (row.values[i] != DataStoreCache.MISS) {
+                values[i] = row.values[i];
+                if (replaced != null)
+                    replaced[i] = true;
+            }
+        }
+        return row.insert;
+    }
+
+    /**
+     * Discards the pending writes of the row and runs the action while no flush is in progress.
+     * Used to delete a row without being overtaken by a write queued before.
+     *
+     * @param id     the guild id of the row
+     * @param action the action to run
+     */
+    public void discard(long id, Runnable action) {
+        flushLock.lock();
+        try {
+            synchronized (this) {
+                pending.remove(id);
+            }
+            action.run();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Writes all pending rows if the row has a write that has not reached the database yet,
+     * so that an operation executed directly on the database sees it.
+     *
+     * @param id the guild id of the row
+     */
+    public void flushIfPending(long id) {
+        boolean contains;
+        synchronized (this) {
+            contains = pending.containsKey(id) || inFlight.containsKey(id);
+        }
+        if (contains)
+            flush();
+    }
+
+    /**
+     * Returns the number of rows waiting to be written.
+     *
+     * @return the number of pending rows
+     */
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Writes all pending rows to the database.
+     * Rows that could not be written are queued again unless they have been overwritten in the meantime.
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            Map<Long, PendingRow> rows;
+            synchronized (this) {
+                flushScheduled = false;
+                if (pending.isEmpty())
+                    return;
+                rows = pending;
+                inFlight = rows;
+                pending = new LinkedHashMap<>();
+            }
+
+            try {
+                write(rows);
+            } finally {
+                synchronized (this) {
+                    inFlight = Collections.emptyMap();
+                    notifyAll(); // wake the writers waiting for room.
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the rows, splitting them in halves while the database refuses them, to find the rows it refuses.
+     */
+    private void write(Map<Long, PendingRow> rows) {
+        try {
+            store.writePendingRows(rows, batchSize);
+            return;
+        } catch (SQLException e) {
+            if (isTransient(e)) {
+                log.error("Failed to write {} pending rows to the data store {}. They will be retried.", rows.size(), store.getName(), e);
+                requeue(rows, false, e);
+                return;
+            }
+            if (rows.size() == 1) {
+                requeue(rows, true, e);
+                return;
+            }
+        }
+
+        Map<Long, PendingRow> first = new LinkedHashMap<>();
+        Map<Long, PendingRow> second = new LinkedHashMap<>();
+        int half = rows.size() / 2;
+        for (var entry : rows.entrySet())
+            (first.size() < half ? first : second).put(entry.getKey(), entry.getValue());
+        write(first);
+        write(second);
+    }
+
+    /**
+     * Queues the rows again, merged with the writes queued since, or drops the refused rows that have been retried enough.
+     *
+     * @param refused true if the database refused the rows, as opposed to being unreachable
+     */
+    private void requeue(Map<Long, PendingRow> rows, boolean refused, SQLException e) {
+        synchronized (this) {
+            rows.forEach((id, row) -> {
+                if (refused && ++row.attempts > maxRetries) {
+                    log.error("Dropped the pending write of the row {} of the data store {} after {} attempts.", id, store.getName(), row.attempts, e);
+                    return;
+                }
+                if (refused)
+                    log.warn("The data store {} refused the pending write of the row {}. It will be retried.", store.getName(), id);
+                PendingRow newer = pending.remove(id);
+                if (newer != null)
+                    row.merge(newer);
+                pending.put(id, row);
+            });
+        }
+    }
+
+    /**
+     * @return true if the error is caused by the connection or a conflict with another transaction, not by the rows
+     */
+    private static boolean isTransient(SQLException e) {
+        return e instanceof SQLTransientException || e instanceof SQLRecoverableException || e instanceof SQLNonTransientConnectionException
+                || (e.getSQLState() != null && e.getSQLState().startsWith("08"));
+    }
+
+    /**
+     * Applies backpressure to the writer while the queue is full: the writer flushes the queue itself,
+     * and if the rows could not be written, waits for room until the time runs out.
+     * Writes to a row that is already pending do not need room.
+     */
+    private void awaitCapacity(long id) {
+        synchronized (this) {
+            if (pending.size() < maxPending || pending.containsKey(id))
+                return;
+        }
+        flush();
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxPendingWait);
+        synchronized (this) {
+            while (pending.size() >= maxPending && !pending.containsKey(id)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    throw new DataStoreException(new TimeoutException("The write-behind queue of the data store " + store.getName()
+                            + " is full because its rows cannot be written."));
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DataStoreException(e);
+                }
+            }
+        }
+    }
+
+    private void afterEnqueue() {
+        boolean schedule = false;
+        synchronized (this) {
+            if (pending.size() >= batchSize && !flushScheduled) {
+                flushScheduled = true;
+                schedule = true;
+            }
+        }
+
+        if (!schedule)
+            return;
+        try {
+            flushExecutor.execute(this::flush);
+        } catch (RejectedExecutionException e) {
+            // shutting down. The rows are written by the final flush, and later writes may schedule a flush again.
+            synchronized (this) {
+                flushScheduled = false;
+            }
+        }
+    }
+
+    static class PendingRow {
+        final Object[] values;
+        boolean insert = false;
+        // the number of times the database has refused the row.
+        int attempts = 0;
+
+        private PendingRow(int columnCount) {
+            values = new Object[columnCount];
+            Arrays.fill(values, DataStoreCache.MISS);
+        }
+
+        /**
+         * Overwrites this row with the values of a newer row.
+         */
+        private void merge(PendingRow newer) {
+            insert |= newer.insert;
+            for (int i = 0; i < values.length; i++) {
+                if (newer.values[i] != DataStoreCache.MISS)
+                    values[i] = newer.values[i];
+            }
+        }
+    }
+}
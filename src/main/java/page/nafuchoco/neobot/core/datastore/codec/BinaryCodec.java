@@ -0,0 +1,87 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore.codec;
+
+import page.nafuchoco.neobot.api.datastore.exception.DataStoreException;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A {@link DataStoreCodec} that stores values in a compact binary form written by the module itself.
+ * No field names or type information are stored, so the encoder and decoder must agree on the layout.
+ * Values are written into a reused buffer.
+ *
+ * @param <T> the type of the values
+ */
+public class BinaryCodec<T> implements DataStoreCodec<T> {
+    private final Class<T> type;
+    private final Encoder<T> encoder;
+    private final Decoder<T> decoder;
+
+    /**
+     * @param type    the type of the values
+     * @param encoder writes the fields of a value
+     * @param decoder reads the fields written by the encoder in the same order
+     */
+    public BinaryCodec(Class<T> type, Encoder<T> encoder, Decoder<T> decoder) {
+        this.type = type;
+        this.encoder = encoder;
+        this.decoder = decoder;
+    }
+
+    @Override
+    public Class<T> getType() {
+        return type;
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        var buffer = CodecBuffers.acquire();
+        try {
+            encoder.encode(value, new DataOutputStream(buffer));
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            throw new DataStoreException(e);
+        } finally {
+            CodecBuffers.release(buffer);
+        }
+    }
+
+    @Override
+    public T decode(byte[] bytes) {
+        try {
+            return decoder.decode(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            throw new DataStoreException(e);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Encoder<T> {
+        void encode(T value, DataOutput out) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface Decoder<T> {
+        T decode(DataInput in) throws IOException;
+    }
+}
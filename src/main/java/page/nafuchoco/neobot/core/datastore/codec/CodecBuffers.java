@@ -0,0 +1,64 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore.codec;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Reuses the buffers that values are encoded into, one per thread.
+ * Buffers that have grown large are not kept, so that a single large value does not hold memory forever.
+ */
+final class CodecBuffers {
+    private static final int MAX_RETAINED_SIZE = 1 << 20;
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+    private CodecBuffers() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns an empty buffer. Must be passed to {@link #release(Buffer)} after use.
+     *
+     * @return the buffer
+     */
+    static Buffer acquire() {
+        Buffer buffer = BUFFERS.get();
+        if (buffer.inUse) // a codec is encoding inside another codec.
+            return new Buffer();
+        buffer.inUse = true;
+        buffer.reset();
+        return buffer;
+    }
+
+    static void release(Buffer buffer) {
+        buffer.inUse = false;
+        if (buffer.capacity() > MAX_RETAINED_SIZE && BUFFERS.get() == buffer)
+            BUFFERS.remove();
+    }
+
+    static final class Buffer extends ByteArrayOutputStream {
+        private boolean inUse = false;
+
+        private Buffer() {
+            super(256);
+        }
+
+        private int capacity() {
+            return buf.length;
+        }
+    }
+}
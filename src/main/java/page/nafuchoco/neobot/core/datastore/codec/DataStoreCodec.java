@@ -0,0 +1,51 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore.codec;
+
+/**
+ * Converts the values of a column to the bytes stored in the database and back.
+ * <p>
+ * A codec lets a whole object, such as the settings of a guild, be saved to a single BLOB column and loaded with a single query.
+ * Implementations must be thread-safe, since one codec is shared by all operations on the data store.
+ *
+ * @param <T> the type of the values
+ */
+public interface DataStoreCodec<T> {
+
+    /**
+     * @return the type of the values
+     */
+    Class<T> getType();
+
+    /**
+     * Converts a value to bytes.
+     *
+     * @param value the value, not null
+     * @return the bytes
+     * @throws page.nafuchoco.neobot.api.datastore.exception.DataStoreException if the value could not be converted
+     */
+    byte[] encode(T value);
+
+    /**
+     * Converts bytes back to a value.
+     *
+     * @param bytes the bytes, not null
+     * @return the value
+     * @throws page.nafuchoco.neobot.api.datastore.exception.DataStoreException if the bytes could not be converted
+     */
+    T decode(byte[] bytes);
+}
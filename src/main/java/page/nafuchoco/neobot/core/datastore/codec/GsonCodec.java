@@ -0,0 +1,90 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import page.nafuchoco.neobot.api.datastore.exception.DataStoreException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@link DataStoreCodec} that stores values as JSON with Gson.
+ * The type adapter is looked up once, and values are written into a reused buffer.
+ *
+ * @param <T> the type of the values
+ */
+public class GsonCodec<T> implements DataStoreCodec<T> {
+    private static final Gson DEFAULT_GSON = new Gson();
+
+    private final Class<T> type;
+    private final TypeAdapter<T> adapter;
+
+    /**
+     * Creates a codec that uses a default {@link Gson}.
+     *
+     * @param type the type of the values
+     */
+    public GsonCodec(Class<T> type) {
+        this(DEFAULT_GSON, type);
+    }
+
+    /**
+     * @param gson the gson that is configured for the type
+     * @param type the type of the values
+     */
+    public GsonCodec(Gson gson, Class<T> type) {
+        this.type = type;
+        adapter = gson.getAdapter(type);
+    }
+
+    @Override
+    public Class<T> getType() {
+        return type;
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        var buffer = CodecBuffers.acquire();
+        try {
+            var writer = new JsonWriter(new OutputStreamWriter(buffer, StandardCharsets.UTF_8));
+            adapter.write(writer, value);
+            writer.flush();
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            throw new DataStoreException(e);
+        } finally {
+            CodecBuffers.release(buffer);
+        }
+    }
+
+    @Override
+    public T decode(byte[] bytes) {
+        try {
+            return adapter.read(new JsonReader(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8)));
+        } catch (IOException | JsonParseException e) {
+            throw new DataStoreException(e);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import page.nafuchoco.neobot.api.datastore.exception.DataStoreException;
+
+import java.io.IOException;
+
+/**
+ * A {@link DataStoreCodec} that stores values as JSON with Jackson.
+ * The reader and writer for the type are created once, so no serializer is looked up per call.
+ *
+ * @param <T> the type of the values
+ */
+public class JacksonCodec<T> implements DataStoreCodec<T> {
+    private static final ObjectMapper DEFAULT_MAPPER = new ObjectMapper();
+
+    private final Class<T> type;
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+
+    /**
+     * Creates a codec that uses a default {@link ObjectMapper}.
+     *
+     * @param type the type of the values
+     */
+    public JacksonCodec(Class<T> type) {
+        this(DEFAULT_MAPPER, type);
+    }
+
+    /**
+     * @param mapper the mapper that is configured for the type
+     * @param type   the type of the values
+     */
+    public JacksonCodec(ObjectMapper mapper, Class<T> type) {
+        this.type = type;
+        reader = mapper.readerFor(type);
+        writer = mapper.writerFor(type);
+    }
+
+    @Override
+    public Class<T> getType() {
+        return type;
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        try { // Jackson recycles its own buffers.
+            return writer.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new DataStoreException(e);
+        }
+    }
+
+    @Override
+    public T decode(byte[] bytes) {
+        try {
+            return reader.readValue(bytes);
+        } catch (IOException e) {
+            throw new DataStoreException(e);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore.dialect;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * The dialect for MariaDB and MySQL.
+ */
+public class MySqlDialect implements SqlDialect {
+    private final boolean mariaDb;
+
+    /**
+     * @param mariaDb true if the database is MariaDB, which accepts {@code IF NOT EXISTS} on indexes
+     */
+    public MySqlDialect(boolean mariaDb) {
+        this.mariaDb = mariaDb;
+    }
+
+    @Override
+    public String getTypeString(Class type) {
+        if (type.equals(String.class)) {
+            return "TEXT";
+        } else if (type.equals(Integer.class)) {
+            return "INTEGER";
+        } else if (type.equals(Long.class)) {
+            return "BIGINT";
+        } else if (type.equals(Double.class)) {
+            return "DOUBLE";
+        } else if (type.equals(Boolean.class)) {
+            return "BOOLEAN";
+        } else if (type.equals(byte[].class)) {
+            return "MEDIUMBLOB";
+        } else {
+            throw new IllegalArgumentException("Unsupported type: " + type);
+        }
+    }
+
+    @Override
+    public Map<String, List<String>> loadSchema(Connection connection, String prefix) throws SQLException {
+        Map<String, List<String>> schema = new LinkedHashMap<>();
+        try (var ps = connection.prepareStatement(
+                "SELECT TABLE_NAME, COLUMN_NAME FROM information_schema.COLUMNS " +
+                        "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME LIKE ? ESCAPE '!' ORDER BY TABLE_NAME, ORDINAL_POSITION")) {
+            ps.setString(1, SqlDialect.toLikePattern(prefix));
+            try (var resultSet = ps.executeQuery()) {
+                while (resultSet.next())
+                    schema.computeIfAbsent(resultSet.getString(1), key -> new ArrayList<>()).add(resultSet.getString(2));
+            }
+        }
+        return schema;
+    }
+
+    @Override
+    public List<String> alterTable(String table, Map<String, Class> addColumns, List<String> deleteColumns) {
+        if (addColumns.isEmpty() && deleteColumns.isEmpty())
+            return List.of();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("ALTER TABLE ").append(table).append(" ");
+        addColumns.forEach((column, type) -> sb.append("ADD COLUMN ").append(column).append(" ").append(getTypeString(type)).append(", "));
+        deleteColumns.forEach(column -> sb.append("DROP COLUMN ").append(column).append(", "));
+        sb.delete(sb.length() - 2, sb.length());
+        return List.of(sb.toString());
+    }
+
+    @Override
+    public String createTable(String table, Map<String, Class> columns) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("CREATE TABLE IF NOT EXISTS ").append(table).append(" (");
+        columns.forEach((column, type) -> sb.append(column).append(" ").append(getTypeString(type)).append(", "));
+        sb.delete(sb.length() - 2, sb.length()).append(")");
+        return sb.toString();
+    }
+
+    @Override
+    public String createUniqueIndex(String indexName, String table, String column) {
+        return "CREATE UNIQUE INDEX " + (mariaDb ? "IF NOT EXISTS " : "") + indexName + " ON " + table + "(" + column + ")";
+    }
+
+    @Override
+    public Map<String, Set<String>> loadIndexes(Connection connection, String prefix) throws SQLException {
+        Map<String, Set<String>> indexes = new LinkedHashMap<>();
+        try (var ps = connection.prepareStatement(
+                "SELECT DISTINCT TABLE_NAME, INDEX_NAME FROM information_schema.STATISTICS " +
+                        "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME LIKE ? ESCAPE '!'")) {
+            ps.setString(1, SqlDialect.toLikePattern(prefix));
+            try (var resultSet = ps.executeQuery()) {
+                while (resultSet.next())
+                    indexes.computeIfAbsent(resultSet.getString(1), key -> new TreeSet<>(String.CASE_INSENSITIVE_ORDER)).add(resultSet.getString(2));
+            }
+        }
+        return indexes;
+    }
+
+    @Override
+    public String createIndex(String indexName, String table, Map<String, Class> columns) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("CREATE INDEX ").append(mariaDb ? "IF NOT EXISTS " : "").append(indexName).append(" ON ").append(table).append("(");
+        columns.forEach((column, type) -> {
+            sb.append(column);
+            if (type.equals(String.class)) // TEXT can only be indexed by a prefix, 191 characters fit the utf8mb4 key limit.
+                sb.append("(191)");
+            sb.append(", ");
+        });
+        sb.delete(sb.length() - 2, sb.length()).append(")");
+        return sb.toString();
+    }
+
+    @Override
+    public String dropIndex(String indexName, String table) {
+        return "DROP INDEX " + indexName + " ON " + table;
+    }
+
+    @Override
+    public String createChangeLogTable(String table) {
+        return "CREATE TABLE IF NOT EXISTS " + table + " (seq BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY, " +
+                "store_name VARCHAR(128) NOT NULL, row_id BIGINT NOT NULL, origin CHAR(36) NOT NULL, changed_at BIGINT NOT NULL)";
+    }
+
+    @Override
+    public long getReplicationLag(Connection connection) throws SQLException {
+        try (var statement = connection.createStatement();
+             var resultSet = showReplicaStatus(statement)) {
+            if (!resultSet.next())
+                return 0;
+            var metaData = resultSet.getMetaData();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                var label = metaData.getColumnLabel(i);
+                if (label.equalsIgnoreCase("Seconds_Behind_Source") || label.equalsIgnoreCase("Seconds_Behind_Master")) {
+                    long lag = resultSet.getLong(i);
+                    return resultSet.wasNull() ? -1 : lag; // null while the replication threads are stopped.
+                }
+            }
+            return -1;
+        }
+    }
+
+    private ResultSet showReplicaStatus(Statement statement) throws SQLException {
+        try {
+            return statement.executeQuery("SHOW REPLICA STATUS");
+        } catch (SQLException e) { // MySQL before 8.0.22 and MariaDB before 10.5.1 know only the old name.
+            try {
+                return statement.executeQuery("SHOW SLAVE STATUS");
+            } catch (SQLException fallback) { // keep the first error, it explains a missing privilege on newer versions.
+                e.addSuppressed(fallback);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public String upsert(String table, String[] columns) {
+        StringBuilder statement = new StringBuilder("INSERT INTO " + table + " (id, ");
+        for (String column : columns)
+            statement.append(column).append(", ");
+        statement.delete(statement.length() - 2, statement.length());
+        statement.append(") VALUES (?, ");
+        for (String ignored : columns)
+            statement.append("?, ");
+        statement.delete(statement.length() - 2, statement.length());
+        statement.append(") ON DUPLICATE KEY UPDATE ");
+        for (String column : columns)
+            statement.append(column).append(" = ?, ");
+        statement.delete(statement.length() - 2, statement.length());
+        return statement.toString();
+    }
+
+    @Override
+    public String upsertIncrement(String table, String[] columns, String column) {
+        StringBuilder statement = new StringBuilder("INSERT INTO " + table + " (id, ");
+        for (String name : columns)
+            statement.append(name).append(", ");
+        statement.delete(statement.length() - 2, statement.length());
+        statement.append(") VALUES (?, ");
+        for (String ignored : columns)
+            statement.append("?, ");
+        statement.delete(statement.length() - 2, statement.length());
+        statement.append(") ON DUPLICATE KEY UPDATE ").append(column).append(" = COALESCE(").append(column).append(", 0) + ?");
+        return statement.toString();
+    }
+
+    @Override
+    public boolean isUpsertValuesRepeated() {
+        return true;
+    }
+
+    @Override
+    public @Nullable Lock getWriteLock() {
+        return null;
+    }
+
+    @Override
+    public void setStreamingFetch(PreparedStatement statement, int fetchSize) throws SQLException {
+        // MySQL Connector/J streams row by row only when the fetch size is Integer.MIN_VALUE.
+        statement.setFetchSize(mariaDb ? fetchSize : Integer.MIN_VALUE);
+    }
+}
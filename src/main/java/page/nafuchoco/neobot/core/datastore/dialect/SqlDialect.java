@@ -0,0 +1,197 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore.dialect;
+
+import org.jetbrains.annotations.Nullable;
+import page.nafuchoco.neobot.api.IDatabaseType;
+import page.nafuchoco.neobot.core.DatabaseType;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Generates the database specific SQL used by the data stores.
+ */
+public interface SqlDialect {
+
+    /**
+     * Returns the dialect for the database type.
+     *
+     * @param databaseType the database type
+     * @return the dialect
+     */
+    static SqlDialect of(IDatabaseType databaseType) {
+        if (databaseType == DatabaseType.SQLITE)
+            return new SqliteDialect();
+        return new MySqlDialect(databaseType == DatabaseType.MARIADB);
+    }
+
+    /**
+     * Obtains the corresponding database type string from the class type.
+     *
+     * @param type the class type
+     * @return the database type string
+     * @throws IllegalArgumentException if the type is not supported
+     */
+    String getTypeString(Class type);
+
+    /**
+     * Loads the columns of all tables whose name starts with the prefix, with a single query.
+     *
+     * @param connection the connection to use
+     * @param prefix     the table prefix
+     * @return the column names keyed by table name
+     * @throws SQLException if the query fails
+     */
+    Map<String, List<String>> loadSchema(Connection connection, String prefix) throws SQLException;
+
+    /**
+     * Escapes the prefix so that it can be used at the start of a LIKE pattern with {@code ESCAPE '!'}.
+     *
+     * @param prefix the table prefix
+     * @return the LIKE pattern that matches the tables starting with the prefix
+     */
+    static String toLikePattern(String prefix) {
+        return prefix.replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%";
+    }
+
+    /**
+     * Generates the statements that add and delete columns.
+     *
+     * @param table         the table name including the prefix
+     * @param addColumns    the columns to add and their types
+     * @param deleteColumns the columns to delete
+     * @return the statements to execute in order, or an empty list if there is nothing to change
+     */
+    List<String> alterTable(String table, Map<String, Class> addColumns, List<String> deleteColumns);
+
+    /**
+     * Generates the statement that creates a table.
+     *
+     * @param table   the table name including the prefix
+     * @param columns the columns and their types
+     * @return the statement
+     */
+    String createTable(String table, Map<String, Class> columns);
+
+    /**
+     * Generates the statement that creates a unique index.
+     *
+     * @param indexName the name of the index
+     * @param table     the table name including the prefix
+     * @param column    the column to index
+     * @return the statement
+     */
+    String createUniqueIndex(String indexName, String table, String column);
+
+    /**
+     * Loads the names of the indexes of all tables whose name starts with the prefix, with a single query.
+     *
+     * @param connection the connection to use
+     * @param prefix     the table prefix
+     * @return the index names keyed by table name
+     * @throws SQLException if the query fails
+     */
+    Map<String, Set<String>> loadIndexes(Connection connection, String prefix) throws SQLException;
+
+    /**
+     * Generates the statement that creates a non-unique index.
+     *
+     * @param indexName the name of the index
+     * @param table     the table name including the prefix
+     * @param columns   the columns to index in order, and their types
+     * @return the statement
+     */
+    String createIndex(String indexName, String table, Map<String, Class> columns);
+
+    /**
+     * Generates the statement that drops an index.
+     *
+     * @param indexName the name of the index
+     * @param table     the table name including the prefix
+     * @return the statement
+     */
+    String dropIndex(String indexName, String table);
+
+    /**
+     * Generates the statement that creates the table of changed rows used to invalidate the caches of other processes.
+     * The table has an auto-incremented {@code seq} and the columns {@code store_name}, {@code row_id}, {@code origin} and {@code changed_at}.
+     *
+     * @param table the table name including the prefix
+     * @return the statement
+     */
+    String createChangeLogTable(String table);
+
+    /**
+     * Returns how far a read replica is behind its primary.
+     *
+     * @param connection a connection to the replica
+     * @return the lag in seconds, 0 if the database is not a replica, or -1 if the replication is stopped
+     * @throws SQLException if the replication status could not be read
+     */
+    long getReplicationLag(Connection connection) throws SQLException;
+
+    /**
+     * Generates the statement that inserts a row or updates it if the id already exists.
+     *
+     * @param table   the table name including the prefix
+     * @param columns the column names except the id
+     * @return the statement
+     * @see #isUpsertValuesRepeated()
+     */
+    String upsert(String table, String[] columns);
+
+    /**
+     * @return true if the values of {@link #upsert(String, String[])} must be bound again for the update part
+     */
+    boolean isUpsertValuesRepeated();
+
+    /**
+     * Generates the statement that inserts a row, or adds a delta to a column if the id already exists.
+     * The parameters are the id, the values of the columns and the delta.
+     *
+     * @param table   the table name including the prefix
+     * @param columns the column names except the id
+     * @param column  the column to add the delta to. A null value counts as 0.
+     * @return the statement
+     */
+    String upsertIncrement(String table, String[] columns, String column);
+
+    /**
+     * Returns the lock that serializes the writes to the database.
+     * Databases that allow only one writer at a time return a lock, so that writers wait in the application
+     * instead of failing with a busy error. Reads are never locked.
+     *
+     * @return the write lock, or null if the database allows concurrent writers
+     */
+    @Nullable
+    Lock getWriteLock();
+
+    /**
+     * Makes the driver stream the result set of a forward-only statement instead of reading all rows at once.
+     *
+     * @param statement the statement, created with {@link java.sql.ResultSet#TYPE_FORWARD_ONLY} and {@link java.sql.ResultSet#CONCUR_READ_ONLY}
+     * @param fetchSize the number of rows to fetch at a time, where the driver supports it
+     * @throws SQLException if the fetch size could not be set
+     */
+    void setStreamingFetch(PreparedStatement statement, int fetchSize) throws SQLException;
+}
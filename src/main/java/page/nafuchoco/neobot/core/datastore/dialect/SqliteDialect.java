@@ -0,0 +1,175 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore.dialect;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The dialect for SQLite.
+ * <p>
+ * SQLite in WAL mode lets readers run concurrently with a single writer,
+ * so the writes are serialized with a lock while the reads run on any pooled connection.
+ */
+public class SqliteDialect implements SqlDialect {
+    private final Lock writeLock = new ReentrantLock();
+
+    @Override
+    public String getTypeString(Class type) {
+        if (type.equals(String.class)) {
+            return "TEXT";
+        } else if (type.equals(Integer.class) || type.equals(Long.class) || type.equals(Boolean.class)) {
+            return "INTEGER";
+        } else if (type.equals(Double.class)) {
+            return "REAL";
+        } else if (type.equals(byte[].class)) {
+            return "BLOB";
+        } else {
+            throw new IllegalArgumentException("Unsupported type: " + type);
+        }
+    }
+
+    @Override
+    public Map<String, List<String>> loadSchema(Connection connection, String prefix) throws SQLException {
+        Map<String, List<String>> schema = new LinkedHashMap<>();
+        try (var ps = connection.prepareStatement(
+                "SELECT m.name, p.name FROM sqlite_master m JOIN pragma_table_info(m.name) p " +
+                        "WHERE m.type = 'table' AND m.name LIKE ? ESCAPE '!' ORDER BY m.name, p.cid")) {
+            ps.setString(1, SqlDialect.toLikePattern(prefix));
+            try (var resultSet = ps.executeQuery()) {
+                while (resultSet.next())
+                    schema.computeIfAbsent(resultSet.getString(1), key -> new ArrayList<>()).add(resultSet.getString(2));
+            }
+        }
+        return schema;
+    }
+
+    @Override
+    public List<String> alterTable(String table, Map<String, Class> addColumns, List<String> deleteColumns) {
+        // SQLite accepts only one change per ALTER TABLE statement.
+        List<String> statements = new ArrayList<>();
+        addColumns.forEach((column, type) -> statements.add("ALTER TABLE " + table + " ADD COLUMN " + column + " " + getTypeString(type)));
+        deleteColumns.forEach(column -> statements.add("ALTER TABLE " + table + " DROP COLUMN " + column));
+        return statements;
+    }
+
+    @Override
+    public String createTable(String table, Map<String, Class> columns) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("CREATE TABLE IF NOT EXISTS ").append(table).append(" (");
+        columns.forEach((column, type) -> sb.append(column).append(" ").append(getTypeString(type)).append(", "));
+        sb.delete(sb.length() - 2, sb.length()).append(")");
+        return sb.toString();
+    }
+
+    @Override
+    public String createUniqueIndex(String indexName, String table, String column) {
+        return "CREATE UNIQUE INDEX IF NOT EXISTS " + indexName + " ON " + table + "(" + column + ")";
+    }
+
+    @Override
+    public Map<String, Set<String>> loadIndexes(Connection connection, String prefix) throws SQLException {
+        Map<String, Set<String>> indexes = new LinkedHashMap<>();
+        try (var ps = connection.prepareStatement(
+                "SELECT tbl_name, name FROM sqlite_master WHERE type = 'index' AND tbl_name LIKE ? ESCAPE '!'")) {
+            ps.setString(1, SqlDialect.toLikePattern(prefix));
+            try (var resultSet = ps.executeQuery()) {
+                while (resultSet.next())
+                    indexes.computeIfAbsent(resultSet.getString(1), key -> new TreeSet<>(String.CASE_INSENSITIVE_ORDER)).add(resultSet.getString(2));
+            }
+        }
+        return indexes;
+    }
+
+    @Override
+    public String createIndex(String indexName, String table, Map<String, Class> columns) {
+        return "CREATE INDEX IF NOT EXISTS " + indexName + " ON " + table + "(" + String.join(", ", columns.keySet()) + ")";
+    }
+
+    @Override
+    public String dropIndex(String indexName, String table) {
+        return "DROP INDEX IF EXISTS " + indexName;
+    }
+
+    @Override
+    public String createChangeLogTable(String table) {
+        return "CREATE TABLE IF NOT EXISTS " + table + " (seq INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "store_name TEXT NOT NULL, row_id INTEGER NOT NULL, origin TEXT NOT NULL, changed_at INTEGER NOT NULL)";
+    }
+
+    @Override
+    public long getReplicationLag(Connection connection) {
+        return 0; // SQLite databases are never replicated.
+    }
+
+    @Override
+    public String upsert(String table, String[] columns) {
+        StringBuilder statement = new StringBuilder("INSERT INTO " + table + " (id, ");
+        for (String column : columns)
+            statement.append(column).append(", ");
+        statement.delete(statement.length() - 2, statement.length());
+        statement.append(") VALUES (?, ");
+        for (String ignored : columns)
+            statement.append("?, ");
+        statement.delete(statement.length() - 2, statement.length());
+        statement.append(") ON CONFLICT(id) DO UPDATE SET ");
+        for (String column : columns)
+            statement.append(column).append(" = excluded.").append(column).append(", ");
+        statement.delete(statement.length() - 2, statement.length());
+        return statement.toString();
+    }
+
+    @Override
+    public String upsertIncrement(String table, String[] columns, String column) {
+        StringBuilder statement = new StringBuilder("INSERT INTO " + table + " (id, ");
+        for (String name : columns)
+            statement.append(name).append(", ");
+        statement.delete(statement.length() - 2, statement.length());
+        statement.append(") VALUES (?, ");
+        for (String ignored : columns)
+            statement.append("?, ");
+        statement.delete(statement.length() - 2, statement.length());
+        statement.append(") ON CONFLICT(id) DO UPDATE SET ").append(column).append(" = COALESCE(").append(column).append(", 0) + ?");
+        return statement.toString();
+    }
+
+    @Override
+    public boolean isUpsertValuesRepeated() {
+        return false;
+    }
+
+    @Override
+    public @Nullable Lock getWriteLock() {
+        return writeLock;
+    }
+
+    @Override
+    public void setStreamingFetch(PreparedStatement statement, int fetchSize) throws SQLException {
+        statement.setFetchSize(fetchSize);
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore.invalidation;
+
+import lombok.extern.slf4j.Slf4j;
+import page.nafuchoco.neobot.api.DatabaseConnector;
+import page.nafuchoco.neobot.core.datastore.dialect.SqlDialect;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * An {@link InvalidationChannel} that records the changed rows in a table of the shared database,
+ * which every process polls for the entries added since its last poll.
+ * <p>
+ * The entries are ordered by an auto-incremented sequence. A sequence number that is skipped may belong to
+ * a transaction that has not committed yet, so it is looked up again for a few polls before it is given up.
+ * If this process could not poll for longer than the entries are kept, all caches are discarded.
+ */
+@Slf4j
+public class ChangeLogInvalidationChannel implements InvalidationChannel {
+    private static final int GAP_CHECKS = 10;
+    private static final int MAX_GAPS = 1000;
+
+    private final DatabaseConnector connector;
+    private final SqlDialect dialect;
+    private final String table;
+    private final int batchSize;
+    private final long retentionMillis;
+    private final String origin = UUID.randomUUID().toString();
+    private final ConcurrentLinkedQueue<Change> outbox = new ConcurrentLinkedQueue<>();
+    private volatile InvalidationListener listener;
+
+    private final String insertStatement;
+    private final String selectStatement;
+    private final String pruneStatement;
+
+    // Only accessed while polling.
+    private boolean initialized = false;
+    private long lastSequence;
+    private long lastPolledAt;
+    private long lastPrunedAt;
+    private final Map<Long, Integer> gaps = new LinkedHashMap<>();
+
+    /**
+     * @param connector the connector of the shared database
+     * @param dialect   the dialect of the database
+     * @param table     the table name including the prefix
+     * @param batchSize the maximum number of entries read at a time
+     * @param retention the time in seconds for which the entries are kept
+     */
+    public ChangeLogInvalidationChannel(DatabaseConnector connector, SqlDialect dialect, String table, int batchSize, long retention) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batchSize must be greater than 0.");
+
+        this.connector = connector;
+        this.dialect = dialect;
+        this.table = table;
+        this.batchSize = batchSize;
+        this.retentionMillis = TimeUnit.SECONDS.toMillis(retention);
+        insertStatement = "INSERT INTO " + table + " (store_name, row_id, origin, changed_at) VALUES (?, ?, ?, ?)";
+        selectStatement = "SELECT seq, store_name, row_id, origin FROM " + table + " WHERE seq > ? ORDER BY seq LIMIT " + batchSize;
+        pruneStatement = "DELETE FROM " + table + " WHERE changed_at < ?";
+    }
+
+    @Override
+    public void publish(String storeName, long id) {
+        outbox.add(new Change(storeName, id));
+    }
+
+    @Override
+    public void setListener(InvalidationListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized void poll() {
+        try (var connection = connector.getConnection()) {
+            long now = System.currentTimeMillis();
+            if (!initialized) {
+                initialize(connection);
+                lastPolledAt = now;
+                initialized = true;
+            }
+
+            send(connection, now);
+            if (now - lastPolledAt > retentionMillis) {
+                log.warn("The changes of other processes were not read for {} ms, so all cached values are discarded.", now - lastPolledAt);
+                invalidateAll();
+                lastSequence = selectMaxSequence(connection);
+            } else {
+                receive(connection);
+                recheckGaps(connection);
+            }
+            lastPolledAt = now;
+
+            if (now - lastPrunedAt > retentionMillis / 10) {
+                prune(connection, now - retentionMillis);
+                lastPrunedAt = now;
+            }
+        } catch (SQLException e) {
+            log.warn("Failed to exchange the changed rows with other processes.", e);
+        }
+    }
+
+    private void initialize(Connection connection) throws SQLException {
+        lockWrite();
+        try (PreparedStatement ps = connection.prepareStatement(dialect.createChangeLogTable(table))) {
+            ps.execute();
+        } finally {
+            unlockWrite();
+        }
+        // the caches of this process are empty, so the older changes do not matter.
+        lastSequence = selectMaxSequence(connection);
+    }
+
+    private long selectMaxSequence(Connection connection) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT MAX(seq) FROM " + table);
+             var resultSet = ps.executeQuery()) {
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        }
+    }
+
+    private void send(Connection connection, long now) throws SQLException {
+        Set<Change> changes = new LinkedHashSet<>(); // several writes to the same row need only one entry.
+        Change change;
+        while ((change = outbox.poll()) != null)
+            changes.add(change);
+        if (changes.isEmpty())
+            return;
+
+        lockWrite();
+        try (PreparedStatement ps = connection.prepareStatement(insertStatement)) {
+            int count = 0;
+            for (Change pending : changes) {
+                ps.setString(1, pending.storeName());
+                ps.setLong(2, pending.id());
+                ps.setString(3, origin);
+                ps.setLong(4, now);
+                ps.addBatch();
+                if (++count % batchSize == 0)
+                    ps.executeBatch();
+            }
+            if (count % batchSize != 0)
+                ps.executeBatch();
+        } catch (SQLException e) {
+            outbox.addAll(changes); // send them with the next poll.
+            throw e;
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    private void receive(Connection connection) throws SQLException {
+        int read;
+        do {
+            read = 0;
+            try (PreparedStatement ps = connection.prepareStatement(selectStatement)) {
+                ps.setLong(1, lastSequence);
+                try (var resultSet = ps.executeQuery()) {
+                    while (resultSet.next()) {
+                        read++;
+                        long sequence = resultSet.getLong(1);
+                        if (sequence > lastSequence + 1)
+                            addGaps(lastSequence + 1, sequence);
+                        lastSequence = sequence;
+                        deliver(resultSet);
+                    }
+                }
+            }
+        } while (read == batchSize);
+    }
+
+    private void addGaps(long from, long to) {
+        if (gaps.size() + (to - from) > MAX_GAPS) {
+            // too many changes may be missing to check them one by one.
+            invalidateAll();
+            gaps.clear();
+            return;
+        }
+        for (long sequence = from; sequence < to; sequence++)
+            gaps.put(sequence, GAP_CHECKS);
+    }
+
+    private void recheckGaps(Connection connection) throws SQLException {
+        if (gaps.isEmpty())
+            return;
+
+        var statement = "SELECT seq, store_name, row_id, origin FROM " + table + " WHERE seq IN ("
+                + String.join(", ", Collections.nCopies(gaps.size(), "?")) + ")";
+        try (PreparedStatement ps = connection.prepareStatement(statement)) {
+            int index = 1;
+            for (long sequence : gaps.keySet())
+                ps.setLong(index++, sequence);
+            try (var resultSet = ps.executeQuery()) {
+                while (resultSet.next()) {
+                    gaps.remove(resultSet.getLong(1));
+                    deliver(resultSet);
+                }
+            }
+        }
+
+        Iterator<Map.Entry<Long, Integer>> iterator = gaps.entrySet().iterator();
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            if (entry.getValue() <= 1)
+                iterator.remove(); // the transaction has been rolled back, or the number was never used.
+            else
+                entry.setValue(entry.getValue() - 1);
+        }
+    }
+
+    private void deliver(ResultSet resultSet) throws SQLException {
+        var currentListener = listener;
+        if (currentListener != null && !origin.equals(resultSet.getString(4)))
+            currentListener.onInvalidate(resultSet.getString(2), resultSet.getLong(3));
+    }
+
+    private void invalidateAll() {
+        var currentListener = listener;
+        if (currentListener != null)
+            currentListener.onInvalidateAll();
+    }
+
+    private void prune(Connection connection, long before) throws SQLException {
+        lockWrite();
+        try (PreparedStatement ps = connection.prepareStatement(pruneStatement)) {
+            ps.setLong(1, before);
+            ps.executeUpdate();
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    private void lockWrite() {
+        Lock lock = dialect.getWriteLock();
+        if (lock != null)
+            lock.lock();
+    }
+
+    private void unlockWrite() {
+        Lock lock = dialect.getWriteLock();
+        if (lock != null)
+            lock.unlock();
+    }
+
+    /**
+     * Sends the remaining changes.
+     */
+    @Override
+    public void close() {
+        if (!outbox.isEmpty())
+            poll();
+    }
+
+    private record Change(String storeName, long id) {
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore.invalidation;
+
+import java.io.Closeable;
+
+/**
+ * Tells the other processes sharing the database which rows of the data stores have changed,
+ * so that they can discard the cached values of exactly those rows.
+ * <p>
+ * Changes published by this process are never delivered back to it.
+ */
+public interface InvalidationChannel extends Closeable {
+
+    /**
+     * Publishes that a row has been written or deleted.
+     * Implementations may buffer the changes until the next {@link #poll()}.
+     *
+     * @param storeName the name of the data store
+     * @param id        the guild id of the row
+     */
+    void publish(String storeName, long id);
+
+    /**
+     * Sets the listener that receives the changes made by other processes.
+     *
+     * @param listener the listener
+     */
+    void setListener(InvalidationListener listener);
+
+    /**
+     * Sends the buffered changes and delivers the changes made by other processes to the listener.
+     * Called at a regular interval by the data store manager.
+     */
+    void poll();
+
+    @Override
+    void close();
+
+    interface InvalidationListener {
+
+        /**
+         * Called when another process has written or deleted a row.
+         *
+         * @param storeName the name of the data store
+         * @param id        the guild id of the row
+         */
+        void onInvalidate(String storeName, long id);
+
+        /**
+         * Called when changes may have been missed, so that all cached values must be discarded.
+         */
+        void onInvalidateAll();
+    }
+}
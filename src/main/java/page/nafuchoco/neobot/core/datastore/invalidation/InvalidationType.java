@@ -0,0 +1,35 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore.invalidation;
+
+/**
+ * The ways to share the invalidation of cached values between processes.
+ */
+public enum InvalidationType {
+    /**
+     * The caches are not shared. Use when only one process uses the database.
+     */
+    NONE,
+    /**
+     * Changes are shared only within this process. Intended for tests.
+     */
+    LOOPBACK,
+    /**
+     * Changes are recorded in a table of the database and polled by every process.
+     */
+    CHANGE_LOG
+}
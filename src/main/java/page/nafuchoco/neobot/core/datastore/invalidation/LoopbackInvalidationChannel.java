@@ -0,0 +1,73 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore.invalidation;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An {@link InvalidationChannel} that delivers changes between channels in the same JVM.
+ * <p>
+ * Channels created with {@link #join()} share the changes with each other, which allows several data store managers
+ * in one process to behave like separate processes. A single channel on its own publishes to no one.
+ */
+public class LoopbackInvalidationChannel implements InvalidationChannel {
+    private final List<LoopbackInvalidationChannel> members;
+    private volatile InvalidationListener listener;
+
+    public LoopbackInvalidationChannel() {
+        this(new CopyOnWriteArrayList<>());
+    }
+
+    private LoopbackInvalidationChannel(List<LoopbackInvalidationChannel> members) {
+        this.members = members;
+        members.add(this);
+    }
+
+    /**
+     * Creates another channel that receives the changes published by this channel and vice versa.
+     *
+     * @return the new channel
+     */
+    public LoopbackInvalidationChannel join() {
+        return new LoopbackInvalidationChannel(members);
+    }
+
+    @Override
+    public void publish(String storeName, long id) {
+        for (LoopbackInvalidationChannel member : members) {
+            var memberListener = member.listener;
+            if (member != this && memberListener != null)
+                memberListener.onInvalidate(storeName, id);
+        }
+    }
+
+    @Override
+    public void setListener(InvalidationListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void poll() {
+        // changes are delivered as soon as they are published.
+    }
+
+    @Override
+    public void close() {
+        members.remove(this);
+    }
+}
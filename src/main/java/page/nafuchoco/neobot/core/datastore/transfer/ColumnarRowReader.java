@@ -0,0 +1,133 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore.transfer;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a binary export file written by {@link ColumnarRowWriter}, a block at a time.
+ */
+public class ColumnarRowReader implements RowReader {
+    private final DataInputStream in;
+    private Class[] columnTypes;
+    private final long[] ids = new long[ColumnarRowWriter.BLOCK_SIZE];
+    private Object[][] columns;
+    private Object[] values;
+    private int rowCount = 0;
+    private int row = 0;
+    private boolean finished = false;
+
+    public ColumnarRowReader(InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in, 65536));
+    }
+
+    @Override
+    public TransferHeader readHeader() throws IOException {
+        if (in.readInt() != ColumnarRowWriter.MAGIC || in.readInt() != ColumnarRowWriter.VERSION)
+            throw new IOException("The file is not a columnar export file of a supported version.");
+        String storeName = readString();
+        int columnCount = in.readInt();
+        String[] columnNames = new String[columnCount];
+        columnTypes = new Class[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columnNames[i] = readString();
+            columnTypes[i] = TransferHeader.typeOf(in.readUnsignedByte());
+        }
+        columns = new Object[columnCount][ColumnarRowWriter.BLOCK_SIZE];
+        values = new Object[columnCount];
+        return new TransferHeader(storeName, columnNames, columnTypes);
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        if (row == rowCount) {
+            if (finished || !readBlock())
+                return false;
+        }
+        for (int column = 0; column < values.length; column++)
+            values[column] = columns[column][row];
+        row++;
+        return true;
+    }
+
+    private boolean readBlock() throws IOException {
+        rowCount = in.readInt();
+        row = 0;
+        if (rowCount == 0) {
+            finished = true;
+            return false;
+        } else if (rowCount < 0 || rowCount > ColumnarRowWriter.BLOCK_SIZE) {
+            throw new IOException("The export file is broken. (block of " + rowCount + " rows)");
+        }
+
+        for (int i = 0; i < rowCount; i++)
+            ids[i] = in.readLong();
+
+        byte[] nulls = new byte[(rowCount + 7) >>> 3];
+        for (int column = 0; column < columns.length; column++) {
+            in.readFully(nulls);
+            Class type = columnTypes[column];
+            Object[] values = columns[column];
+            for (int i = 0; i < rowCount; i++) {
+                if ((nulls[i >>> 3] & (1 << (i & 7))) != 0)
+                    values[i] = null;
+                else if (type == String.class)
+                    values[i] = readString();
+                else if (type == Integer.class)
+                    values[i] = in.readInt();
+                else if (type == Long.class)
+                    values[i] = in.readLong();
+                else if (type == Double.class)
+                    values[i] = in.readDouble();
+                else if (type == byte[].class)
+                    values[i] = readBytes();
+                else
+                    values[i] = in.readBoolean();
+            }
+        }
+        return true;
+    }
+
+    private String readString() throws IOException {
+        return new String(readBytes(), StandardCharsets.UTF_8);
+    }
+
+    private byte[] readBytes() throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    @Override
+    public long getId() {
+        return ids[row - 1];
+    }
+
+    @Override
+    public Object[] getValues() {
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore.transfer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes a binary export file that stores the rows in blocks, column by column.
+ * <p>
+ * Each block holds the ids of up to {@link #BLOCK_SIZE} rows, followed by a null bitmap and the non-null values of each column.
+ * A block with no rows marks the end of the file.
+ */
+public class ColumnarRowWriter implements RowWriter {
+    static final int MAGIC = 0x4E424443; // NBDC
+    static final int VERSION = 1;
+    static final int BLOCK_SIZE = 4096;
+
+    private final DataOutputStream out;
+    private Class[] columnTypes;
+    private final long[] ids = new long[BLOCK_SIZE];
+    private Object[][] columns;
+    private int rowCount = 0;
+
+    public ColumnarRowWriter(OutputStream out) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 65536));
+    }
+
+    @Override
+    public void writeHeader(TransferHeader header) throws IOException {
+        columnTypes = header.columnTypes();
+        columns = new Object[columnTypes.length][BLOCK_SIZE];
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeString(header.storeName());
+        out.writeInt(columnTypes.length);
+        for (int i = 0; i < columnTypes.length; i++) {
+            writeString(header.columnNames()[i]);
+            out.writeByte(TransferHeader.typeIdOf(columnTypes[i]));
+        }
+    }
+
+    @Override
+    public void writeRow(long id, Object[] values) throws IOException {
+        ids[rowCount] = id;
+        for (int column = 0; column < columns.length; column++) {
+            Object value = values[column];
+            if (value != null && !columnTypes[column].isInstance(value))
+                throw new IllegalArgumentException("The value " + value + " is not an instance of " + columnTypes[column].getSimpleName() + ".");
+            columns[column][rowCount] = value;
+        }
+        if (++rowCount == BLOCK_SIZE)
+            writeBlock();
+    }
+
+    private void writeBlock() throws IOException {
+        out.writeInt(rowCount);
+        for (int row = 0; row < rowCount; row++)
+            out.writeLong(ids[row]);
+
+        byte[] nulls = new byte[(rowCount + 7) >>> 3];
+        for (int column = 0; column < columns.length; column++) {
+            Object[] values = columns[column];
+            Arrays.fill(nulls, (byte) 0);
+            for (int row = 0; row < rowCount; row++) {
+                if (values[row] == null)
+                    nulls[row >>> 3] |= (byte) (1 << (row & 7));
+            }
+            out.write(nulls);
+
+            Class type = columnTypes[column];
+            for (int row = 0; row < rowCount; row++) {
+                Object value = values[row];
+                if (value == null)
+                    continue;
+                if (type == String.class)
+                    writeString((String) value);
+                else if (type == Integer.class)
+                    out.writeInt((Integer) value);
+                else if (type == Long.class)
+                    out.writeLong((Long) value);
+                else if (type == Double.class)
+                    out.writeDouble((Double) value);
+                else if (type == Boolean.class)
+                    out.writeBoolean((Boolean) value);
+                else if (type == byte[].class)
+                    writeBytes((byte[]) value);
+                values[row] = null;
+            }
+        }
+        rowCount = 0;
+    }
+
+    private void writeString(String value) throws IOException {
+        writeBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (columns != null) {
+                if (rowCount > 0)
+                    writeBlock();
+                out.writeInt(0);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore.transfer;
+
+import lombok.extern.slf4j.Slf4j;
+import page.nafuchoco.neobot.core.datastore.BulkDataStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports the rows of a data store to a file and imports them back.
+ * <p>
+ * Rows are streamed from the data store and written to the file as they are read, and read back
+ * and registered in batches, so the memory used does not depend on the number of rows.
+ */
+@Slf4j
+public class DataStoreTransfer {
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+    private final int fetchSize;
+    private final int batchSize;
+
+    /**
+     * @param fetchSize the number of rows read from the data store at a time during an export
+     * @param batchSize the number of rows registered in the data store at a time during an import
+     */
+    public DataStoreTransfer(int fetchSize, int batchSize) {
+        if (fetchSize <= 0 || batchSize <= 0)
+            throw new IllegalArgumentException("fetchSize and batchSize must be greater than 0.");
+        this.fetchSize = fetchSize;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Writes all rows of the data store to the file.
+     * The file is replaced only when all rows have been written.
+     *
+     * @param store  the data store to export
+     * @param file   the file to write to
+     * @param format the format of the file
+     * @return the number of rows written and the time taken
+     * @throws IOException if the file could not be written
+     */
+    public Result exportTo(BulkDataStore store, Path file, TransferFormat format) throws IOException {
+        var progress = new Progress("Exporting", store.getName());
+        var temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var writer = format.createWriter(Files.newOutputStream(temporary))) {
+            writer.writeHeader(new TransferHeader(store.getName(), store.getColumnNames(), store.getColumnTypes()));
+            store.scanRows(fetchSize, (id, values) -> {
+                writer.writeRow(id, values);
+                progress.increment();
+            });
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        return progress.finish(Files.size(file));
+    }
+
+    /**
+     * Registers the rows of the file in the data store. Existing rows with the same ids are overwritten.
+     * Columns are matched by name: columns missing from the file are registered as null, and columns unknown to the data store are ignored.
+     *
+     * @param store  the data store to import to
+     * @param file   the file to read from
+     * @param format the format of the file
+     * @return the number of rows registered and the time taken
+     * @throws IOException if the file could not be read
+     */
+    public Result importFrom(BulkDataStore store, Path file, TransferFormat format) throws IOException {
+        var progress = new Progress("Importing", store.getName());
+        String[] columnNames = store.getColumnNames();
+        Class[] columnTypes = store.getColumnTypes();
+
+        try (var reader = format.createReader(Files.newInputStream(file))) {
+            var header = reader.readHeader();
+            // the position of each column of the data store in the file, or -1 if the file does not have it.
+            int[] mapping = new int[columnNames.length];
+            for (int i = 0; i < columnNames.length; i++) {
+                mapping[i] = Arrays.asList(header.columnNames()).indexOf(columnNames[i]);
+                if (mapping[i] < 0)
+                    log.warn("The column {} is not in the file. It is imported as null.", columnNames[i]);
+            }
+            for (String column : header.columnNames()) {
+                if (!Arrays.asList(columnNames).contains(column))
+                    log.warn("The column {} is not in the data store {}. It is ignored.", column, store.getName());
+            }
+
+            long[] ids = new long[batchSize];
+            Object[][] rows = new Object[batchSize][columnNames.length];
+            int count = 0;
+            while (reader.next()) {
+                Object[] values = reader.getValues();
+                ids[count] = reader.getId();
+                for (int i = 0; i < columnNames.length; i++)
+                    rows[count][i] = mapping[i] < 0 ? null : convert(values[mapping[i]], columnTypes[i], columnNames[i]);
+                if (++count == batchSize) {
+                    store.registerStoreRows(ids, rows, count);
+                    progress.add(count);
+                    count = 0;
+                }
+            }
+            if (count > 0) {
+                store.registerStoreRows(ids, rows, count);
+                progress.add(count);
+            }
+        }
+        return progress.finish(Files.size(file));
+    }
+
+    /**
+     * Converts a value read from the file to the type of the column.
+     */
+    private static Object convert(Object value, Class type, String column) {
+        if (value == null || type.isInstance(value))
+            return value;
+        if (value instanceof Number number) {
+            if (type == Long.class)
+                return number.longValue();
+            else if (type == Integer.class)
+                return Math.toIntExact(number.longValue());
+            else if (type == Double.class)
+                return number.doubleValue();
+        }
+        if (type == byte[].class && value instanceof String string) // binary values are written in Base64.
+            return Base64.getDecoder().decode(string);
+        if (type == String.class)
+            return value.toString();
+        throw new IllegalArgumentException("The value " + value + " cannot be imported to the column " + column + " of type " + type.getSimpleName() + ".");
+    }
+
+    /**
+     * The result of an export or an import.
+     *
+     * @param rows          the number of rows transferred
+     * @param bytes         the size of the file
+     * @param elapsedMillis the time taken in milliseconds
+     */
+    public record Result(long rows, long bytes, long elapsedMillis) {
+
+        /**
+         * @return the number of rows transferred per second
+         */
+        public long rowsPerSecond() {
+            return elapsedMillis == 0 ? rows : rows * 1000 / elapsedMillis;
+        }
+    }
+
+    /**
+     * Logs the number of rows transferred and the throughput at a regular interval.
+     */
+    private static class Progress {
+        private final String action;
+        private final String storeName;
+        private final long startedAt = System.nanoTime();
+        private long lastReportedAt = startedAt;
+        private long rows = 0;
+
+        private Progress(String action, String storeName) {
+            this.action = action;
+            this.storeName = storeName;
+        }
+
+        private void increment() {
+            add(1);
+        }
+
+        private void add(int count) {
+            rows += count;
+            long now = System.nanoTime();
+            if (now - lastReportedAt >= PROGRESS_INTERVAL) {
+                lastReportedAt = now;
+                log.info("{} {}: {} rows ({} rows/s)", action, storeName, rows,
+                        rows * TimeUnit.SECONDS.toNanos(1) / (now - startedAt));
+            }
+        }
+
+        private Result finish(long bytes) {
+            var result = new Result(rows, bytes, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+            log.info("{} {} finished: {} rows, {} bytes in {} ms ({} rows/s)", action, storeName,
+                    result.rows(), result.bytes(), result.elapsedMillis(), result.rowsPerSecond());
+            return result;
+        }
+    }
+}
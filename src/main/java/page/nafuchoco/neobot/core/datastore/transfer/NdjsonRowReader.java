@@ -0,0 +1,144 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore.transfer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads an export file written by {@link NdjsonRowWriter}.
+ */
+public class NdjsonRowReader implements RowReader {
+    private final JsonParser parser;
+    private Map<String, Integer> columnPositions;
+    private Object[] values;
+    private long id;
+
+    public NdjsonRowReader(InputStream in) throws IOException {
+        parser = new JsonFactory().createParser(in);
+    }
+
+    @Override
+    public TransferHeader readHeader() throws IOException {
+        expect(parser.nextToken(), JsonToken.START_OBJECT);
+        String storeName = null;
+        var names = new ArrayList<String>();
+        var types = new ArrayList<Class>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "store" -> storeName = parser.getValueAsString();
+                case "columns" -> {
+                    expect(parser.currentToken(), JsonToken.START_ARRAY);
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        String name = null;
+                        String type = null;
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String columnField = parser.currentName();
+                            parser.nextToken();
+                            if (columnField.equals("name"))
+                                name = parser.getValueAsString();
+                            else if (columnField.equals("type"))
+                                type = parser.getValueAsString();
+                            else
+                                parser.skipChildren();
+                        }
+                        if (name == null || type == null)
+                            throw new IOException("A column of the export file has no name or type.");
+                        names.add(name);
+                        types.add(TransferHeader.typeOf(type));
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        if (storeName == null)
+            throw new IOException("The export file does not start with the description of a data store.");
+
+        columnPositions = new HashMap<>();
+        for (String name : names)
+            columnPositions.put(name, columnPositions.size());
+        values = new Object[names.size()];
+        return new TransferHeader(storeName, names.toArray(new String[0]), types.toArray(new Class[0]));
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == null)
+            return false;
+        expect(token, JsonToken.START_OBJECT);
+
+        Arrays.fill(values, null);
+        boolean hasId = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken valueToken = parser.nextToken();
+            if (field.equals("id")) {
+                id = parser.getLongValue();
+                hasId = true;
+                continue;
+            }
+
+            Integer position = columnPositions.get(field);
+            if (position == null) {
+                parser.skipChildren();
+                continue;
+            }
+            values[position] = switch (valueToken) {
+                case VALUE_NULL -> null;
+                case VALUE_STRING -> parser.getText();
+                case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> parser.getNumberValue();
+                case VALUE_TRUE -> Boolean.TRUE;
+                case VALUE_FALSE -> Boolean.FALSE;
+                default -> throw new IOException("Unexpected value " + valueToken + " for the column " + field + ".");
+            };
+        }
+        if (!hasId)
+            throw new IOException("A row of the export file has no id.");
+        return true;
+    }
+
+    private void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected)
+            throw new IOException("Expected " + expected + " but found " + actual + " at " + parser.currentLocation() + ".");
+    }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public Object[] getValues() {
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+}
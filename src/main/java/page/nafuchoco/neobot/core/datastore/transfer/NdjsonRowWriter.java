@@ -0,0 +1,91 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore.transfer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes an export file with one JSON object per line.
+ * The first line describes the data store, and each following line holds a row keyed by column name.
+ */
+public class NdjsonRowWriter implements RowWriter {
+    private final JsonGenerator generator;
+    private String[] columnNames;
+    private Class[] columnTypes;
+
+    public NdjsonRowWriter(OutputStream out) throws IOException {
+        generator = new JsonFactory().createGenerator(out);
+        generator.setRootValueSeparator(null);
+    }
+
+    @Override
+    public void writeHeader(TransferHeader header) throws IOException {
+        columnNames = header.columnNames();
+        columnTypes = header.columnTypes();
+
+        generator.writeStartObject();
+        generator.writeStringField("store", header.storeName());
+        generator.writeArrayFieldStart("columns");
+        for (int i = 0; i < columnNames.length; i++) {
+            TransferHeader.typeIdOf(columnTypes[i]); // check the type is supported
+            generator.writeStartObject();
+            generator.writeStringField("name", columnNames[i]);
+            generator.writeStringField("type", columnTypes[i].getSimpleName());
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    @Override
+    public void writeRow(long id, Object[] values) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("id", id);
+        for (int i = 0; i < columnNames.length; i++) {
+            generator.writeFieldName(columnNames[i]);
+            Object value = values[i];
+            if (value == null)
+                generator.writeNull();
+            else if (value instanceof String string)
+                generator.writeString(string);
+            else if (value instanceof Integer integer)
+                generator.writeNumber(integer);
+            else if (value instanceof Long longValue)
+                generator.writeNumber(longValue);
+            else if (value instanceof Double doubleValue)
+                generator.writeNumber(doubleValue);
+            else if (value instanceof Boolean bool)
+                generator.writeBoolean(bool);
+            else if (value instanceof byte[] bytes)
+                generator.writeBinary(bytes);
+            else
+                throw new IllegalArgumentException("The type " + value.getClass().getSimpleName() + " cannot be exported.");
+        }
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        generator.close();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore.transfer;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the rows of a data store from an export file.
+ */
+public interface RowReader extends Closeable {
+
+    /**
+     * Reads the description of the data store. Must be called once before the rows are read.
+     *
+     * @return the description of the data store
+     * @throws IOException if the read fails or the file is not an export file
+     */
+    TransferHeader readHeader() throws IOException;
+
+    /**
+     * Advances to the next row.
+     *
+     * @return false if there are no more rows
+     * @throws IOException if the read fails or the file is broken
+     */
+    boolean next() throws IOException;
+
+    /**
+     * @return the guild id of the current row
+     */
+    long getId();
+
+    /**
+     * Returns the values of the current row in the column order of the header.
+     * The array is reused for the next row.
+     *
+     * @return the values of the current row
+     */
+    Object[] getValues();
+}
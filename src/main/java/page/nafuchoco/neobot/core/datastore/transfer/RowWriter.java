@@ -0,0 +1,43 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore.transfer;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes the rows of a data store to an export file.
+ */
+public interface RowWriter extends Closeable {
+
+    /**
+     * Writes the description of the data store. Must be called once before the rows are written.
+     *
+     * @param header the description of the data store
+     * @throws IOException if the write fails
+     */
+    void writeHeader(TransferHeader header) throws IOException;
+
+    /**
+     * Writes a row. The array of values may be reused by the caller after this method returns.
+     *
+     * @param id     the guild id of the row
+     * @param values the values of the row in the column order of the header
+     * @throws IOException if the write fails
+     */
+    void writeRow(long id, Object[] values) throws IOException;
+}
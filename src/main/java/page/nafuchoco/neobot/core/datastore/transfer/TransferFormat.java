@@ -0,0 +1,83 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore.transfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The file formats that data stores can be exported to.
+ */
+public enum TransferFormat {
+    /**
+     * One JSON object per line. Easy to read and edit by hand.
+     */
+    NDJSON(".ndjson") {
+        @Override
+        public RowWriter createWriter(OutputStream out) throws IOException {
+            return new NdjsonRowWriter(out);
+        }
+
+        @Override
+        public RowReader createReader(InputStream in) throws IOException {
+            return new NdjsonRowReader(in);
+        }
+    },
+    /**
+     * Binary blocks of rows stored column by column. Smaller and faster than NDJSON.
+     */
+    COLUMNAR(".columnar") {
+        @Override
+        public RowWriter createWriter(OutputStream out) {
+            return new ColumnarRowWriter(out);
+        }
+
+        @Override
+        public RowReader createReader(InputStream in) {
+            return new ColumnarRowReader(in);
+        }
+    };
+
+    private final String extension;
+
+    TransferFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public abstract RowWriter createWriter(OutputStream out) throws IOException;
+
+    public abstract RowReader createReader(InputStream in) throws IOException;
+
+    /**
+     * Returns the format of the file from its extension.
+     *
+     * @param fileName the name of the file
+     * @return the format, or {@link #NDJSON} if the extension is unknown
+     */
+    public static TransferFormat fromFileName(String fileName) {
+        for (TransferFormat format : values()) {
+            if (fileName.endsWith(format.extension))
+                return format;
+        }
+        return NDJSON;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore.transfer;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The description of the data store written at the start of an export file.
+ *
+ * @param storeName   the name of the exported data store
+ * @param columnNames the names of the columns except the id, in order
+ * @param columnTypes the types of the columns except the id, in order
+ */
+public record TransferHeader(String storeName, String[] columnNames, Class[] columnTypes) {
+    private static final List<Class> SUPPORTED_TYPES = List.of(String.class, Integer.class, Long.class, Double.class, Boolean.class, byte[].class);
+
+    /**
+     * Returns the type that is written to a file with the name.
+     *
+     * @param name the simple name of the type
+     * @return the type
+     * @throws IllegalArgumentException if the type is not supported
+     */
+    public static Class typeOf(String name) {
+        for (Class type : SUPPORTED_TYPES) {
+            if (type.getSimpleName().equals(name))
+                return type;
+        }
+        throw new IllegalArgumentException("The type " + name + " cannot be imported.");
+    }
+
+    /**
+     * Returns the number that identifies the type in a binary file.
+     *
+     * @param type the type
+     * @return the number of the type
+     * @throws IllegalArgumentException if the type is not supported
+     */
+    public static int typeIdOf(Class type) {
+        int id = SUPPORTED_TYPES.indexOf(type);
+        if (id < 0)
+            throw new IllegalArgumentException("The type " + type.getSimpleName() + " cannot be exported.");
+        return id;
+    }
+
+    /**
+     * @param id the number of the type in a binary file
+     * @return the type
+     * @throws IllegalArgumentException if the number is unknown
+     */
+    public static Class typeOf(int id) {
+        if (id < 0 || id >= SUPPORTED_TYPES.size())
+            throw new IllegalArgumentException("Unknown type " + id + ".");
+        return SUPPORTED_TYPES.get(id);
+    }
+
+    @Override
+    public String toString() {
+        return "TransferHeader{" +
+                "storeName='" + storeName + '\'' +
+                ", columnNames=" + Arrays.toString(columnNames) +
+                '}';
+    }
+}
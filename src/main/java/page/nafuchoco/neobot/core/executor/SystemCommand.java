@@ -1,15 +1,31 @@
 package page.nafuchoco.neobot.core.executor;
 
 import lombok.val;
+import net.dv8tion.jda.api.entities.Message;
 import org.jetbrains.annotations.NotNull;
 import page.nafuchoco.neobot.api.command.CommandContext;
 import page.nafuchoco.neobot.api.command.CommandExecutor;
+import page.nafuchoco.neobot.core.CommandExecutionEngine;
+import page.nafuchoco.neobot.core.DefaultCommandRegistry;
 import page.nafuchoco.neobot.core.Main;
+import page.nafuchoco.neobot.core.NeoBotLauncher;
+import page.nafuchoco.neobot.core.datastore.DataStoreMetrics;
+import page.nafuchoco.neobot.core.datastore.DefaultDataStoreManager;
+import page.nafuchoco.neobot.core.metrics.CommandMetrics;
+import page.nafuchoco.neobot.core.metrics.LatencyHistogram;
 
 import java.lang.management.ManagementFactory;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class SystemCommand extends CommandExecutor {
+    private static final int MAX_COMMANDS = 5;
+    private static final int MAX_MODULES = 5;
+    private static final int MAX_COMMAND_LENGTH = 50;
+    private static final int MAX_DATA_STORES = 5;
 
     public SystemCommand(String name) {
         super(name);
@@ -44,10 +60,103 @@ public class SystemCommand extends CommandExecutor {
                 .map(module -> module.getDescription().getName() + ": " + module.getDescription().getVersion())
                 .sorted(String::compareTo)
                 .collect(Collectors.joining(", ")));
+        if (commandContext.getLauncher().getCommandRegistry() instanceof DefaultCommandRegistry commandRegistry) {
+            val progress = commandRegistry.getCommandUpdateProgress();
+            builder.append("\nCommand updates:       ").append(progress.done()).append(" sent, ")
+                    .append(progress.queued() + progress.running()).append(" pending, ")
+                    .append(progress.failed()).append(" failed, ")
+                    .append(progress.retried()).append(" retries");
+        }
+        if (commandContext.getLauncher() instanceof NeoBotLauncher launcher) {
+            val stats = launcher.getCommandExecutionEngine().getStats();
+            builder.append("\nCommand execution:     ").append(stats.running()).append(" running, ")
+                    .append(stats.queued()).append(" queued (peak ").append(stats.peakQueued()).append("), ")
+                    .append(stats.completed()).append(" done, ")
+                    .append(stats.rejected()).append(" rejected, ")
+                    .append(stats.deferred()).append(" deferred, ")
+                    .append(stats.timedOut()).append(" timed out");
+            appendCommandInfo(builder, launcher.getCommandExecutionEngine());
+        }
+        if (commandContext.getLauncher().getDataStoreManager() instanceof DefaultDataStoreManager dataStoreManager)
+            appendDataStoreInfo(builder, dataStoreManager);
+        // Discord rejects messages longer than the limit, so the end of the info is cut off instead.
+        if (builder.length() + 3 > Message.MAX_CONTENT_LENGTH) {
+            builder.setLength(Message.MAX_CONTENT_LENGTH - 7);
+            builder.append("\n...");
+        }
         builder.append("```");
         commandContext.getResponseSender().sendMessage(builder.toString()).queue();
     }
 
+    private void appendCommandInfo(StringBuilder builder, CommandExecutionEngine executionEngine) {
+        val busiest = busiest(executionEngine.getCommandMetrics(), MAX_COMMANDS);
+        if (busiest.isEmpty())
+            return;
+
+        builder.append("\n\n====== Command Info ======\n");
+        for (val entry : busiest)
+            appendCommandMetrics(builder, "/" + entry.getKey(), entry.getValue());
+        for (val entry : busiest(executionEngine.getModuleMetrics(), MAX_MODULES))
+            appendCommandMetrics(builder, entry.getKey(), entry.getValue());
+        val slowCommands = executionEngine.getSlowCommands();
+        if (!slowCommands.isEmpty())
+            builder.append("Slow commands:         ").append(slowCommands.size()).append(" recent, last ")
+                    .append(truncate(slowCommands.get(0).command(), MAX_COMMAND_LENGTH)).append("\n");
+    }
+
+    private List<Map.Entry<String, CommandMetrics>> busiest(Map<String, CommandMetrics> metrics, int limit) {
+        return metrics.entrySet().stream()
+                .filter(entry -> entry.getValue().getInvocationCount() > 0)
+                .sorted(Comparator.comparingLong(entry -> -entry.getValue().getInvocationCount()))
+                .limit(limit)
+                .toList();
+    }
+
+    private void appendCommandMetrics(StringBuilder builder, String name, CommandMetrics metrics) {
+        val queueWait = metrics.getQueueWait().snapshot();
+        val execution = metrics.getExecution().snapshot();
+        val firstResponse = metrics.getFirstResponse().snapshot();
+        builder.append(String.format("%-14s %8d  reply p99 %-7s wait p99 %-7s run p50 %-7s p99 %-7s err %d%n", truncate(name, 14),
+                metrics.getInvocationCount(), LatencyHistogram.Snapshot.format(firstResponse.getPercentile(99)),
+                LatencyHistogram.Snapshot.format(queueWait.getPercentile(99)), LatencyHistogram.Snapshot.format(execution.getPercentile(50)),
+                LatencyHistogram.Snapshot.format(execution.getPercentile(99)), metrics.getErrorCount()));
+    }
+
+    private void appendDataStoreInfo(StringBuilder builder, DefaultDataStoreManager dataStoreManager) {
+        val busiest = dataStoreManager.getMetrics().entrySet().stream()
+                .filter(entry -> entry.getValue().getTotalCount() > 0)
+                .sorted(Comparator.comparingLong(entry -> -entry.getValue().getTotalCount()))
+                .limit(MAX_DATA_STORES)
+                .toList();
+        if (busiest.isEmpty())
+            return;
+
+        builder.append("\n\n====== DataStore Info ======\n");
+        for (val entry : busiest) {
+            // One line per store, with the slowest operation, keeps the block within the message length limit.
+            val metrics = entry.getValue();
+            DataStoreMetrics.Operation slowest = null;
+            long slowestP99 = 0;
+            long errors = 0;
+            for (DataStoreMetrics.Operation operation : DataStoreMetrics.Operation.values()) {
+                errors += metrics.getErrorCount(operation);
+                val latency = metrics.getLatency(operation).snapshot();
+                if (latency.getCount() > 0 && (slowest == null || latency.getPercentile(99) > slowestP99)) {
+                    slowest = operation;
+                    slowestP99 = latency.getPercentile(99);
+                }
+            }
+            val acquire = metrics.getConnectionAcquire().snapshot();
+            builder.append(String.format("%-14s %8d  p99 %-7s %-7s acquire p99 %-7s err %d%n", truncate(entry.getKey(), 14), metrics.getTotalCount(),
+                    LatencyHistogram.Snapshot.format(slowestP99), slowest == null ? "" : slowest.name().toLowerCase(Locale.ROOT),
+                    LatencyHistogram.Snapshot.format(acquire.getPercentile(99)), errors));
+        }
+    }
+
+    private String truncate(String value, int length) {
+        return value.length() <= length ? value : value.substring(0, length - 3) + "...";
+    }
+
     private String formatTime(long millis) {
         long t = millis / 1000L;
         int sec = (int) (t % 60L);
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters and latencies of the invocations of a command, or of all commands of a module.
+ * <p>
+ * The time of an invocation is split into the wait for its guild and a thread, and the execution itself.
+ * The time until the first response to the interaction is recorded separately.
+ * Recording takes no lock and allocates nothing.
+ */
+public class CommandMetrics {
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder deferred = new LongAdder();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram execution = new LatencyHistogram();
+    private final LatencyHistogram firstResponse = new LatencyHistogram();
+
+    /**
+     * Records a finished invocation.
+     *
+     * @param createdNanos  the value of {@link System#nanoTime()} when the interaction was created
+     * @param startedNanos  the value of {@link System#nanoTime()} when the execution started
+     * @param finishedNanos the value of {@link System#nanoTime()} when the execution finished
+     * @param error         true if the invocation failed with an error
+     */
+    public void record(long createdNanos, long startedNanos, long finishedNanos, boolean error) {
+        invocations.increment();
+        if (error)
+            errors.increment();
+        queueWait.record(startedNanos - createdNanos);
+        execution.record(finishedNanos - startedNanos);
+    }
+
+    /**
+     * Records the first response to an invocation, either its reply or its defer.
+     *
+     * @param createdNanos   the value of {@link System#nanoTime()} when the interaction was created
+     * @param respondedNanos the value of {@link System#nanoTime()} when Discord accepted the response
+     */
+    public void recordFirstResponse(long createdNanos, long respondedNanos) {
+        firstResponse.record(respondedNanos - createdNanos);
+    }
+
+    /**
+     * Records an invocation that had to be deferred because it did not reply in time.
+     */
+    public void recordDeferred() {
+        deferred.increment();
+    }
+
+    /**
+     * @return the number of finished invocations, including the failed ones
+     */
+    public long getInvocationCount() {
+        return invocations.sum();
+    }
+
+    /**
+     * @return the number of invocations that failed with an error
+     */
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    /**
+     * @return the number of invocations deferred because they did not reply in time
+     */
+    public long getDeferredCount() {
+        return deferred.sum();
+    }
+
+    /**
+     * @return the time from the creation of the interaction until the execution started
+     */
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    /**
+     * @return the time the execution took
+     */
+    public LatencyHistogram getExecution() {
+        return execution;
+    }
+
+    /**
+     * @return the time from the creation of the interaction until Discord accepted its first reply or defer
+     */
+    public LatencyHistogram getFirstResponse() {
+        return firstResponse;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class DataStoreCacheTest {
+    @Test
+    void keepsTheWrittenValueOfASingleWrite() {
+        var cache = new DataStoreCache(1, 10, 60);
+        long sequence = cache.getWriteSequence();
+        cache.update(1L, 0, "a", sequence);
+        assertEquals("a", cache.lookup(1L, 0));
+    }
+
+    @Test
+    void discardsTheRowWhenWritesOverlap() {
+        var cache = new DataStoreCache(1, 10, 60);
+        long first = cache.getWriteSequence();
+        long second = cache.getWriteSequence();
+        // the database applied the first write last, but the cache hears of it first.
+        cache.update(1L, 0, "first", first);
+        cache.update(1L, 0, "second", second);
+        assertSame(DataStoreCache.MISS, cache.lookup(1L, 0));
+    }
+
+    @Test
+    void discardsAWriteStartedBeforeAnInvalidation() {
+        var cache = new DataStoreCache(1, 10, 60);
+        long sequence = cache.getWriteSequence();
+        cache.invalidate(1L);
+        cache.updateRow(1L, new Object[]{"stale"}, Long.MAX_VALUE, sequence);
+        assertSame(DataStoreCache.MISS, cache.lookup(1L, 0));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2022 NAFU_at
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package page.nafuchoco.neobot.core.datastore;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MemoryDataStoreTest {
+    private static final String NAME = "test";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysTheJournalOverTheSnapshot() throws IOException {
+        var dataStore = open();
+        dataStore.registerStoreData(1L, "first", 1);
+        dataStore.registerStoreData(2L, "second", 2);
+        dataStore.flush(Long.MAX_VALUE);
+        dataStore.saveStoreData(1L, "name", "updated");
+        dataStore.deleteStoredData(2L);
+        dataStore.flush(Long.MAX_VALUE);
+
+        var restored = open();
+        assertEquals(1, restored.size());
+        assertEquals("updated", restored.<String>getStoreData(1L, "name"));
+        assertNull(restored.getStoreData(2L, "name"));
+    }
+
+    @Test
+    void skipsTheJournalLeftByACrashAfterTheSnapshotWasReplaced() throws IOException {
+        var dataStore = open();
+        dataStore.registerStoreData(1L, "old", 1);
+        dataStore.registerStoreData(2L, "deleted", 2);
+        dataStore.flush(Long.MAX_VALUE);
+        var journal = directory.resolve(NAME + ".journal");
+        var oldJournal = directory.resolve("old.journal");
+        Files.copy(journal, oldJournal);
+
+        dataStore.saveStoreData(1L, "name", "new");
+        dataStore.deleteStoredData(2L);
+        dataStore.snapshot();
+        // the state of the files when the process stops after the snapshot was moved into place
+        // and before the journal was emptied.
+        Files.copy(oldJournal, journal, StandardCopyOption.REPLACE_EXISTING);
+
+        var restored = open();
+        assertEquals(1, restored.size());
+        assertEquals("new", restored.<String>getStoreData(1L, "name"));
+        assertNull(restored.getStoreData(2L, "name"));
+    }
+
+    @Test
+    void skipsAJournalCutOffWithinItsHeader() throws IOException {
+        var dataStore = open();
+        dataStore.registerStoreData(1L, "kept", 1);
+        dataStore.snapshot();
+        var journal = directory.resolve(NAME + ".journal");
+        byte[] header = Files.readAllBytes(journal);
+        Files.write(journal, Arrays.copyOf(header, 10));
+
+        var restored = open();
+        assertEquals("kept", restored.<String>getStoreData(1L, "name"));
+    }
+
+    private MemoryDataStore open() throws IOException {
+        Map<String, Class> indexes = new LinkedHashMap<>();
+        indexes.put("name", String.class);
+        indexes.put("count", Integer.class);
+        var dataStore = new MemoryDataStore(NAME, indexes, Map.of(), new MemoryDataStoreFile(directory, NAME));
+        dataStore.load();
+        return dataStore;
+    }
+}